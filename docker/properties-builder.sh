@@ -25,6 +25,82 @@ sonar.tokens[0]=$SONAR_TOKEN
 sonar.staticMetrics63andAbove=${SONAR_STATIC_METRICS:-ncloc,violations,new_vulnerabilities,critical_violations,major_violations,blocker_violations,tests,test_success_density,test_errors,test_failures,coverage,line_coverage,sqale_index,alert_status,quality_gate_details}
 sonar.securityMetrics63andAbove=${SONAR_SECURITY_METRICS:-vulnerabilities,new_vulnerabilities}
 
+#Number of projects refreshed at the same time per sonar server
+sonar.refreshConcurrency=${SONAR_REFRESH_CONCURRENCY:-1}
+
+#Number of sonar servers collected at the same time, 0 collects all servers at once
+sonar.serverConcurrency=${SONAR_SERVER_CONCURRENCY:-0}
+
+#Milliseconds the version of a sonar server is trusted before it is checked again
+sonar.capabilityTtl=${SONAR_CAPABILITY_TTL:-3600000}
+
+#Number of project search pages fetched at the same time per sonar server
+sonar.pageFetchConcurrency=${SONAR_PAGE_FETCH_CONCURRENCY:-4}
+
+#Store discovered projects page by page instead of holding every project of a server in memory
+sonar.streamingDiscovery=${SONAR_STREAMING_DISCOVERY:-true}
+
+#Milliseconds the projects one collector discovered are reused by the other collector, keep it below the cron period (0 disables)
+sonar.discoverySnapshotTtl=${SONAR_DISCOVERY_SNAPSHOT_TTL:-240000}
+
+#Refresh only projects analysed since the last run (needs permission to read /api/ce/activity)
+#and every enabled project once per full refresh interval (milliseconds)
+sonar.incrementalRefresh=${SONAR_INCREMENTAL_REFRESH:-false}
+sonar.fullRefreshInterval=${SONAR_FULL_REFRESH_INTERVAL:-86400000}
+
+#Projects whose measures are read with one request (at most 100), and the longest url sent to sonar
+sonar.measuresBatchSize=${SONAR_MEASURES_BATCH_SIZE:-100}
+sonar.maxUrlLength=${SONAR_MAX_URL_LENGTH:-4000}
+
+#Read static and security metrics with one request, measures for the other collector are kept (milliseconds)
+sonar.fusedMeasures=${SONAR_FUSED_MEASURES:-false}
+sonar.fusedMeasuresTtl=${SONAR_FUSED_MEASURES_TTL:-600000}
+
+#Refreshed projects whose code quality is written with one bulk operation, and milliseconds before a partial batch is written
+sonar.writeBatchSize=${SONAR_WRITE_BATCH_SIZE:-500}
+sonar.writeFlushInterval=${SONAR_WRITE_FLUSH_INTERVAL:-5000}
+
+#Schedule of the quality profile changelog collection (empty disables it), and profiles read at the same time per sonar server
+sonar.changelogCron=${SONAR_CHANGELOG_CRON:-0 0 * * * *}
+sonar.changelogConcurrency=${SONAR_CHANGELOG_CONCURRENCY:-4}
+
+#Formatted value of a metric (auto, duration, percent, integer or raw), sqale_index is a duration and every other metric auto
+#e.g. sonar.metricFormats.new_technical_debt=duration
+
+#Port and path the prometheus metrics of the phases, sonar requests and repository calls are served on (0 does not serve them)
+sonar.metricsPort=${SONAR_METRICS_PORT:-0}
+sonar.metricsPath=${SONAR_METRICS_PATH:-/metrics}
+
+#Adapt the requests in flight per sonar server: grow while latency stays flat, back off on slow responses, 429 and 5xx
+sonar.adaptiveConcurrency=${SONAR_ADAPTIVE_CONCURRENCY:-true}
+sonar.initialConcurrencyLimit=${SONAR_INITIAL_CONCURRENCY_LIMIT:-8}
+sonar.latencyTolerance=${SONAR_LATENCY_TOLERANCE:-2.0}
+
+#Skip a sonar server after consecutive failed requests (0 never skips), probe it again after the open time in millis
+sonar.circuitBreakerFailures=${SONAR_CIRCUIT_BREAKER_FAILURES:-5}
+sonar.circuitBreakerOpenTime=${SONAR_CIRCUIT_BREAKER_OPEN_TIME:-60000}
+
+#Milliseconds the quality profiles, the projects of a profile and the server version are cached (0 does not cache),
+#bytes of cached responses kept in memory and an optional directory that keeps them across restarts
+sonar.responseCacheTtl.qualityProfiles=${SONAR_RESPONSE_CACHE_TTL_QUALITY_PROFILES:-14400000}
+sonar.responseCacheTtl.profileProjects=${SONAR_RESPONSE_CACHE_TTL_PROFILE_PROJECTS:-14400000}
+sonar.responseCacheTtl.version=${SONAR_RESPONSE_CACHE_TTL_VERSION:-3600000}
+sonar.responseCacheSize=${SONAR_RESPONSE_CACHE_SIZE:-16777216}
+sonar.responseCacheDir=${SONAR_RESPONSE_CACHE_DIR:-}
+
+#Split the enabled projects across all collector nodes sharing the database, coordinated by leases in mongo.
+#A node missing heartbeats for the lease time (milliseconds) is dropped and its projects move to the others
+sonar.sharded=${SONAR_SHARDED:-false}
+sonar.nodeId=${SONAR_NODE_ID:-}
+sonar.heartbeatInterval=${SONAR_HEARTBEAT_INTERVAL:-10000}
+sonar.leaseTime=${SONAR_LEASE_TIME:-30000}
+
+#Http connection pool and timeouts (milliseconds) shared by all sonar servers
+sonar.maxConnections=${SONAR_MAX_CONNECTIONS:-100}
+sonar.maxConnectionsPerRoute=${SONAR_MAX_CONNECTIONS_PER_ROUTE:-20}
+sonar.connectTimeout=${SONAR_CONNECT_TIMEOUT:-20000}
+sonar.readTimeout=${SONAR_READ_TIMEOUT:-20000}
+
 #Sonar Version - see above for semantics between version/metrics
 sonar.versions[0]=${SONAR_VERSION}
 
@@ -0,0 +1,65 @@
+package com.capitalone.dashboard.collector;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.commons.io.IOUtils;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Answers sonar requests with the json fixtures of the tests, held in memory, so the benchmarks
+ * measure parsing and conversion without any network in between.
+ */
+class FixtureRestClient extends StreamingRestClient {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Map<String, byte[]> responses = new LinkedHashMap<>();
+
+    FixtureRestClient() {
+        super(() -> null);
+    }
+
+    /**
+     * Answer every url containing the path with the fixture
+     */
+    FixtureRestClient respond(String path, String fixture) {
+        responses.put(path, fixture(fixture));
+        return this;
+    }
+
+    @Override
+    public <T> T get(String url, HttpHeaders headers, ResponseReader<T> reader) {
+        for (Map.Entry<String, byte[]> response : responses.entrySet()) {
+            if (url.contains(response.getKey())) {
+                try (JsonParser parser = JSON_FACTORY.createParser(response.getValue())) {
+                    return reader.read(parser);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        throw new IllegalArgumentException("No fixture for " + url);
+    }
+
+    @Override
+    public <T> T get(URI uri, HttpHeaders headers, ResponseReader<T> reader) {
+        return get(uri.toString(), headers, reader);
+    }
+
+    static byte[] fixture(String name) {
+        try (InputStream in = FixtureRestClient.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No fixture " + name);
+            }
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.SonarProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the measures of a project into code quality metrics: the default static metrics of one project
+ * as addMetrics converts them, the sqale_index duration formatting and an integer metric on their own,
+ * and the whole getCurrentStaticOrSecurityCodeQuality path reading sonar6measures.json and sonar6analyses.json.
+ * <p>
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Djmh.args=MetricConversionBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricConversionBenchmark {
+    private Map<String, String> measures;
+    private Map<String, String> integerMeasure = Collections.singletonMap("ncloc", "126518");
+    private DefaultSonar6Client client;
+    private MetricConversions conversions = new MetricConversions(null);
+    private SonarProject project;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // the default static metrics of a mid sized project
+        measures = new LinkedHashMap<>();
+        measures.put("ncloc", "126518");
+        measures.put("violations", "2417");
+        measures.put("critical_violations", "12");
+        measures.put("major_violations", "1183");
+        measures.put("blocker_violations", "0");
+        measures.put("tests", "4120");
+        measures.put("test_success_density", "99.8");
+        measures.put("test_errors", "0");
+        measures.put("test_failures", "8");
+        measures.put("coverage", "71.4");
+        measures.put("line_coverage", "74.9");
+        measures.put("sqale_index", "36225");
+        measures.put("alert_status", "ERROR");
+        measures.put("quality_gate_details", "{\"level\":\"ERROR\",\"conditions\":[{\"metric\":\"coverage\",\"op\":\"LT\",\"error\":\"80\",\"actual\":\"71.4\",\"level\":\"ERROR\"}]}");
+
+        client = new DefaultSonar6Client(new FixtureRestClient()
+                .respond("/api/measures/component", "sonar6measures.json")
+                .respond("/api/project_analyses/search", "sonar6analyses.json"), new SonarSettings());
+        project = new SonarProject();
+        project.setInstanceUrl("http://sonar.example.com");
+        project.setProjectId("AVu3b-MAphY78UZXuYHp");
+        project.setProjectName("com.capitalone.test:TestProject");
+    }
+
+    @Benchmark
+    public CodeQuality addMetrics() {
+        CodeQuality codeQuality = new CodeQuality();
+        client.addMetrics(codeQuality, measures);
+        return codeQuality;
+    }
+
+    @Benchmark
+    public String sqaleIndex() {
+        return conversions.format("sqale_index", "36225");
+    }
+
+    @Benchmark
+    public CodeQuality integerMetric() {
+        CodeQuality codeQuality = new CodeQuality();
+        client.addMetrics(codeQuality, integerMeasure);
+        return codeQuality;
+    }
+
+    @Benchmark
+    public CodeQuality currentStaticCodeQuality() {
+        return client.currentStaticCodeQuality(project);
+    }
+}
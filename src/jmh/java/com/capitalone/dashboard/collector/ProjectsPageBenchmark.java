@@ -0,0 +1,59 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.SonarProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting /api/components/search pages of 500 projects into {@link SonarProject}s, for a server
+ * with one page (sonar6projects1000.json reports 500 projects) and one with four (sonar6projects500.json
+ * reports 2000, every page is answered with the same 500 projects).
+ * <p>
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Djmh.args=ProjectsPageBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectsPageBenchmark {
+    private static final String INSTANCE_URL = "http://sonar.example.com";
+
+    @Param({"sonar6projects1000.json", "sonar6projects500.json"})
+    private String fixture;
+
+    private DefaultSonar6Client client;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SonarSettings settings = new SonarSettings();
+        // pages are converted on the benchmark thread only
+        settings.setPageFetchConcurrency(1);
+        client = new DefaultSonar6Client(new FixtureRestClient().respond("/api/components/search", fixture), settings);
+    }
+
+    @Benchmark
+    public List<SonarProject> getProjects() {
+        return client.getProjects(INSTANCE_URL);
+    }
+
+    @Benchmark
+    public void streamProjects(Blackhole blackhole) {
+        client.streamProjects(INSTANCE_URL, blackhole::consume);
+    }
+}
@@ -0,0 +1,89 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.SonarProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Matching discovered projects against the existing collector items, half of them known:
+ * the list scan addNewProjects used to do against the project key index it uses now.
+ * <p>
+ * Run with {@code mvn -P benchmark test-compile exec:exec}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ReconcileBenchmark {
+    private static final String INSTANCE_URL = "http://sonar.example.com";
+
+    @Param({"10000", "50000", "100000"})
+    private int size;
+
+    private List<SonarProject> existing;
+    private List<SonarProject> discovered;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        existing = projects(0, size);
+        discovered = projects(size / 2, size / 2 + size);
+    }
+
+    @Benchmark
+    public void listScan(Blackhole blackhole) {
+        for (SonarProject project : discovered) {
+            if (!existing.contains(project)) {
+                blackhole.consume(project);
+            } else {
+                int[] indexes = IntStream.range(0, existing.size()).filter(i -> existing.get(i).equals(project)).toArray();
+                for (int index : indexes) {
+                    blackhole.consume(existing.get(index));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void keyIndex(Blackhole blackhole) {
+        Map<String, List<SonarProject>> index = SonarCollectorTask.indexByProjectKey(existing);
+        for (SonarProject project : discovered) {
+            List<SonarProject> matches = index.get(SonarCollectorTask.projectKey(project));
+            if (matches == null) {
+                blackhole.consume(project);
+            } else {
+                matches.forEach(blackhole::consume);
+            }
+        }
+    }
+
+    private static List<SonarProject> projects(int from, int to) {
+        List<SonarProject> projects = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            SonarProject project = new SonarProject();
+            project.setInstanceUrl(INSTANCE_URL);
+            project.setProjectName("project-" + i);
+            project.setProjectId("id-" + i);
+            projects.add(project);
+        }
+        return projects;
+    }
+}
@@ -0,0 +1,84 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.SonarProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing and comparing {@link SonarProject}s the way the collector does when it builds sets of the
+ * projects of a cycle: filling a set with every project, then looking up a copy of each project.
+ * <p>
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Djmh.args=SonarProjectBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SonarProjectBenchmark {
+    private static final String INSTANCE_URL = "http://sonar.example.com";
+
+    @Param({"1000", "10000", "100000"})
+    private int size;
+
+    private List<SonarProject> projects;
+    private List<SonarProject> copies;
+    private Set<SonarProject> projectSet;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        projects = projects(size);
+        copies = projects(size);
+        projectSet = new HashSet<>(projects);
+    }
+
+    @Benchmark
+    public Set<SonarProject> buildSet() {
+        return new HashSet<>(projects);
+    }
+
+    @Benchmark
+    public void lookUp(Blackhole blackhole) {
+        for (SonarProject copy : copies) {
+            blackhole.consume(projectSet.contains(copy));
+        }
+    }
+
+    @Benchmark
+    public void hashCodes(Blackhole blackhole) {
+        for (SonarProject project : projects) {
+            blackhole.consume(project.hashCode());
+        }
+    }
+
+    private static List<SonarProject> projects(int size) {
+        List<SonarProject> projects = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            SonarProject project = new SonarProject();
+            project.setInstanceUrl(INSTANCE_URL);
+            // project names of real servers share long group id prefixes
+            project.setProjectName("com.capitalone.dashboard.services:project-" + i);
+            project.setProjectId("AVu3b-MAphY78UZX" + i);
+            projects.add(project);
+        }
+        return projects;
+    }
+}
@@ -0,0 +1,40 @@
+package com.capitalone.dashboard.collector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the sonar dates of analyses and quality profile changes into epoch millis, once per
+ * refreshed project and once per changelog event.
+ * <p>
+ * Run with {@code mvn -P benchmark test-compile exec:exec -Djmh.args=TimestampBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimestampBenchmark {
+    private String analysisDate = "2017-04-29T13:57:26-0400";
+    private String changeDate = "2017-10-05T13:57:40+0000";
+
+    @Benchmark
+    public long analysisTimestamp() {
+        return SonarDates.timestamp(analysisDate);
+    }
+
+    @Benchmark
+    public long changelogTimestamp() {
+        return QualityProfileChangelogTask.convertToTimestamp(changeDate);
+    }
+}
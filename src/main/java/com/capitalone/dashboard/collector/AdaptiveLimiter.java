@@ -0,0 +1,82 @@
+package com.capitalone.dashboard.collector;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the requests in flight to one sonar server with additive increase, multiplicative decrease.
+ * <p>
+ * Every response that arrives about as fast as usual for its endpoint raises the limit by one over the
+ * limit, i.e. by one per limit's worth of requests, as long as the limit is actually used. A response
+ * slower than the latency tolerance times the usual latency of its endpoint lowers the limit a little,
+ * throttled (429), failed (5xx) and unanswered requests halve it. The usual latency is a slowly moving
+ * average per endpoint, so cheap and expensive endpoints are not compared with each other.
+ */
+class AdaptiveLimiter {
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double DROP_BACKOFF = 0.5;
+    private static final double USUAL_LATENCY_WEIGHT = 0.05;
+
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final Map<String, Double> usualLatencies = new HashMap<>();
+    private double limit;
+    private int inFlight;
+
+    AdaptiveLimiter(int initialLimit, int maxLimit, double latencyTolerance) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * Wait until a request may be sent
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait(TimeUnit.SECONDS.toMillis(1));
+        }
+        inFlight++;
+    }
+
+    /**
+     * A response of the endpoint arrived and was read in the given time
+     */
+    synchronized void onSuccess(String endpoint, long latencyNanos) {
+        boolean saturated = inFlight * 2 >= (int) limit;
+        release();
+        Double usual = usualLatencies.get(endpoint);
+        usualLatencies.put(endpoint, usual == null ? latencyNanos : usual + (latencyNanos - usual) * USUAL_LATENCY_WEIGHT);
+        if (usual != null && latencyNanos > usual * latencyTolerance) {
+            setLimit(limit * LATENCY_BACKOFF);
+        } else if (saturated) {
+            setLimit(limit + 1 / limit);
+        }
+    }
+
+    /**
+     * The server throttled or failed the request, or did not answer it
+     */
+    synchronized void onDropped() {
+        release();
+        setLimit(limit * DROP_BACKOFF);
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    private void setLimit(double newLimit) {
+        limit = Math.max(1, Math.min(maxLimit, newLimit));
+    }
+}
@@ -0,0 +1,35 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.SonarProject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Projects of one sonar server with a completed analysis in a period of time,
+ * as reported by the compute engine activity feed.
+ */
+public class AnalysisActivity {
+    private final Set<String> componentIds = new HashSet<>();
+    private final Set<String> componentNames = new HashSet<>();
+
+    public void add(String componentId, String componentName) {
+        if (componentId != null) {
+            componentIds.add(componentId);
+        }
+        if (componentName != null) {
+            componentNames.add(componentName);
+        }
+    }
+
+    /**
+     * @return true when the project was analysed, matched by component id or by name
+     */
+    public boolean includes(SonarProject project) {
+        return componentIds.contains(project.getProjectId()) || componentNames.contains(project.getProjectName());
+    }
+
+    public int size() {
+        return Math.max(componentIds.size(), componentNames.size());
+    }
+}
@@ -0,0 +1,83 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending requests to one sonar server after consecutive failures, so a server that is down costs
+ * one read timeout per failure until the circuit opens instead of one per project.
+ * <p>
+ * While open every request is rejected. Once the open time has passed a single probe request is let
+ * through (half open): its answer closes the circuit, its failure opens it for another open time.
+ * Any answer of the server counts as success, only unanswered requests and 5xx count as failures.
+ */
+class CircuitBreaker {
+    private static final Log LOG = LogFactory.getLog(CircuitBreaker.class);
+
+    enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final String server;
+    private final int failureThreshold;
+    private final long openTime;
+    private final LongSupplier clock;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(String server, int failureThreshold, long openTime, LongSupplier clock) {
+        this.server = server;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openTime = openTime;
+        this.clock = clock;
+    }
+
+    /**
+     * @return true if a request may be sent now, false while the circuit is open or a probe is out
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openTime) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                return false;
+            }
+            probing = true;
+            LOG.info("Probing sonar server " + server);
+        }
+        return state != State.OPEN;
+    }
+
+    /**
+     * The server answered
+     */
+    synchronized void onSuccess() {
+        failures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            probing = false;
+            LOG.info("Sonar server " + server + " answers again, circuit closed");
+        }
+    }
+
+    /**
+     * The server failed the request or did not answer it
+     */
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            probing = false;
+            openedAt = clock.getAsLong();
+            LOG.warn("Sonar server " + server + " failed " + failures + " requests in a row, circuit open for " + openTime + " ms");
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
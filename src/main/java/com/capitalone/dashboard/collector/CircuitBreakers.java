@@ -0,0 +1,87 @@
+package com.capitalone.dashboard.collector;
+
+import io.micrometer.core.instrument.Tags;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link CircuitBreaker} per configured sonar instance, applied to every request by an interceptor of the rest
+ * operations. Requests to a server with an open circuit fail at once with a {@link ServerUnavailableException},
+ * which the clients handle like any other {@link org.springframework.web.client.RestClientException}, so
+ * the remaining projects of a dead server are skipped in no time while the other servers are unaffected.
+ * Instances behind one host under different paths have circuits of their own.
+ * The state of each server is exposed as the sonar.circuit.state gauge (0 closed, 1 half open, 2 open).
+ */
+@Component
+public class CircuitBreakers {
+    private final SonarSettings settings;
+    private final SonarMetrics metrics;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CircuitBreakers(SonarSettings settings, SonarMetrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return true while requests to the configured instance, e.g. {@code https://sonar.example.com/team}, are rejected
+     */
+    public boolean isOpen(String server) {
+        CircuitBreaker breaker = breakers.get(StringUtils.removeEnd(server, "/"));
+        return breaker != null && breaker.getState() == CircuitBreaker.State.OPEN;
+    }
+
+    ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            if (settings.getCircuitBreakerFailures() <= 0) {
+                return execution.execute(request, body);
+            }
+            String server = RestOperationsSupplier.instance(settings.getServers(), request.getURI());
+            CircuitBreaker breaker = breaker(server);
+            if (!breaker.tryAcquire()) {
+                metrics.count("circuit.rejected", SonarMetrics.ALL, server, 1);
+                throw new ServerUnavailableException("Circuit open, not sending " + request.getMethod() + " " + request.getURI());
+            }
+            ClientHttpResponse response;
+            try {
+                response = execution.execute(request, body);
+            } catch (IOException | RuntimeException e) {
+                breaker.onFailure();
+                throw e;
+            }
+            if (response.getRawStatusCode() >= 500) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+            return response;
+        };
+    }
+
+    private CircuitBreaker breaker(String server) {
+        return breakers.computeIfAbsent(server, key -> {
+            CircuitBreaker breaker = new CircuitBreaker(key, settings.getCircuitBreakerFailures(),
+                    settings.getCircuitBreakerOpenTime(), System::currentTimeMillis);
+            metrics.gauge("circuit.state", Tags.of("server", key), breaker, b -> b.getState().ordinal());
+            return breaker;
+        });
+    }
+
+    /**
+     * A request was not sent because the circuit of its sonar server is open
+     */
+    public static class ServerUnavailableException extends ResourceAccessException {
+        public ServerUnavailableException(String msg) {
+            super(msg);
+        }
+    }
+}
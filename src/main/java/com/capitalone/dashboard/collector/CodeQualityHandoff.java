@@ -0,0 +1,69 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.CodeQualityType;
+import com.capitalone.dashboard.model.SonarProject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Code quality one collector task fetched on behalf of the other. Every entry is handed out once
+ * and only until it expires, after that the other task fetches the project itself. Expired entries
+ * are purged at most once per time to live, so filling the handoff stays linear in the projects.
+ * <p>
+ * Only the batched /api/measures/search reads fill it. Projects read one by one, those without a
+ * key and all projects of servers without that endpoint, are fetched by each task on its own.
+ */
+public class CodeQualityHandoff {
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long timeToLive;
+    private final LongSupplier clock;
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    public CodeQualityHandoff(long timeToLive) {
+        this(timeToLive, System::currentTimeMillis);
+    }
+
+    CodeQualityHandoff(long timeToLive, LongSupplier clock) {
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+    }
+
+    public void put(CodeQualityType type, SonarProject project, CodeQuality codeQuality) {
+        long now = clock.getAsLong();
+        long purgeAt = nextPurge.get();
+        if (now >= purgeAt && nextPurge.compareAndSet(purgeAt, now + timeToLive)) {
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+        }
+        entries.put(key(type, project), new Entry(codeQuality, now + timeToLive));
+    }
+
+    /**
+     * @return the code quality left for the project, or null when there is none or it expired
+     */
+    public CodeQuality take(CodeQualityType type, SonarProject project) {
+        Entry entry = entries.remove(key(type, project));
+        return entry == null || entry.expiresAt <= clock.getAsLong() ? null : entry.codeQuality;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static String key(CodeQualityType type, SonarProject project) {
+        return type + "\n" + project.getInstanceUrl() + "\n" + project.getProjectKey();
+    }
+
+    private static final class Entry {
+        private final CodeQuality codeQuality;
+        private final long expiresAt;
+
+        private Entry(CodeQuality codeQuality, long expiresAt) {
+            this.codeQuality = codeQuality;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
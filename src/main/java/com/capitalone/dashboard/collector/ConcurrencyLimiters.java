@@ -0,0 +1,142 @@
+package com.capitalone.dashboard.collector;
+
+import io.micrometer.core.instrument.Tags;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link AdaptiveLimiter} per configured sonar instance, applied to every request by an interceptor of the rest
+ * operations. A request holds its permit until its response is closed, so streamed responses count as
+ * in flight while they are read. The limit of each server is exposed as the sonar.concurrency.limit gauge.
+ * <p>
+ * The collector threads (refresh, page fetch and server concurrency) are the ceiling, the limiter keeps
+ * the requests they send to a server below it while the server slows down or pushes back.
+ */
+@Component
+public class ConcurrencyLimiters {
+    private final SonarSettings settings;
+    private final SonarMetrics metrics;
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ConcurrencyLimiters(SonarSettings settings, SonarMetrics metrics) {
+        this.settings = settings;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the current limit of the configured instance, e.g. {@code https://sonar.example.com/team},
+     * 0 before its first request
+     */
+    public int getLimit(String server) {
+        AdaptiveLimiter limiter = limiters.get(StringUtils.removeEnd(server, "/"));
+        return limiter == null ? 0 : limiter.getLimit();
+    }
+
+    ClientHttpRequestInterceptor interceptor() {
+        return (request, body, execution) -> {
+            if (!settings.isAdaptiveConcurrency()) {
+                return execution.execute(request, body);
+            }
+            URI uri = request.getURI();
+            AdaptiveLimiter limiter = limiter(RestOperationsSupplier.instance(settings.getServers(), uri));
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send " + uri);
+            }
+            long start = System.nanoTime();
+            ClientHttpResponse response;
+            try {
+                response = execution.execute(request, body);
+            } catch (IOException | RuntimeException e) {
+                limiter.onDropped();
+                throw e;
+            }
+            int status = response.getRawStatusCode();
+            if (status == 429 || status >= 500) {
+                limiter.onDropped();
+                return response;
+            }
+            return new PermitResponse(response, limiter, RestOperationsSupplier.uriTemplate(uri), start);
+        };
+    }
+
+    private AdaptiveLimiter limiter(String server) {
+        return limiters.computeIfAbsent(server, key -> {
+            AdaptiveLimiter limiter = new AdaptiveLimiter(settings.getInitialConcurrencyLimit(),
+                    settings.getMaxConnectionsPerRoute(), settings.getLatencyTolerance());
+            metrics.gauge("concurrency.limit", Tags.of("server", key), limiter, AdaptiveLimiter::getLimit);
+            metrics.gauge("concurrency.inflight", Tags.of("server", key), limiter, AdaptiveLimiter::getInFlight);
+            return limiter;
+        });
+    }
+
+    /**
+     * Gives the permit back, with the time until the response was read, once the response is closed
+     */
+    private static final class PermitResponse implements ClientHttpResponse {
+        private final ClientHttpResponse response;
+        private final AdaptiveLimiter limiter;
+        private final String endpoint;
+        private final long start;
+        private boolean closed;
+
+        private PermitResponse(ClientHttpResponse response, AdaptiveLimiter limiter, String endpoint, long start) {
+            this.response = response;
+            this.limiter = limiter;
+            this.endpoint = endpoint;
+            this.start = start;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return response.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return response.getBody();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                if (!closed) {
+                    closed = true;
+                    limiter.onSuccess(endpoint, System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
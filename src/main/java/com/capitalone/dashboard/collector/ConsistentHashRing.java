@@ -0,0 +1,45 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns keys to nodes by consistent hashing. Every node is placed on the ring at many points, a key
+ * belongs to the node at the first point at or after its own hash. A node joining or leaving moves only
+ * the keys of its own points, about one in the number of nodes, the others keep their keys.
+ */
+final class ConsistentHashRing {
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    /**
+     * @param nodes names of the nodes, the same names give the same ring on every node
+     * @param virtualNodes points per node, more points spread the keys more evenly
+     */
+    ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.put(hash(node + '#' + i), node);
+            }
+        }
+    }
+
+    /**
+     * @return the node the key belongs to, null when the ring has no nodes
+     */
+    String owner(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point == null ? points.firstEntry().getValue() : point.getValue();
+    }
+
+    private static long hash(String value) {
+        return ByteBuffer.wrap(DigestUtils.md5(value.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+}
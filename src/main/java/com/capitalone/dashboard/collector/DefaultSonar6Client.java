@@ -1,34 +1,46 @@
 package com.capitalone.dashboard.collector;
 
-import com.capitalone.dashboard.client.RestClient;
 import com.capitalone.dashboard.client.RestUserInfo;
 import com.capitalone.dashboard.model.CodeQuality;
-import com.capitalone.dashboard.model.CodeQualityMetric;
-import com.capitalone.dashboard.model.CodeQualityMetricStatus;
 import com.capitalone.dashboard.model.CodeQualityType;
 import com.capitalone.dashboard.model.SonarProject;
+import com.capitalone.dashboard.util.JsonStreams;
+import com.capitalone.dashboard.util.ParallelExecutor;
 import com.capitalone.dashboard.util.SonarDashboardUrl;
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.collections.CollectionUtils;
+import com.fasterxml.jackson.core.JsonParser;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 
-import java.math.BigDecimal;
-import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Component
 public class DefaultSonar6Client implements SonarClient {
@@ -36,8 +48,11 @@ public class DefaultSonar6Client implements SonarClient {
     private static final String URL_RESOURCES = "/api/components/search?qualifiers=TRK&ps=500";
 //    private static final String URL_RESOURCES_AUTHENTICATED = "/api/projects/search?ps=500";
     private static final String URL_RESOURCE_DETAILS = "/api/measures/component?format=json&componentId=%s&metricKeys=%s&includealerts=true";
-    private static final String URL_PROJECT_ANALYSES = "/api/project_analyses/search?project=%s";
+    private static final String URL_PROJECT_ANALYSES = "/api/project_analyses/search?project=%s&ps=1";
+    private static final String URL_MEASURES_SEARCH = "/api/measures/search?projectKeys=%s&metricKeys=%s";
+    private static final String URL_PROJECTS_SEARCH = "/api/projects/search?projects=%s&ps=%d";
     private static final String URL_QUALITY_PROFILES = "/api/qualityprofiles/search";
+    private static final String URL_CE_ACTIVITY = "/api/ce/activity?type=REPORT&status=SUCCESS&ps=%d&minSubmittedAt=%s&p=%d";
     private static final String URL_QUALITY_PROFILE_PROJECT_DETAILS = "/api/qualityprofiles/projects?key=";
     private static final String URL_QUALITY_PROFILE_CHANGES = "/api/qualityprofiles/changelog?profileKey=";
     private static final String DEFAULT_STATIC_METRICS = "ncloc,violations,critical_violations,major_violations,blocker_violations,tests,test_success_density,test_errors,test_failures,coverage,line_coverage,sqale_index,alert_status,quality_gate_details";
@@ -45,31 +60,60 @@ public class DefaultSonar6Client implements SonarClient {
     private final String staticMetrics;
     private final String securityMetrics;
 
-    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
     private static final String ID = "id";
     private static final String NAME = "name";
     private static final String KEY = "key";
     private static final String METRIC = "metric";
     private static final String MSR = "measures";
     private static final String VALUE = "value";
-    private static final String STATUS_WARN = "WARN";
-    private static final String STATUS_ALERT = "ALERT";
     private static final String DATE = "date";
     private static final String EVENTS = "events";
+    private static final String COMPONENT = "component";
+    private static final String COMPONENTS = "components";
+    private static final String ANALYSES = "analyses";
+    private static final String PAGING = "paging";
+    private static final String TOTAL = "total";
+    private static final String CATEGORY = "category";
+    private static final String LAST_ANALYSIS_DATE = "lastAnalysisDate";
+
+    private final StreamingRestClient restClient;
+    private final RestUserInfo userInfo;
+    private final boolean measuresSearch;
+    private final boolean analysisActivity;
+    private final HttpHeaders headers;
+    private final int pageFetchConcurrency;
+    private final int maxUrlLength;
+    private final int measuresBatchSize;
+    private final AtomicBoolean projectsSearch;
+    private final boolean fusedMeasures;
+    private final CodeQualityHandoff handoff;
+    private final MetricConversions metricConversions;
 
-    private final RestClient restClient;
-    private RestUserInfo userInfo = new RestUserInfo("","");
-
-    private static final String MINUTES_FORMAT = "%smin";
-    private static final String HOURS_FORMAT = "%sh";
-    private static final String DAYS_FORMAT = "%sd";
-    private static final int HOURS_IN_DAY = 8;
     private static final int PAGE_SIZE=500;
+    private static final int MAX_UNAUTHENTICATED_PAGES = 20;
+    private static final int ACTIVITY_PAGE_SIZE = 1000;
+    private static final int MAX_ACTIVITY_PAGES = 10;
+    private static final String TASKS = "tasks";
+    private static final String MEASURES = "measures";
+    private static final int MAX_MEASURES_BATCH_SIZE = 100;
+    private static final String COMPONENT_ID = "componentId";
+    private static final String COMPONENT_NAME = "componentName";
 
 
     @Autowired
-    public DefaultSonar6Client(RestClient restClient, SonarSettings settings) {
+    public DefaultSonar6Client(StreamingRestClient restClient, SonarSettings settings) {
         this.restClient = restClient;
+        this.userInfo = new RestUserInfo("", "");
+        this.measuresSearch = true;
+        this.analysisActivity = true;
+        this.headers = null;
+        this.pageFetchConcurrency = settings.getPageFetchConcurrency();
+        this.maxUrlLength = settings.getMaxUrlLength();
+        this.measuresBatchSize = Math.min(MAX_MEASURES_BATCH_SIZE, settings.getMeasuresBatchSize());
+        this.projectsSearch = new AtomicBoolean(true);
+        this.fusedMeasures = settings.isFusedMeasures();
+        this.handoff = new CodeQualityHandoff(settings.getFusedMeasuresTtl());
+        this.metricConversions = new MetricConversions(settings.getMetricFormats());
 
         // override default sonar metrics to fetch via properties file settings
         if (!StringUtils.isEmpty(settings.getStaticMetrics63andAbove())) {
@@ -85,31 +129,59 @@ public class DefaultSonar6Client implements SonarClient {
         }
     }
 
-    @Override
-    public void setServerCredentials(String username, String password, String token) {
-        // use token when given
-        if (StringUtils.isNotBlank(token)) {
-            this.userInfo.setToken(token);
-            this.userInfo.setUserId(null);
-            this.userInfo.setPassCode(null);
-        }
-
-        // but username and password override token
-        if(StringUtils.isNotBlank(username) && StringUtils.isNotBlank(password)){
-            this.userInfo = new RestUserInfo(username, password);
-        }
+    private DefaultSonar6Client(DefaultSonar6Client client, SonarServerSession session) {
+        this.restClient = client.restClient;
+        this.staticMetrics = client.staticMetrics;
+        this.securityMetrics = client.securityMetrics;
+        this.pageFetchConcurrency = client.pageFetchConcurrency;
+        this.maxUrlLength = client.maxUrlLength;
+        this.measuresBatchSize = client.measuresBatchSize;
+        // every session finds out on its own whether its credentials may search projects
+        this.projectsSearch = new AtomicBoolean(true);
+        // sessions of both collector tasks share the handoff of the client bean
+        this.fusedMeasures = client.fusedMeasures;
+        this.handoff = client.handoff;
+        this.metricConversions = client.metricConversions;
+        RestUserInfo sessionUserInfo = session.getUserInfo();
+        this.userInfo = sessionUserInfo == null ? new RestUserInfo("", "") : sessionUserInfo;
+        this.measuresSearch = session.getCapabilities().hasMeasuresSearch();
+        this.analysisActivity = session.getCapabilities().hasAnalysisActivity();
+        this.headers = StreamingRestClient.authHeaders(sessionUserInfo);
+    }
 
-        if (StringUtils.isNotBlank(token)
-                && StringUtils.isNotBlank(username)
-                && StringUtils.isNotBlank(password)) {
-            LOG.error("Only one mode of authentication is needed. Either token or username/password. " +
-                    "Both modes were detected. Using username/password");
-        }
+    @Override
+    public SonarClient forSession(SonarServerSession session) {
+        return new DefaultSonar6Client(this, session);
     }
 
     @Override
     public List<SonarProject> getProjects(String instanceUrl) {
+        // pages arrive in any order, keep them sorted by page number
+        Map<Integer, List<SonarProject>> pages = new ConcurrentSkipListMap<>();
+        getProjectsWithPaging(instanceUrl, pages::put);
+
         List<SonarProject> projects = new ArrayList<>();
+        pages.values().forEach(projects::addAll);
+        return projects;
+    }
+
+    @Override
+    public boolean streamProjects(String instanceUrl, Consumer<List<SonarProject>> pageConsumer) {
+        Object consumerLock = new Object();
+        return getProjectsWithPaging(instanceUrl, (pageNumber, page) -> {
+            synchronized (consumerLock) {
+                pageConsumer.accept(page);
+            }
+        });
+    }
+
+    /**
+     * The first page tells how many projects there are, the remaining pages are then fetched concurrently.
+     * Every page is handed to the consumer with its page number as soon as it is read.
+     *
+     * @return false when a page could not be read
+     */
+    private boolean getProjectsWithPaging(String instanceUrl, BiConsumer<Integer, List<SonarProject>> pageConsumer) {
         String url = "";
         // take authenticated route
         url = instanceUrl + URL_RESOURCES;
@@ -119,66 +191,65 @@ public class DefaultSonar6Client implements SonarClient {
 //        }else{
 //            url = instanceUrl + URL_RESOURCES;
 //        }
+        String pagesUrl = url;
 
         try {
-            JSONArray jsonArray = getProjectsWithPaging(url);
-            for (Object obj : jsonArray) {
-                JSONObject prjData = (JSONObject) obj;
-
-                SonarProject project = new SonarProject();
-                project.setInstanceUrl(instanceUrl);
-                project.setProjectId(str(prjData, ID));
-                project.setProjectName(str(prjData, NAME));
-                projects.add(project);
-            }
+            ProjectsPage firstPage = restClient.get(url, headers, parser -> readProjectsPage(parser, instanceUrl));
+            pageConsumer.accept(1, firstPage.projects);
 
-        } catch (ParseException e) {
-            LOG.error("Could not parse response from: " + url, e);
+            int pages = pageLimit((int) Math.ceil((double) firstPage.total / PAGE_SIZE));
+            if (pages <= 1) {
+                return true;
+            }
+            List<Integer> pageNumbers = IntStream.rangeClosed(2, pages).boxed().collect(Collectors.toList());
+            ParallelExecutor.forEach(pageNumbers, pageFetchConcurrency, "sonar-pages",
+                    pageNumber -> pageConsumer.accept(pageNumber, getProjects(pagesUrl, instanceUrl, pageNumber)));
+            return true;
         } catch (RestClientException rce) {
             LOG.error(rce);
+            return false;
         }
-
-        return projects;
-    }
-
-    private JSONArray getProjectsWithPaging(String url) throws ParseException {
-        String key = "components";
-        Long totalRecords = getTotalCount(parseJsonObject(url, "paging"));
-        int pages = (int) Math.ceil((double)totalRecords / PAGE_SIZE);
-        JSONArray jsonArray = new JSONArray();
-        jsonArray = totalRecords > PAGE_SIZE ? getProjects(url, key, pages, jsonArray): getProjects(url, key, jsonArray);
-        return jsonArray;
     }
 
-    private JSONArray getProjects(String url, String key, JSONArray jsonArray) throws ParseException {
-        jsonArray.addAll(parseAsArray(url, key));
-        return jsonArray;
-    }
-
-    private JSONArray getProjects(String url, String key, int pages, JSONArray jsonArray) throws ParseException {
-        if(Objects.isNull(userInfo.getToken())){
-            pagingUnAuthenticated(url, key, pages, jsonArray);
-        }else{
-            for (int start=1;start<=pages;start++){
-                getProjects(url, key, jsonArray, start);
-            }
+    private int pageLimit(int pages) {
+        if (Objects.isNull(userInfo.getToken())) {
+            return Math.min(pages, MAX_UNAUTHENTICATED_PAGES);
         }
-        return  jsonArray;
+        return pages;
     }
 
-    private void pagingUnAuthenticated(String url, String key, int pages, JSONArray jsonArray) throws ParseException {
-        int maxPages = 20;
-        if(pages <= maxPages) {
-            maxPages = pages;
-        }
-        for (int start=1;start<=maxPages;start++){
-            getProjects(url, key, jsonArray, start);
-        }
+    private List<SonarProject> getProjects(String url, String instanceUrl, int pageNumber) {
+        String urlFinal = url+"&p="+pageNumber;
+        return restClient.get(urlFinal, headers, parser -> readProjectsPage(parser, instanceUrl)).projects;
     }
 
-    private void getProjects(String url, String key, JSONArray jsonArray, int pageNumber) throws ParseException {
-        String urlFinal = url+"&p="+pageNumber;
-        jsonArray.addAll(parseAsArray(urlFinal, key));
+    private ProjectsPage readProjectsPage(JsonParser parser, String instanceUrl) throws IOException {
+        ProjectsPage page = new ProjectsPage();
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (PAGING.equals(field)) {
+                JsonStreams.readObject(p, (name, value) -> {
+                    if (TOTAL.equals(name)) {
+                        page.total = value.getValueAsLong();
+                    }
+                });
+            } else if (COMPONENTS.equals(field)) {
+                JsonStreams.readArray(p, component -> {
+                    SonarProject project = new SonarProject();
+                    project.setInstanceUrl(instanceUrl);
+                    JsonStreams.readObject(component, (name, value) -> {
+                        if (ID.equals(name)) {
+                            project.setProjectId(JsonStreams.text(value));
+                        } else if (KEY.equals(name)) {
+                            project.setProjectKey(JsonStreams.text(value));
+                        } else if (NAME.equals(name)) {
+                            project.setProjectName(JsonStreams.text(value));
+                        }
+                    });
+                    page.projects.add(project);
+                });
+            }
+        });
+        return page;
     }
 
     @Override
@@ -196,48 +267,12 @@ public class DefaultSonar6Client implements SonarClient {
                 project.getInstanceUrl() + URL_RESOURCE_DETAILS, project.getProjectId(), sonarMetrics);
 
         try {
-            ResponseEntity<String> response = restClient.makeRestCallGet(url,setHeaders(userInfo) );
-            JSONParser jsonParser = new JSONParser();
-            JSONObject jsonObject = (JSONObject) jsonParser.parse(response.getBody());
-            String key = "component";
-
-            if (jsonObject != null) {
-                JSONObject prjData = (JSONObject) jsonObject.get(key);
-
-                CodeQuality codeQuality = new CodeQuality();
-                codeQuality.setType(codeQualityType);
-                codeQuality.setName(str(prjData, NAME));
-                codeQuality.setUrl(new SonarDashboardUrl(project.getInstanceUrl(), str(prjData, KEY)).toString());
-
-                url = String.format(
-                        project.getInstanceUrl() + URL_PROJECT_ANALYSES, str(prjData, KEY));
-                key = "analyses";
-                JSONArray jsonArray = parseAsArray(url, key);
-                getProjectAnalysis(codeQuality, jsonArray);
-                for (Object metricObj : (JSONArray) prjData.get(MSR)) {
-                    JSONObject metricJson = (JSONObject) metricObj;
-
-                    CodeQualityMetric metric = new CodeQualityMetric(str(metricJson, METRIC));
-                    String metricValue = str(metricJson, VALUE);
-                    if (metricValue == null) continue;
-                    metric.setValue(metricValue);
-                    if (metric.getName().equals("sqale_index")) {
-                        metric.setFormattedValue(format(metricValue));
-                    } else if (strSafe(metricJson, VALUE).indexOf(".") > 0) {
-                        metric.setFormattedValue(metricValue + "%" );
-                    } else if (strSafe(metricJson, VALUE).matches("\\d+")) {
-                        metric.setFormattedValue(String.format("%,d", integer(metricJson, VALUE)));
-                    } else {
-                        metric.setFormattedValue(metricValue);
-                    }
-                    codeQuality.getMetrics().add(metric);
-                }
+            ComponentMeasures prjData = restClient.get(url, headers, this::readComponentMeasures);
 
-                return codeQuality;
+            if (prjData != null) {
+                return codeQuality(project, codeQualityType, prjData.name, prjData.key, prjData.measures);
             }
 
-        } catch (ParseException e) {
-            LOG.error("Could not parse response from: " + url, e);
         } catch (RestClientException rce) {
             LOG.error("Rest Client Exception: " + url + ":" + rce.getMessage());
         }
@@ -245,228 +280,482 @@ public class DefaultSonar6Client implements SonarClient {
         return null;
     }
 
-    private void getProjectAnalysis(CodeQuality codeQuality, JSONArray jsonArray) {
-        if(jsonArray!=null && !jsonArray.isEmpty()) {
-            JSONObject prjLatestData = (JSONObject) jsonArray.get(0);
-            codeQuality.setTimestamp(timestamp(prjLatestData, DATE));
-            for (Object eventObj : (JSONArray) prjLatestData.get(EVENTS)) {
-                JSONObject eventJson = (JSONObject) eventObj;
-
-                if (strSafe(eventJson, "category").equals("VERSION")) {
-                    codeQuality.setVersion(str(eventJson, NAME));
+    /**
+     * Measures of projects with a known key come from /api/measures/search, as many projects per request
+     * as the url length and the server allow. Projects stored before their key was known, and all projects
+     * of servers without that endpoint, are read one by one.
+     * With fused measures the static and security metrics are read together, the code quality of the
+     * other type is left in the handoff for the other collector task.
+     * <p>
+     * Date and version of the latest analysis are not part of the measures. The dates of a whole batch come
+     * from one /api/projects/search request; the version, only found in the events of the analysis, is read
+     * from /api/project_analyses/search for projects analysed since they were last updated. Projects the
+     * projects search does not return, or all of them when the credentials may not use it, are looked up
+     * there one by one.
+     */
+    @Override
+    public void currentCodeQuality(List<SonarProject> projects, CodeQualityType type, BiConsumer<SonarProject, CodeQuality> qualityConsumer) {
+        String sonarMetrics = metrics(type);
+        String requestMetrics = fusedMeasures ? union(sonarMetrics, metrics(otherType(type))) : sonarMetrics;
+
+        List<SonarProject> keyedProjects = new ArrayList<>();
+        for (SonarProject project : projects) {
+            if (!measuresSearch || StringUtils.isEmpty(project.getProjectKey())) {
+                accept(project, getCurrentStaticOrSecurityCodeQuality(project, sonarMetrics, type), qualityConsumer);
+            } else {
+                CodeQuality handedOver = fusedMeasures ? handoff.take(type, project) : null;
+                if (handedOver != null) {
+                    qualityConsumer.accept(project, handedOver);
+                } else {
+                    keyedProjects.add(project);
                 }
             }
         }
+
+        int from = 0;
+        while (from < keyedProjects.size()) {
+            String instanceUrl = keyedProjects.get(from).getInstanceUrl();
+            int to = batchEnd(keyedProjects, from, instanceUrl.length() + URL_MEASURES_SEARCH.length() + requestMetrics.length());
+            searchMeasures(keyedProjects.subList(from, to), type, requestMetrics, qualityConsumer);
+            from = to;
+        }
     }
 
-    public List<String> retrieveProfileAndProjectAssociation(String instanceUrl,String qualityProfile) throws ParseException{
-    	List<String> projects = new ArrayList<>();
-    	String url = instanceUrl + URL_QUALITY_PROFILE_PROJECT_DETAILS + qualityProfile;
-    	try {
-    		JSONArray associatedProjects = this.parseAsArray(url, "results");
-    		if (!CollectionUtils.isEmpty(associatedProjects)) {
-    			for (Object project : associatedProjects) {
-    				JSONObject projectJson = (JSONObject) project;
-    				String projectName = (String) projectJson.get("name");
-    				projects.add(projectName);
-    			}
-    			return projects;
-    		}
-    		return null;
-    	} catch (ParseException e) {
-    		LOG.error("Could not parse response from: " + url, e);
-    		throw e;
-    	} catch (RestClientException rce) {
-    		LOG.error(rce);
-    		throw rce;
-    	}
-    }
-
-    public JSONArray getQualityProfiles(String instanceUrl) throws ParseException {
-    	String url = instanceUrl + URL_QUALITY_PROFILES;
-    	try {
-    		JSONArray qualityProfileData = this.parseAsArray(url,"profiles");
-    		return qualityProfileData;
-    	} catch (ParseException e) {
-    		LOG.error("Could not parse response from: " + url, e);
-    		throw e;
-    	} catch (RestClientException rce) {
-    		LOG.error(rce);
-    		throw rce;
-    	}
-    }
-
-    public JSONArray getQualityProfileConfigurationChanges(String instanceUrl,String qualityProfile) throws ParseException{
-    	String url = instanceUrl + URL_QUALITY_PROFILE_CHANGES + qualityProfile;
-    	try {
-    		JSONArray qualityProfileConfigChanges = this.parseAsArray(url, "events");
-    		return qualityProfileConfigChanges;
-    	} catch (ParseException e) {
-    		LOG.error("Could not parse response from: " + url, e);
-    		throw e;
-    	} catch (RestClientException rce) {
-    		LOG.error(rce);
-    		throw rce;
-    	}
-    }
-
-    private JSONArray parseAsArray(String url, String key) throws ParseException {
-        JSONObject jsonObject = getResponse(url);
-        return (JSONArray) jsonObject.get(key);
-    }
-
-    private JSONObject parseJsonObject(String url, String key) throws ParseException {
-        JSONObject jsonObject = getResponse(url);
-        return (JSONObject)jsonObject.get(key);
-    }
-
-    private JSONObject getResponse(String url) throws ParseException {
-        ResponseEntity<String> response = restClient.makeRestCallGet(url, setHeaders(userInfo));
-        JSONParser jsonParser = new JSONParser();
-        JSONObject jsonObject = (JSONObject) jsonParser.parse(response.getBody());
-        LOG.debug(url);
-        return jsonObject;
-    }
-
-    private long timestamp(JSONObject json, String key) {
-        Object obj = json.get(key);
-        if (obj != null) {
-            try {
-                return new SimpleDateFormat(DATE_FORMAT).parse(obj.toString()).getTime();
-            } catch (java.text.ParseException e) {
-                LOG.error(obj + " is not in expected format " + DATE_FORMAT, e);
+    /**
+     * Code quality of a batch of projects of one server from a single measures search. A batch the server
+     * rejects for its length is split in halves, the following batches keep the configured size.
+     * Projects without measures get a code quality without metrics.
+     */
+    private void searchMeasures(List<SonarProject> batch, CodeQualityType type, String requestMetrics,
+                                BiConsumer<SonarProject, CodeQuality> qualityConsumer) {
+        String url = String.format(batch.get(0).getInstanceUrl() + URL_MEASURES_SEARCH, encodedKeys(batch), requestMetrics);
+        Map<String, Map<String, String>> measures;
+        try {
+            measures = restClient.get(URI.create(url), headers, this::readMeasuresSearch);
+        } catch (HttpClientErrorException e) {
+            if (batch.size() > 1 && (e.getStatusCode() == HttpStatus.REQUEST_URI_TOO_LONG || e.getStatusCode() == HttpStatus.BAD_REQUEST)) {
+                int half = batch.size() / 2;
+                LOG.info("Measures search rejected " + batch.size() + " projects (" + e.getStatusCode() + "), trying " + half);
+                searchMeasures(batch.subList(0, half), type, requestMetrics, qualityConsumer);
+                searchMeasures(batch.subList(half, batch.size()), type, requestMetrics, qualityConsumer);
+                return;
             }
+            LOG.error("Rest Client Exception: " + url + ":" + e.getMessage());
+            return;
+        } catch (RestClientException rce) {
+            LOG.error("Rest Client Exception: " + url + ":" + rce.getMessage());
+            return;
         }
-        return 0;
-    }
 
-    private String str(JSONObject json, String key) {
-        Object obj = json.get(key);
-        return obj == null ? null : obj.toString();
+        CodeQualityType otherType = otherType(type);
+        Map<String, Long> analysisDates = lastAnalysisDates(batch);
+        for (SonarProject project : batch) {
+            CodeQuality codeQuality = newCodeQuality(project, type, project.getProjectName(), project.getProjectKey());
+            if (!readLatestAnalysis(project, analysisDates.get(project.getProjectKey()), codeQuality)) {
+                continue;
+            }
+            Map<String, String> projectMeasures = measures.getOrDefault(project.getProjectKey(), Collections.emptyMap());
+            addMetrics(codeQuality, select(projectMeasures, metrics(type)));
+            qualityConsumer.accept(project, codeQuality);
+            if (fusedMeasures) {
+                CodeQuality other = newCodeQuality(project, otherType, project.getProjectName(), project.getProjectKey());
+                other.setTimestamp(codeQuality.getTimestamp());
+                other.setVersion(codeQuality.getVersion());
+                addMetrics(other, select(projectMeasures, metrics(otherType)));
+                handoff.put(otherType, project, other);
+            }
+        }
     }
 
-    private String strSafe(JSONObject json, String key) {
-        Object obj = json.get(key);
-        return obj == null ? "" : obj.toString();
+    private String metrics(CodeQualityType type) {
+        return type == CodeQualityType.SecurityAnalysis ? securityMetrics : staticMetrics;
     }
 
-    @SuppressWarnings("unused")
-    private Integer integer(JSONObject json, String key) {
-        Object obj = json.get(key);
-        return obj == null ? null : Integer.valueOf(obj.toString());
+    private static CodeQualityType otherType(CodeQualityType type) {
+        return type == CodeQualityType.SecurityAnalysis ? CodeQualityType.StaticAnalysis : CodeQualityType.SecurityAnalysis;
     }
 
-    @SuppressWarnings("unused")
-    private BigDecimal decimal(JSONObject json, String key) {
-        Object obj = json.get(key);
-        return obj == null ? null : new BigDecimal(obj.toString());
+    /**
+     * Date of the latest analysis of the projects the projects search returns, 0 for projects never
+     * analysed. Empty when the server does not let the credentials search projects, which is not
+     * asked again for the rest of the session.
+     */
+    private Map<String, Long> lastAnalysisDates(List<SonarProject> batch) {
+        if (!projectsSearch.get()) {
+            return Collections.emptyMap();
+        }
+        String url = String.format(batch.get(0).getInstanceUrl() + URL_PROJECTS_SEARCH, encodedKeys(batch), batch.size());
+        try {
+            return restClient.get(URI.create(url), headers, this::readLastAnalysisDates);
+        } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.UNAUTHORIZED || e.getStatusCode() == HttpStatus.FORBIDDEN
+                    || e.getStatusCode() == HttpStatus.NOT_FOUND) {
+                projectsSearch.set(false);
+                LOG.info("Projects search not available (" + e.getStatusCode() + "), reading the latest analysis of every project");
+            } else {
+                LOG.warn("Rest Client Exception: " + url + ":" + e.getMessage());
+            }
+        } catch (RestClientException rce) {
+            LOG.warn("Rest Client Exception: " + url + ":" + rce.getMessage());
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Sets date and version of the latest analysis of the project. The date of the projects search is
+     * enough for a project not analysed since it was last updated, as its code quality of that date is
+     * stored already; any other project has its latest analysis read.
+     *
+     * @param analysisDate date of the latest analysis from the projects search, null when unknown
+     * @return false when the latest analysis could not be read
+     */
+    private boolean readLatestAnalysis(SonarProject project, Long analysisDate, CodeQuality codeQuality) {
+        if (analysisDate != null && (analysisDate == 0 || analysisDate <= project.getLastUpdated())) {
+            codeQuality.setTimestamp(analysisDate);
+            return true;
+        }
+        String url = String.format(project.getInstanceUrl() + URL_PROJECT_ANALYSES, encode(project.getProjectKey()));
+        try {
+            restClient.get(URI.create(url), headers, parser -> readLatestAnalysis(parser, codeQuality));
+            return true;
+        } catch (RestClientException rce) {
+            LOG.error("Rest Client Exception: " + url + ":" + rce.getMessage());
+            return false;
+        }
     }
 
-    @SuppressWarnings("unused")
-    private Boolean bool(JSONObject json, String key) {
-        Object obj = json.get(key);
-        return obj == null ? null : Boolean.valueOf(obj.toString());
+    private static String union(String metrics, String otherMetrics) {
+        Set<String> keys = new LinkedHashSet<>(Arrays.asList(metrics.split(",")));
+        keys.addAll(Arrays.asList(otherMetrics.split(",")));
+        return String.join(",", keys);
     }
 
-    @SuppressWarnings("unused")
-    private String format(String duration) {
-        Long durationInMinutes = Long.valueOf(duration);
-        if (durationInMinutes == 0) {
-            return "0";
+    /**
+     * The measures of the given comma separated metric keys, in the order sonar returned them.
+     */
+    private static Map<String, String> select(Map<String, String> measures, String metrics) {
+        Set<String> keys = new HashSet<>(Arrays.asList(metrics.split(",")));
+        Map<String, String> selected = new LinkedHashMap<>();
+        for (Map.Entry<String, String> measure : measures.entrySet()) {
+            if (keys.contains(measure.getKey())) {
+                selected.put(measure.getKey(), measure.getValue());
+            }
         }
-        boolean isNegative = durationInMinutes < 0;
-        Long absDuration = Math.abs(durationInMinutes);
-
-        int days = ((Double) ((double) absDuration / HOURS_IN_DAY / 60)).intValue();
-        Long remainingDuration = absDuration - (days * HOURS_IN_DAY * 60);
-        int hours = ((Double) (remainingDuration.doubleValue() / 60)).intValue();
-        remainingDuration = remainingDuration - (hours * 60);
-        int minutes = remainingDuration.intValue();
+        return selected;
+    }
+
+    /**
+     * End (exclusive) of the next batch starting at from: at most the configured batch size,
+     * and no more encoded keys than fit the url length limit. A batch holds at least one project.
+     */
+    private int batchEnd(List<SonarProject> projects, int from, int baseLength) {
+        int maxEnd = Math.min(projects.size(), from + Math.max(1, measuresBatchSize));
+        int length = baseLength;
+        int end = from;
+        while (end < maxEnd) {
+            length += encode(projects.get(end).getProjectKey()).length() + 1;
+            if (end > from && length > maxUrlLength) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
 
-        return format(days, hours, minutes, isNegative);
+    private static String encodedKeys(List<SonarProject> projects) {
+        return projects.stream().map(project -> encode(project.getProjectKey())).collect(Collectors.joining(","));
     }
 
-    @SuppressWarnings("PMD")
-    private static String format(int days, int hours, int minutes, boolean isNegative) {
-        StringBuilder message = new StringBuilder();
-        if (days > 0) {
-            message.append(String.format(DAYS_FORMAT, isNegative ? (-1 * days) : days));
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
         }
-        if (displayHours(days, hours)) {
-            addSpaceIfNeeded(message);
-            message.append(String.format(HOURS_FORMAT, isNegative && message.length() == 0 ? (-1 * hours) : hours));
+    }
+
+    private static void accept(SonarProject project, CodeQuality codeQuality, BiConsumer<SonarProject, CodeQuality> qualityConsumer) {
+        if (codeQuality != null) {
+            qualityConsumer.accept(project, codeQuality);
         }
-        if (displayMinutes(days, hours, minutes)) {
-            addSpaceIfNeeded(message);
-            message.append(String.format(MINUTES_FORMAT, isNegative && message.length() == 0 ? (-1 * minutes) : minutes));
+    }
+
+    /**
+     * Code quality from the measures of a component, with date and version of its latest analysis,
+     * the only analysis requested.
+     */
+    private CodeQuality codeQuality(SonarProject project, CodeQualityType codeQualityType, String name, String key,
+                                    Map<String, String> measures) throws RestClientException {
+        CodeQuality codeQuality = newCodeQuality(project, codeQualityType, name, key);
+
+        String url = String.format(
+                project.getInstanceUrl() + URL_PROJECT_ANALYSES, key);
+        restClient.get(url, headers, parser -> readLatestAnalysis(parser, codeQuality));
+        addMetrics(codeQuality, measures);
+        return codeQuality;
+    }
+
+    private static CodeQuality newCodeQuality(SonarProject project, CodeQualityType codeQualityType, String name, String key) {
+        CodeQuality codeQuality = new CodeQuality();
+        codeQuality.setType(codeQualityType);
+        codeQuality.setName(name);
+        codeQuality.setUrl(new SonarDashboardUrl(project.getInstanceUrl(), key).toString());
+        return codeQuality;
+    }
+
+    void addMetrics(CodeQuality codeQuality, Map<String, String> measures) {
+        for (Map.Entry<String, String> measure : measures.entrySet()) {
+            codeQuality.getMetrics().add(metricConversions.metric(measure.getKey(), measure.getValue()));
         }
-        return message.toString();
     }
 
-    private static void addSpaceIfNeeded(StringBuilder message) {
-        if (message.length() > 0) {
-            message.append(" ");
+    /**
+     * Valued measures of a /api/measures/search response grouped by component key.
+     */
+    private Map<String, Map<String, String>> readMeasuresSearch(JsonParser parser) throws IOException {
+        Map<String, Map<String, String>> measures = new HashMap<>();
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (MEASURES.equals(field)) {
+                JsonStreams.readArray(p, measure -> {
+                    String[] componentMetricValue = new String[3];
+                    JsonStreams.readObject(measure, (name, value) -> {
+                        if (COMPONENT.equals(name)) {
+                            componentMetricValue[0] = JsonStreams.text(value);
+                        } else if (METRIC.equals(name)) {
+                            componentMetricValue[1] = JsonStreams.text(value);
+                        } else if (VALUE.equals(name)) {
+                            componentMetricValue[2] = JsonStreams.text(value);
+                        }
+                    });
+                    if (componentMetricValue[0] != null) {
+                        Map<String, String> componentMeasures = measures.computeIfAbsent(componentMetricValue[0], k -> new LinkedHashMap<>());
+                        if (componentMetricValue[2] != null) {
+                            componentMeasures.put(componentMetricValue[1], componentMetricValue[2]);
+                        }
+                    }
+                });
+            }
+        });
+        return measures;
+    }
+
+    /**
+     * Date of the latest analysis of every component of a /api/projects/search response by key,
+     * 0 for components without one.
+     */
+    private Map<String, Long> readLastAnalysisDates(JsonParser parser) throws IOException {
+        Map<String, Long> dates = new HashMap<>();
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (COMPONENTS.equals(field)) {
+                JsonStreams.readArray(p, component -> {
+                    String[] keyAndDate = new String[2];
+                    JsonStreams.readObject(component, (name, value) -> {
+                        if (KEY.equals(name)) {
+                            keyAndDate[0] = JsonStreams.text(value);
+                        } else if (LAST_ANALYSIS_DATE.equals(name)) {
+                            keyAndDate[1] = JsonStreams.text(value);
+                        }
+                    });
+                    if (keyAndDate[0] != null) {
+                        dates.put(keyAndDate[0], SonarDates.timestamp(keyAndDate[1]));
+                    }
+                });
+            }
+        });
+        return dates;
+    }
+
+    /**
+     * Name, key and the valued measures of the component, or null when the response has no component.
+     */
+    private ComponentMeasures readComponentMeasures(JsonParser parser) throws IOException {
+        ComponentMeasures[] component = new ComponentMeasures[1];
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (COMPONENT.equals(field) && p.getCurrentToken().isStructStart()) {
+                ComponentMeasures prjData = new ComponentMeasures();
+                JsonStreams.readObject(p, (name, value) -> {
+                    if (NAME.equals(name)) {
+                        prjData.name = JsonStreams.text(value);
+                    } else if (KEY.equals(name)) {
+                        prjData.key = JsonStreams.text(value);
+                    } else if (MSR.equals(name)) {
+                        JsonStreams.readArray(value, measure -> readMeasure(measure, prjData.measures));
+                    }
+                });
+                component[0] = prjData;
+            }
+        });
+        return component[0];
+    }
+
+    private void readMeasure(JsonParser parser, Map<String, String> measures) throws IOException {
+        String[] metricAndValue = new String[2];
+        JsonStreams.readObject(parser, (name, value) -> {
+            if (METRIC.equals(name)) {
+                metricAndValue[0] = JsonStreams.text(value);
+            } else if (VALUE.equals(name)) {
+                metricAndValue[1] = JsonStreams.text(value);
+            }
+        });
+        // measures without a value (e.g. only periods) are not kept
+        if (metricAndValue[1] != null) {
+            measures.put(metricAndValue[0], metricAndValue[1]);
         }
     }
 
-    private static boolean displayHours(int days, int hours) {
-        return hours > 0 && days < 10;
+    /**
+     * Timestamp and version of the most recent analysis, the remaining analyses are skipped.
+     */
+    private Void readLatestAnalysis(JsonParser parser, CodeQuality codeQuality) throws IOException {
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (ANALYSES.equals(field)) {
+                boolean[] latest = {true};
+                JsonStreams.readArray(p, analysis -> {
+                    if (latest[0]) {
+                        latest[0] = false;
+                        readAnalysis(analysis, codeQuality);
+                    }
+                });
+            }
+        });
+        return null;
     }
 
-    private static boolean displayMinutes(int days, int hours, int minutes) {
-        return minutes > 0 && hours < 10 && days == 0;
+    private void readAnalysis(JsonParser parser, CodeQuality codeQuality) throws IOException {
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (DATE.equals(field)) {
+                codeQuality.setTimestamp(SonarDates.timestamp(JsonStreams.text(p)));
+            } else if (EVENTS.equals(field)) {
+                JsonStreams.readArray(p, event -> {
+                    String[] categoryAndName = new String[2];
+                    JsonStreams.readObject(event, (name, value) -> {
+                        if (CATEGORY.equals(name)) {
+                            categoryAndName[0] = JsonStreams.text(value);
+                        } else if (NAME.equals(name)) {
+                            categoryAndName[1] = JsonStreams.text(value);
+                        }
+                    });
+                    if ("VERSION".equals(categoryAndName[0])) {
+                        codeQuality.setVersion(categoryAndName[1]);
+                    }
+                });
+            }
+        });
     }
 
-    private CodeQualityMetricStatus metricStatus(String status) {
-        if (StringUtils.isBlank(status)) {
-            return CodeQualityMetricStatus.Ok;
+    /**
+     * Reads the successful analysis reports of the compute engine feed. Too many of them, or a feed
+     * the credentials may not read, mean every project gets refreshed.
+     */
+    @Override
+    public AnalysisActivity getAnalysisActivity(String instanceUrl, long since) {
+        if (!analysisActivity) {
+            return null;
         }
+        String minSubmittedAt = encode(SonarDates.format(since));
 
-        switch(status) {
-            case STATUS_WARN:  return CodeQualityMetricStatus.Warning;
-            case STATUS_ALERT: return CodeQualityMetricStatus.Alert;
-            default:           return CodeQualityMetricStatus.Ok;
+        AnalysisActivity activity = new AnalysisActivity();
+        String url = "";
+        try {
+            for (int page = 1; page <= MAX_ACTIVITY_PAGES; page++) {
+                url = String.format(instanceUrl + URL_CE_ACTIVITY, ACTIVITY_PAGE_SIZE, minSubmittedAt, page);
+                int tasks = restClient.get(URI.create(url), headers, parser -> readActivityPage(parser, activity));
+                if (tasks < ACTIVITY_PAGE_SIZE) {
+                    return activity;
+                }
+            }
+            LOG.info("More than " + MAX_ACTIVITY_PAGES * ACTIVITY_PAGE_SIZE + " analyses since last check of " + instanceUrl);
+        } catch (RestClientException rce) {
+            LOG.warn("Could not read compute engine activity: " + url + ":" + rce.getMessage());
         }
+        return null;
+    }
+
+    private int readActivityPage(JsonParser parser, AnalysisActivity activity) throws IOException {
+        int[] tasks = new int[1];
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (TASKS.equals(field)) {
+                JsonStreams.readArray(p, task -> {
+                    String[] idAndName = new String[2];
+                    JsonStreams.readObject(task, (name, value) -> {
+                        if (COMPONENT_ID.equals(name)) {
+                            idAndName[0] = JsonStreams.text(value);
+                        } else if (COMPONENT_NAME.equals(name)) {
+                            idAndName[1] = JsonStreams.text(value);
+                        }
+                    });
+                    activity.add(idAndName[0], idAndName[1]);
+                    tasks[0]++;
+                });
+            }
+        });
+        return tasks[0];
     }
 
-    private Long getTotalCount(JSONObject pagingObject) {
-        return (Long) pagingObject.get("total");
+    public List<String> retrieveProfileAndProjectAssociation(String instanceUrl, String qualityProfile) {
+        List<String> projects = new ArrayList<>();
+        String url = instanceUrl + URL_QUALITY_PROFILE_PROJECT_DETAILS + qualityProfile;
+        try {
+            restClient.getCached(ResponseCache.PROFILE_PROJECTS, url, headers, parser -> {
+                JsonStreams.readObject(parser, (field, p) -> {
+                    if ("results".equals(field)) {
+                        JsonStreams.readArray(p, project -> JsonStreams.readObject(project, (name, value) -> {
+                            if (NAME.equals(name)) {
+                                projects.add(JsonStreams.text(value));
+                            }
+                        }));
+                    }
+                });
+                return projects;
+            });
+            return projects.isEmpty() ? null : projects;
+        } catch (RestClientException rce) {
+            LOG.error(rce);
+            throw rce;
+        }
     }
 
-    private HttpHeaders createHeaders(String username, String password){
-        HttpHeaders headers = new HttpHeaders();
-        if (username != null && !username.isEmpty()) {
-            String auth = username + ":" + (password == null ? "" : password);
-            byte[] encodedAuth = Base64.encodeBase64(
-                    auth.getBytes(Charset.forName("US-ASCII"))
-            );
-            String authHeader = "Basic " + new String(encodedAuth);
-            headers.set("Authorization", authHeader);
+    public JSONArray getQualityProfiles(String instanceUrl) {
+        String url = instanceUrl + URL_QUALITY_PROFILES;
+        try {
+            JSONArray qualityProfileData = restClient.getCached(ResponseCache.QUALITY_PROFILES, url, headers, parser -> JsonStreams.readArrayField(parser, "profiles"));
+            return qualityProfileData;
+        } catch (RestClientException rce) {
+            LOG.error(rce);
+            throw rce;
         }
-        return headers;
-    }
-
-    private HttpHeaders createHeaders(String token) {
-        String auth = token.trim();
-        auth = auth+":";
-        byte[] encodedAuth = Base64.encodeBase64(
-                auth.getBytes(Charset.forName("US-ASCII"))
-        );
-        String authHeader = "Basic " + new String(encodedAuth);
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", authHeader);
-        return headers;
-    }
-
-    private HttpHeaders setHeaders(RestUserInfo userInfo){
-        if(Objects.isNull(userInfo)) return null;
-        if(StringUtils.isNotBlank(userInfo.getUserId())&& StringUtils.isNotBlank(userInfo.getPassCode())){
-            return createHeaders(userInfo.getUserId(),userInfo.getPassCode());
-        }else if(StringUtils.isNotBlank(userInfo.getToken())){
-            return createHeaders(userInfo.getToken());
+    }
+
+    public JSONArray getQualityProfileConfigurationChanges(String instanceUrl, String qualityProfile) {
+        String url = instanceUrl + URL_QUALITY_PROFILE_CHANGES + qualityProfile;
+        try {
+            JSONArray qualityProfileConfigChanges = restClient.get(url, headers, parser -> JsonStreams.readArrayField(parser, EVENTS));
+            return qualityProfileConfigChanges;
+        } catch (RestClientException rce) {
+            LOG.error(rce);
+            throw rce;
         }
-        return null;
     }
 
+    @Override
+    public JSONArray getQualityProfileConfigurationChanges(String instanceUrl, String qualityProfile, long since) {
+        return QualityProfileChangelog.read(restClient, headers, instanceUrl, qualityProfile, since);
+    }
 
+    /**
+     * One page of a /api/components/search response.
+     */
+    private static final class ProjectsPage {
+        private long total;
+        private final List<SonarProject> projects = new ArrayList<>();
+    }
+
+    /**
+     * The few fields of a /api/measures/component response the client uses.
+     */
+    private static final class ComponentMeasures {
+        private String name;
+        private String key;
+        private final Map<String, String> measures = new LinkedHashMap<>();
+    }
 }
@@ -1,30 +1,30 @@
 package com.capitalone.dashboard.collector;
 
-import com.capitalone.dashboard.client.RestClient;
 import com.capitalone.dashboard.client.RestUserInfo;
 import com.capitalone.dashboard.model.CodeQuality;
 import com.capitalone.dashboard.model.CodeQualityMetric;
 import com.capitalone.dashboard.model.CodeQualityMetricStatus;
 import com.capitalone.dashboard.model.CodeQualityType;
 import com.capitalone.dashboard.model.SonarProject;
+import com.capitalone.dashboard.util.JsonStreams;
 import com.capitalone.dashboard.util.SonarDashboardUrl;
-import org.apache.commons.collections.CollectionUtils;
+import com.fasterxml.jackson.core.JsonParser;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Component("DefaultSonarClient")
 public class DefaultSonarClient implements SonarClient {
@@ -52,12 +52,15 @@ public class DefaultSonarClient implements SonarClient {
     protected static final String STATUS_ALERT = "ALERT";
     protected static final String DATE = "date";
 
-    protected final RestClient restClient;
-    protected RestUserInfo userInfo;
+    protected final StreamingRestClient restClient;
+    protected final RestUserInfo userInfo;
+    protected final HttpHeaders headers;
 
     @Autowired
-    public DefaultSonarClient(RestClient restClient, SonarSettings settings) {
+    public DefaultSonarClient(StreamingRestClient restClient, SonarSettings settings) {
         this.restClient = restClient;
+        this.userInfo = null;
+        this.headers = null;
 
         if (!StringUtils.isEmpty(settings.getMetricsBefore63())) {
             metrics = settings.getMetricsBefore63();
@@ -66,52 +69,69 @@ public class DefaultSonarClient implements SonarClient {
         }
     }
 
-    @Override
-    public void setServerCredentials(String username, String password, String token) {
-        // use token when given
-        if (StringUtils.isNotBlank(token)) {
-            this.userInfo.setToken(token);
-            this.userInfo.setUserId(null);
-            this.userInfo.setPassCode(null);
-        }
-
-        // but username and password override token
-        if(StringUtils.isNotBlank(username) && StringUtils.isNotBlank(password)){
-            this.userInfo = new RestUserInfo(username, password);
-        }
+    protected DefaultSonarClient(DefaultSonarClient client, SonarServerSession session) {
+        this.restClient = client.restClient;
+        this.metrics = client.metrics;
+        this.userInfo = session.getUserInfo();
+        this.headers = StreamingRestClient.authHeaders(userInfo);
+    }
 
-        if (StringUtils.isNotBlank(token)
-                && StringUtils.isNotBlank(username)
-                && StringUtils.isNotBlank(password)) {
-            LOG.error("Only one mode of authentication is needed. Either token or username/password. " +
-                    "Both modes were detected. Using username/password");
-        }
+    @Override
+    public SonarClient forSession(SonarServerSession session) {
+        return new DefaultSonarClient(this, session);
     }
 
     @Override
     public List<SonarProject> getProjects(String instanceUrl) {
         List<SonarProject> projects = new ArrayList<>();
-        String url = instanceUrl + URL_RESOURCES;
+        readProjects(instanceUrl, projects);
+        return projects;
+    }
 
-        try {
+    @Override
+    public boolean streamProjects(String instanceUrl, Consumer<List<SonarProject>> pageConsumer) {
+        List<SonarProject> projects = new ArrayList<>();
+        boolean complete = readProjects(instanceUrl, projects);
+        pageConsumer.accept(projects);
+        return complete;
+    }
 
-            for (Object obj : parseAsArray(url)) {
-                JSONObject prjData = (JSONObject) obj;
+    /**
+     * Read the projects of the server into the list
+     *
+     * @return false when they could not all be read
+     */
+    protected boolean readProjects(String instanceUrl, List<SonarProject> projects) {
+        return readProjects(instanceUrl, URL_RESOURCES, NAME, projects);
+    }
 
-                SonarProject project = new SonarProject();
-                project.setInstanceUrl(instanceUrl);
-                project.setProjectId(str(prjData, ID));
-                project.setProjectName(str(prjData, NAME));
-                projects.add(project);
-            }
+    /**
+     * Read a top level array of projects, keeping only their id and name.
+     */
+    protected boolean readProjects(String instanceUrl, String resource, String nameField, List<SonarProject> projects) {
+        String url = instanceUrl + resource;
 
-        } catch (ParseException e) {
-            LOG.error("Could not parse response from: " + url, e);
+        try {
+            restClient.get(url, headers, parser -> {
+                JsonStreams.readArray(parser, prjData -> {
+                    SonarProject project = new SonarProject();
+                    project.setInstanceUrl(instanceUrl);
+                    JsonStreams.readObject(prjData, (field, value) -> {
+                        if (ID.equals(field)) {
+                            project.setProjectId(JsonStreams.text(value));
+                        } else if (nameField.equals(field)) {
+                            project.setProjectName(JsonStreams.text(value));
+                        }
+                    });
+                    projects.add(project);
+                });
+                return projects;
+            });
+            return true;
         } catch (RestClientException rce) {
             LOG.error(rce);
+            return false;
         }
-
-        return projects;
     }
 
     @Override
@@ -125,34 +145,7 @@ public class DefaultSonarClient implements SonarClient {
                 project.getInstanceUrl() + URL_RESOURCE_DETAILS, project.getProjectId(), metrics);
 
         try {
-            JSONArray jsonArray = parseAsArray(url);
-
-            if (!jsonArray.isEmpty()) {
-                JSONObject prjData = (JSONObject) jsonArray.get(0);
-
-                CodeQuality codeQuality = new CodeQuality();
-                codeQuality.setName(str(prjData, NAME));
-                codeQuality.setUrl(new SonarDashboardUrl(project.getInstanceUrl(), project.getProjectId()).toString());
-                codeQuality.setType(CodeQualityType.StaticAnalysis);
-                codeQuality.setTimestamp(timestamp(prjData, DATE));
-                codeQuality.setVersion(str(prjData, VERSION));
-
-                for (Object metricObj : (JSONArray) prjData.get(MSR)) {
-                    JSONObject metricJson = (JSONObject) metricObj;
-
-                    CodeQualityMetric metric = new CodeQualityMetric(str(metricJson, KEY));
-                    metric.setValue(str(metricJson, VALUE));
-                    metric.setFormattedValue(str(metricJson, FORMATTED_VALUE));
-                    metric.setStatus(metricStatus(str(metricJson, ALERT)));
-                    metric.setStatusMessage(str(metricJson, ALERT_TEXT));
-                    codeQuality.getMetrics().add(metric);
-                }
-
-                return codeQuality;
-            }
-
-        } catch (ParseException e) {
-            LOG.error("Could not parse response from: " + url, e);
+            return restClient.get(url, headers, parser -> readFirstResource(parser, project));
         } catch (RestClientException rce) {
             LOG.error(rce);
         }
@@ -160,14 +153,73 @@ public class DefaultSonarClient implements SonarClient {
         return null;
     }
 
+    private CodeQuality readFirstResource(JsonParser parser, SonarProject project) throws IOException {
+        CodeQuality[] first = new CodeQuality[1];
+        JsonStreams.readArray(parser, prjData -> {
+            if (first[0] == null) {
+                first[0] = readResource(prjData, project);
+            }
+        });
+        return first[0];
+    }
+
+    private CodeQuality readResource(JsonParser parser, SonarProject project) throws IOException {
+        CodeQuality codeQuality = new CodeQuality();
+        codeQuality.setUrl(new SonarDashboardUrl(project.getInstanceUrl(), project.getProjectId()).toString());
+        codeQuality.setType(CodeQualityType.StaticAnalysis);
+        JsonStreams.readObject(parser, (field, value) -> {
+            switch (field) {
+                case NAME:
+                    codeQuality.setName(JsonStreams.text(value));
+                    break;
+                case DATE:
+                    codeQuality.setTimestamp(timestamp(JsonStreams.text(value)));
+                    break;
+                case VERSION:
+                    codeQuality.setVersion(JsonStreams.text(value));
+                    break;
+                case MSR:
+                    JsonStreams.readArray(value, metricJson -> codeQuality.getMetrics().add(readMetric(metricJson)));
+                    break;
+                default:
+                    break;
+            }
+        });
+        return codeQuality;
+    }
+
+    private CodeQualityMetric readMetric(JsonParser parser) throws IOException {
+        CodeQualityMetric metric = new CodeQualityMetric();
+        metric.setStatus(metricStatus(null));
+        JsonStreams.readObject(parser, (field, value) -> {
+            switch (field) {
+                case KEY:
+                    metric.setName(JsonStreams.text(value));
+                    break;
+                case VALUE:
+                    metric.setValue(JsonStreams.text(value));
+                    break;
+                case FORMATTED_VALUE:
+                    metric.setFormattedValue(JsonStreams.text(value));
+                    break;
+                case ALERT:
+                    metric.setStatus(metricStatus(JsonStreams.text(value)));
+                    break;
+                case ALERT_TEXT:
+                    metric.setStatusMessage(JsonStreams.text(value));
+                    break;
+                default:
+                    break;
+            }
+        });
+        return metric;
+    }
+
     public JSONArray getQualityProfiles(String instanceUrl) throws ParseException {
     	String url = instanceUrl + URL_QUALITY_PROFILES;
     	try {
-    		JSONArray qualityProfileData = parseAsArray(url,"profiles");
+    		JSONArray qualityProfileData = restClient.getCached(ResponseCache.QUALITY_PROFILES, url, headers, parser -> JsonStreams.readArrayField(parser, "profiles"));
     		return qualityProfileData;
-    	} catch (ParseException e) {
-    		LOG.error("Could not parse response from: " + url, e);
-    		throw e;
     	} catch (RestClientException rce) {
     		LOG.error(rce);
     		throw rce;
@@ -178,19 +230,19 @@ public class DefaultSonarClient implements SonarClient {
     	List<String> projects = new ArrayList<>();
     	String url = instanceUrl + URL_QUALITY_PROFILE_PROJECT_DETAILS + qualityProfile;
     	try {
-    		JSONArray associatedProjects = this.parseAsArray(url, "results");
-    		if (!CollectionUtils.isEmpty(associatedProjects)) {
-    			for (Object project : associatedProjects) {
-    				JSONObject projectJson = (JSONObject) project;
-    				String projectName = (String) projectJson.get("name");
-    				projects.add(projectName);
-    			}
+    		restClient.getCached(ResponseCache.PROFILE_PROJECTS, url, headers, parser -> {
+    			JsonStreams.readObject(parser, (field, p) -> {
+    				if ("results".equals(field)) {
+    					JsonStreams.readArray(p, project -> JsonStreams.readObject(project, (name, value) -> {
+    						if (NAME.equals(name)) {
+    							projects.add(JsonStreams.text(value));
+    						}
+    					}));
+    				}
+    			});
     			return projects;
-    		}
-    		return null;
-    	} catch (ParseException e) {
-    		LOG.error("Could not parse response from: " + url, e);
-    		throw e;
+    		});
+    		return projects.isEmpty() ? null : projects;
     	} catch (RestClientException rce) {
     		LOG.error(rce);
     		throw rce;
@@ -202,38 +254,31 @@ public class DefaultSonarClient implements SonarClient {
 	   try {
 		   JSONArray qualityProfileConfigChanges = this.parseAsArray(url, "events");
 		   return qualityProfileConfigChanges;
-	   } catch (ParseException e) {
-		   LOG.error("Could not parse response from: " + url, e);
-		   throw e;
 	   } catch (RestClientException rce) {
 		   LOG.error(rce);
 		   throw rce;
 	   }
    }
 
-    protected JSONArray parseAsArray(String url) throws ParseException {
-        ResponseEntity<String> response = restClient.makeRestCallGet(url, this.userInfo);
-        return (JSONArray) new JSONParser().parse(response.getBody());
+    /**
+     * The changelog filters by date and pages since sonar 5.2, earlier servers ignore the extra parameters
+     * and answer with the whole changelog on the first page.
+     */
+    @Override
+    public JSONArray getQualityProfileConfigurationChanges(String instanceUrl, String qualityProfile, long since) {
+        return QualityProfileChangelog.read(restClient, headers, instanceUrl, qualityProfile, since);
     }
 
-    protected JSONArray parseAsArray(String url, String key) throws ParseException {
-        ResponseEntity<String> response = restClient.makeRestCallGet(url, this.userInfo);
-        JSONParser jsonParser = new JSONParser();
-        JSONObject jsonObject = (JSONObject) jsonParser.parse(response.getBody());
+    /**
+     * Read only the given array field of the response, everything else is skipped unparsed.
+     */
+    protected JSONArray parseAsArray(String url, String key) {
         LOG.debug(url);
-        return (JSONArray) jsonObject.get(key);
+        return restClient.get(url, headers, parser -> JsonStreams.readArrayField(parser, key));
     }
 
-    protected long timestamp(JSONObject json, String key) {
-        Object obj = json.get(key);
-        if (obj != null) {
-            try {
-                return new SimpleDateFormat(DATE_FORMAT).parse(obj.toString()).getTime();
-            } catch (java.text.ParseException e) {
-                LOG.error(obj + " is not in expected format " + DATE_FORMAT, e);
-            }
-        }
-        return 0;
+    protected long timestamp(String date) {
+        return SonarDates.timestamp(date);
     }
 
     protected String str(JSONObject json, String key) {
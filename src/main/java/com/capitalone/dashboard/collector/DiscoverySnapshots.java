@@ -0,0 +1,160 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.SonarProject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Projects last discovered on each sonar server, shared by the collector tasks so that a server
+ * enumerated by one task is not paged through again by the other shortly after.
+ * <p>
+ * A snapshot is served only while it is younger than the time to live, counted from the start of
+ * the discovery that recorded it, and only to another collector than the one that recorded it.
+ * Only discoveries that read every page and found projects are kept. Each page is kept as the
+ * deflated id, key and name of its projects and turned back into projects one page at a time, so
+ * the catalogue is never held as project objects. Lookups are counted as sonar.discovery.snapshot.hits
+ * and sonar.discovery.snapshot.misses by server.
+ */
+@Component
+public class DiscoverySnapshots {
+    private static final Log LOG = LogFactory.getLog(DiscoverySnapshots.class);
+
+    private final SonarMetrics metrics;
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DiscoverySnapshots(SonarMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Passes the pages of a fresh snapshot of the server to the consumer.
+     *
+     * @return false when there is no snapshot the collector may use, the server has to be discovered
+     */
+    public boolean replay(String instanceUrl, ObjectId collectorId, long timeToLive, Consumer<List<SonarProject>> pageConsumer) {
+        Snapshot snapshot = timeToLive > 0 ? snapshots.get(instanceUrl) : null;
+        if (snapshot == null || snapshot.startedAt + timeToLive <= System.currentTimeMillis()
+                || Objects.equals(snapshot.collectorId, collectorId)) {
+            LOG.info("Discovery snapshot miss " + instanceUrl);
+            metrics.count("discovery.snapshot.misses", SonarMetrics.ALL, instanceUrl, 1);
+            return false;
+        }
+        LOG.info("Discovery snapshot hit " + instanceUrl);
+        metrics.count("discovery.snapshot.hits", SonarMetrics.ALL, instanceUrl, 1);
+        for (byte[] page : snapshot.pages) {
+            pageConsumer.accept(read(page, instanceUrl));
+        }
+        return true;
+    }
+
+    public Recording record(String instanceUrl, ObjectId collectorId) {
+        return new Recording(instanceUrl, collectorId);
+    }
+
+    /**
+     * Pages of one discovery, kept as a snapshot once the discovery finished. A recording that is not
+     * finished, e.g. because a page could not be read, is dropped.
+     */
+    public class Recording {
+        private final String instanceUrl;
+        private final ObjectId collectorId;
+        private final long startedAt = System.currentTimeMillis();
+        private final List<byte[]> pages = Collections.synchronizedList(new ArrayList<>());
+
+        private Recording(String instanceUrl, ObjectId collectorId) {
+            this.instanceUrl = instanceUrl;
+            this.collectorId = collectorId;
+        }
+
+        public void add(List<SonarProject> projects) {
+            if (!projects.isEmpty()) {
+                pages.add(write(projects));
+            }
+        }
+
+        public void finish() {
+            if (!pages.isEmpty()) {
+                snapshots.put(instanceUrl, new Snapshot(collectorId, startedAt, new ArrayList<>(pages)));
+            }
+        }
+    }
+
+    private static byte[] write(List<SonarProject> projects) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeInt(projects.size());
+            for (SonarProject project : projects) {
+                writeText(out, project.getProjectId());
+                writeText(out, project.getProjectKey());
+                writeText(out, project.getProjectName());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<SonarProject> read(byte[] page, String instanceUrl) {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(page)))) {
+            int size = in.readInt();
+            List<SonarProject> projects = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                SonarProject project = new SonarProject();
+                project.setInstanceUrl(instanceUrl);
+                project.setProjectId(readText(in));
+                String projectKey = readText(in);
+                if (projectKey != null) {
+                    project.setProjectKey(projectKey);
+                }
+                project.setProjectName(readText(in));
+                projects.add(project);
+            }
+            return projects;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        out.writeBoolean(text != null);
+        if (text != null) {
+            out.writeUTF(text);
+        }
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static final class Snapshot {
+        private final ObjectId collectorId;
+        private final long startedAt;
+        private final List<byte[]> pages;
+
+        private Snapshot(ObjectId collectorId, long startedAt, List<byte[]> pages) {
+            this.collectorId = collectorId;
+            this.startedAt = startedAt;
+            this.pages = pages;
+        }
+    }
+}
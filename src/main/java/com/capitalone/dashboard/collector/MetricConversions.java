@@ -0,0 +1,155 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CodeQualityMetric;
+import org.apache.commons.lang3.StringUtils;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns the measures sonar reports into {@link CodeQualityMetric}s with the formatted value the dashboard
+ * shows. The conversion of a metric is looked up by name in a table built once: technical debt minutes
+ * as a duration, any other metric automatically, i.e. decimals as percentages, whole numbers with grouping
+ * separators and everything else as reported. Other conversions are configured per metric with
+ * {@code sonar.metricFormats.<metric>=auto|duration|percent|integer|raw}.
+ * <p>
+ * Numbers are read and formatted by hand, without regular expressions or {@link String#format}, and
+ * small whole numbers are shown as reported without a copy. Instances are immutable and thread-safe.
+ */
+public final class MetricConversions {
+
+    public enum Conversion {
+        AUTO, DURATION, PERCENT, INTEGER, RAW
+    }
+
+    private static final Map<String, Conversion> DEFAULTS = Collections.singletonMap("sqale_index", Conversion.DURATION);
+    private static final int MINUTES_IN_DAY = 8 * 60; // technical debt days are working days
+    private static final int MAX_DIGITS = 18; // longest whole number that always fits a long
+
+    private final Map<String, Conversion> conversions;
+    private final char groupingSeparator;
+
+    /**
+     * @param formats conversion names by metric, overriding the defaults, may be null
+     * @throws IllegalArgumentException for an unknown conversion name
+     */
+    public MetricConversions(Map<String, String> formats) {
+        this(formats, Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    MetricConversions(Map<String, String> formats, Locale locale) {
+        Map<String, Conversion> table = new HashMap<>(DEFAULTS);
+        if (formats != null) {
+            formats.forEach((metric, format) -> table.put(metric, conversion(metric, format)));
+        }
+        this.conversions = table;
+        this.groupingSeparator = DecimalFormatSymbols.getInstance(locale).getGroupingSeparator();
+    }
+
+    public CodeQualityMetric metric(String name, String value) {
+        CodeQualityMetric metric = new CodeQualityMetric(name);
+        metric.setValue(value);
+        metric.setFormattedValue(format(name, value));
+        return metric;
+    }
+
+    public String format(String name, String value) {
+        switch (conversions.getOrDefault(name, Conversion.AUTO)) {
+            case DURATION:
+                return duration(value);
+            case PERCENT:
+                return value + '%';
+            case INTEGER:
+                return grouped(value);
+            case RAW:
+                return value;
+            default:
+                return value.indexOf('.') > 0 ? value + '%' : grouped(value);
+        }
+    }
+
+    /**
+     * Minutes as working days, hours and minutes, e.g. {@code 1d 2h} or {@code 3h 20min}. Longer
+     * durations leave out the smaller units. Values that are not whole minutes are shown as reported.
+     */
+    String duration(String value) {
+        long duration;
+        try {
+            duration = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+        if (duration == 0) {
+            return "0";
+        }
+        boolean negative = duration < 0;
+        long absDuration = Math.abs(duration);
+        long days = absDuration / MINUTES_IN_DAY;
+        long hours = (absDuration - days * MINUTES_IN_DAY) / 60;
+        long minutes = absDuration - days * MINUTES_IN_DAY - hours * 60;
+
+        StringBuilder message = new StringBuilder(16);
+        if (days > 0) {
+            message.append(negative ? -days : days).append('d');
+        }
+        if (hours > 0 && days < 10) {
+            addSpaceIfNeeded(message);
+            message.append(negative && message.length() == 0 ? -hours : hours).append('h');
+        }
+        if (minutes > 0 && hours < 10 && days == 0) {
+            addSpaceIfNeeded(message);
+            message.append(negative && message.length() == 0 ? -minutes : minutes).append("min");
+        }
+        return message.toString();
+    }
+
+    /**
+     * Digits only as a whole number with grouping separators, anything else as reported
+     */
+    String grouped(String value) {
+        int length = value.length();
+        if (length == 0 || length > MAX_DIGITS) {
+            return value;
+        }
+        long number = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return value;
+            }
+            number = number * 10 + (c - '0');
+        }
+        if (number < 1000 && (length == 1 || value.charAt(0) != '0')) {
+            return value;
+        }
+        char[] chars = new char[MAX_DIGITS + MAX_DIGITS / 3];
+        int position = chars.length;
+        int digits = 0;
+        do {
+            if (digits > 0 && digits % 3 == 0) {
+                chars[--position] = groupingSeparator;
+            }
+            chars[--position] = (char) ('0' + number % 10);
+            number /= 10;
+            digits++;
+        } while (number > 0);
+        return new String(chars, position, chars.length - position);
+    }
+
+    private static void addSpaceIfNeeded(StringBuilder message) {
+        if (message.length() > 0) {
+            message.append(' ');
+        }
+    }
+
+    private static Conversion conversion(String metric, String format) {
+        try {
+            return Conversion.valueOf(StringUtils.trimToEmpty(format).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format '" + format + "' of metric " + metric, e);
+        }
+    }
+}
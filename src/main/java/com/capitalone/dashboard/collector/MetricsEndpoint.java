@@ -0,0 +1,73 @@
+package com.capitalone.dashboard.collector;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the {@link SonarMetrics} in the prometheus text format on the configured port. The collector
+ * runs no web server of its own, so a small jdk http server answers the scrapes.
+ */
+@Component
+public class MetricsEndpoint {
+    private static final Log LOG = LogFactory.getLog(MetricsEndpoint.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final SonarMetrics metrics;
+    private final SonarSettings settings;
+    private HttpServer server;
+
+    @Autowired
+    public MetricsEndpoint(SonarMetrics metrics, SonarSettings settings) {
+        this.metrics = metrics;
+        this.settings = settings;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (server != null || settings.getMetricsPort() <= 0) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(settings.getMetricsPort()), 0);
+        } catch (IOException e) {
+            LOG.error("Could not serve metrics on port " + settings.getMetricsPort(), e);
+            return;
+        }
+        server.createContext(settings.getMetricsPath(), exchange -> {
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        LOG.info("Serving metrics on port " + getPort() + settings.getMetricsPath());
+    }
+
+    /**
+     * @return port the metrics are served on, -1 when they are not served
+     */
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.util.JsonStreams;
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestClientException;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the changelog of a quality profile page by page, starting at a point in time so
+ * only the changes made since the last read are transferred.
+ */
+final class QualityProfileChangelog {
+    private static final Log LOG = LogFactory.getLog(QualityProfileChangelog.class);
+
+    private static final String URL_CHANGES = "/api/qualityprofiles/changelog?profileKey=%s&ps=%d";
+    private static final String PAGE = "&p=";
+    private static final String SINCE = "&since=";
+    private static final String TO = "&to=";
+    private static final String DATE = "date";
+    private static final String EVENTS = "events";
+    private static final String TOTAL = "total";
+    private static final String PAGING = "paging";
+    static final int PAGE_SIZE = 500;
+    static final int MAX_PAGES = 100;
+
+    private QualityProfileChangelog() {
+    }
+
+    /**
+     * When there are more changes since the given time than {@link #MAX_PAGES} pages hold, the oldest
+     * of them are read, up to the newest change of the first page, so a mark moved to the latest change
+     * read continues with the remaining ones next time.
+     *
+     * @param since epoch millis, earlier changes are not requested, 0 reads the whole changelog
+     * @return the changes of every page, newest first as sonar reports them
+     */
+    static JSONArray read(StreamingRestClient restClient, HttpHeaders headers, String instanceUrl, String qualityProfile, long since) {
+        String changesUrl = instanceUrl + String.format(URL_CHANGES, encode(qualityProfile), PAGE_SIZE)
+                + (since > 0 ? SINCE + encode(SonarDates.format(since)) : "");
+        JSONArray events = new JSONArray();
+        String url = "";
+        try {
+            for (int page = 1; page <= MAX_PAGES; page++) {
+                url = changesUrl + PAGE + page;
+                int before = events.size();
+                Long total = restClient.get(URI.create(url), headers, parser -> readPage(parser, events));
+                int read = events.size() - before;
+                if (read < PAGE_SIZE || total != null && events.size() >= total) {
+                    return events;
+                }
+                if (page == 1 && total != null && total > (long) MAX_PAGES * PAGE_SIZE) {
+                    LOG.info(total + " changes of quality profile " + qualityProfile + " of " + instanceUrl + ", reading the oldest "
+                            + MAX_PAGES * PAGE_SIZE);
+                    String newest = (String) ((JSONObject) events.get(0)).get(DATE);
+                    url = changesUrl + TO + encode(newest);
+                    return readOldest(restClient, headers, url, total);
+                }
+            }
+            LOG.info("More than " + MAX_PAGES * PAGE_SIZE + " changes of quality profile " + qualityProfile + " of " + instanceUrl);
+            return events;
+        } catch (RestClientException rce) {
+            LOG.error("Could not read quality profile changelog: " + url, rce);
+            throw rce;
+        }
+    }
+
+    /**
+     * The last {@link #MAX_PAGES} pages of a changelog that no longer grows. Its first page is guessed
+     * from the total of all changes, and read again from an earlier page when the changes of the newest
+     * date left out make it start earlier.
+     */
+    private static JSONArray readOldest(StreamingRestClient restClient, HttpHeaders headers, String changesUrl, long total) {
+        long first = firstOfLastPages(total);
+        JSONArray events = new JSONArray();
+        Long bounded = restClient.get(URI.create(changesUrl + PAGE + first), headers, parser -> readPage(parser, events));
+        long remaining = bounded == null ? total : bounded;
+        if (firstOfLastPages(remaining) != first) {
+            first = firstOfLastPages(remaining);
+            events.clear();
+            restClient.get(URI.create(changesUrl + PAGE + first), headers, parser -> readPage(parser, events));
+        }
+        for (long page = first + 1; page <= pages(remaining); page++) {
+            restClient.get(URI.create(changesUrl + PAGE + page), headers, parser -> readPage(parser, events));
+        }
+        return events;
+    }
+
+    private static long pages(long total) {
+        return (total + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    private static long firstOfLastPages(long total) {
+        return Math.max(1, pages(total) - MAX_PAGES + 1);
+    }
+
+    /**
+     * @return total number of changes, null when the server does not report it and paging goes on
+     * until a short page
+     */
+    @SuppressWarnings("unchecked")
+    private static Long readPage(JsonParser parser, JSONArray events) throws IOException {
+        Long[] total = {null};
+        JsonStreams.readObject(parser, (field, p) -> {
+            if (EVENTS.equals(field)) {
+                JsonStreams.readArray(p, event -> events.add(JsonStreams.readValue(event)));
+            } else if (TOTAL.equals(field)) {
+                total[0] = p.getLongValue();
+            } else if (PAGING.equals(field)) {
+                JsonStreams.readObject(p, (name, value) -> {
+                    if (TOTAL.equals(name)) {
+                        total[0] = value.getLongValue();
+                    }
+                });
+            }
+        });
+        return total[0];
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
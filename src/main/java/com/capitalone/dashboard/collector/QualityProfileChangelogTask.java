@@ -0,0 +1,291 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.Collector;
+import com.capitalone.dashboard.model.CollectorItemConfigHistory;
+import com.capitalone.dashboard.model.ConfigHistOperationType;
+import com.capitalone.dashboard.model.SonarChangelogMark;
+import com.capitalone.dashboard.model.SonarSecurityAnalysisCollector;
+import com.capitalone.dashboard.model.SonarStaticAnalysisCollector;
+import com.capitalone.dashboard.repository.SonarChangelogMarkRepository;
+import com.capitalone.dashboard.repository.SonarProfileRepostory;
+import com.capitalone.dashboard.repository.SonarProfileRepostoryImpl;
+import com.capitalone.dashboard.repository.SonarSecurityAnalysisCollectorRepository;
+import com.capitalone.dashboard.repository.SonarStaticAnalysisCollectorRepository;
+import com.capitalone.dashboard.util.ParallelExecutor;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Collects the quality profile changelogs of the sonar servers on a schedule of its own, off the
+ * metrics refresh of the collector tasks. Every server is read once and its changes are stored for
+ * both the static and the security analysis collector. Only changes since the latest one read from
+ * each profile are requested, and the profiles of a server are read concurrently. In sharded collection
+ * only the coordinator node of the changelog collects it.
+ */
+@Component
+public class QualityProfileChangelogTask implements Runnable {
+    private static final Log LOG = LogFactory.getLog(QualityProfileChangelogTask.class);
+    private static final String STATIC_COLLECTOR_NAME = "Sonar";
+    private static final String SECURITY_COLLECTOR_NAME = "SonarSecurity";
+    private static final String SHARD_NAME = "QualityProfileChangelog";
+
+    private final TaskScheduler taskScheduler;
+    private final SonarStaticAnalysisCollectorRepository staticCollectorRepository;
+    private final SonarSecurityAnalysisCollectorRepository securityCollectorRepository;
+    private final SonarProfileRepostory sonarProfileRepostory;
+    private final SonarChangelogMarkRepository changelogMarkRepository;
+    private final SonarClientSelector sonarClientSelector;
+    private final SonarSettings sonarSettings;
+    private final SonarMetrics metrics;
+    private final ShardCoordinator shards;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public QualityProfileChangelogTask(TaskScheduler taskScheduler,
+                                       SonarStaticAnalysisCollectorRepository staticCollectorRepository,
+                                       SonarSecurityAnalysisCollectorRepository securityCollectorRepository,
+                                       SonarProfileRepostory sonarProfileRepostory,
+                                       SonarChangelogMarkRepository changelogMarkRepository,
+                                       SonarClientSelector sonarClientSelector,
+                                       SonarSettings sonarSettings,
+                                       SonarMetrics metrics,
+                                       ShardCoordinator shards) {
+        this.taskScheduler = taskScheduler;
+        this.staticCollectorRepository = staticCollectorRepository;
+        this.securityCollectorRepository = securityCollectorRepository;
+        this.sonarProfileRepostory = sonarProfileRepostory;
+        this.changelogMarkRepository = changelogMarkRepository;
+        this.sonarClientSelector = sonarClientSelector;
+        this.sonarSettings = sonarSettings;
+        this.metrics = metrics;
+        this.shards = shards;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void schedule() {
+        String cron = sonarSettings.getChangelogCron();
+        if (StringUtils.isBlank(cron)) {
+            LOG.info("Quality profile changelog collection is disabled");
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            taskScheduler.schedule(this, new CronTrigger(cron));
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            LOG.info("Quality profile changelog collection is still running, skipping this run");
+            return;
+        }
+        try {
+            collect();
+        } catch (RuntimeException e) {
+            LOG.error("Quality profile changelog collection failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Read the changelogs of every server the collectors know and store the new changes for each collector
+     */
+    public void collect() {
+        if (!shards.assignment(SHARD_NAME).isCoordinator()) {
+            LOG.info("Quality profile changelogs are collected by another shard node");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        SonarStaticAnalysisCollector staticCollector = staticCollectorRepository.findByName(STATIC_COLLECTOR_NAME);
+        SonarSecurityAnalysisCollector securityCollector = securityCollectorRepository.findByName(SECURITY_COLLECTOR_NAME);
+        List<Collector> collectors = new ArrayList<>();
+        List<String> servers = Collections.emptyList();
+        if (securityCollector != null) {
+            collectors.add(securityCollector);
+            servers = securityCollector.getSonarServers();
+        }
+        if (staticCollector != null) {
+            collectors.add(staticCollector);
+            servers = staticCollector.getSonarServers();
+        }
+        if (collectors.isEmpty() || servers.isEmpty()) {
+            return;
+        }
+
+        List<String> instanceUrls = new ArrayList<>(servers);
+        List<Integer> serverIndexes = IntStream.range(0, instanceUrls.size()).boxed().collect(Collectors.toList());
+        int serverConcurrency = sonarSettings.getServerConcurrency() > 0 ? sonarSettings.getServerConcurrency() : instanceUrls.size();
+        ParallelExecutor.forEach(serverIndexes, serverConcurrency, "sonar-changelog-server", i -> {
+            try {
+                metrics.time(SonarMetrics.ALL, SonarMetrics.PHASE_CHANGELOG, instanceUrls.get(i), () -> {
+                    collectServer(instanceUrls.get(i), i, collectors);
+                    return null;
+                });
+            } catch (RestClientException | ParseException e) {
+                LOG.error("Could not collect quality profile changes of " + instanceUrls.get(i), e);
+            }
+        });
+        LOG.info("Quality profile changelogs collected in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void collectServer(String instanceUrl, int serverIndex, List<Collector> collectors) throws ParseException {
+        SonarCapabilities capabilities = sonarClientSelector.getCapabilities(instanceUrl);
+        // Changelog apis do not exist for sonarqube versions under version 5.0
+        if (capabilities.getVersion() < 5.0) {
+            return;
+        }
+        SonarServerSession session = new SonarServerSession(instanceUrl, capabilities,
+                itemAt(sonarSettings.getUsernames(), serverIndex),
+                itemAt(sonarSettings.getPasswords(), serverIndex),
+                itemAt(sonarSettings.getTokens(), serverIndex));
+        SonarClient sonarClient = sonarClientSelector.getSonarClient(capabilities.getVersion()).forSession(session);
+
+        JSONArray qualityProfiles = sonarClient.getQualityProfiles(instanceUrl);
+        if (qualityProfiles == null || qualityProfiles.isEmpty()) {
+            return;
+        }
+        Map<String, SonarChangelogMark> marks = new HashMap<>();
+        for (SonarChangelogMark mark : changelogMarkRepository.findByInstanceUrl(instanceUrl)) {
+            marks.putIfAbsent(mark.getProfileKey(), mark);
+        }
+
+        List<JSONObject> changes = Collections.synchronizedList(new ArrayList<>());
+        List<SonarChangelogMark> movedMarks = Collections.synchronizedList(new ArrayList<>());
+        ParallelExecutor.forEach(qualityProfiles, sonarSettings.getChangelogConcurrency(), "sonar-changelog", qualityProfile -> {
+            String qualityProfileKey = (String) ((JSONObject) qualityProfile).get("key");
+            try {
+                if (!isUsedByProjects(sonarClient, instanceUrl, (JSONObject) qualityProfile)) {
+                    return;
+                }
+                SonarChangelogMark mark = marks.getOrDefault(qualityProfileKey, new SonarChangelogMark(instanceUrl, qualityProfileKey));
+                JSONArray profileChanges = sonarClient.getQualityProfileConfigurationChanges(instanceUrl, qualityProfileKey, mark.getSince());
+                long latest = mark.getSince();
+                for (Object change : profileChanges == null ? new JSONArray() : profileChanges) {
+                    JSONObject changeJson = (JSONObject) change;
+                    changes.add(changeJson);
+                    latest = Math.max(latest, convertToTimestamp((String) changeJson.get("date")));
+                }
+                if (latest > mark.getSince()) {
+                    mark.setSince(latest);
+                    movedMarks.add(mark);
+                }
+            } catch (RestClientException | ParseException e) {
+                metrics.error(SonarMetrics.PHASE_CHANGELOG, e);
+                LOG.error("Could not read the changelog of quality profile " + qualityProfileKey + " of " + instanceUrl, e);
+            }
+        });
+
+        for (Collector collector : collectors) {
+            addNewConfigurationChanges(collector, changes);
+        }
+        // moved only once the changes are stored, a failed store reads them again next time
+        if (!movedMarks.isEmpty()) {
+            changelogMarkRepository.save(movedMarks);
+        }
+        LOG.info(instanceUrl + " quality profile changes read " + changes.size());
+        metrics.count("changelog.changes", SonarMetrics.ALL, instanceUrl, changes.size());
+    }
+
+    /**
+     * Profiles no project uses are left out. Sonar 6 reports the project count with the profile,
+     * older servers and default profiles are asked for the projects.
+     */
+    private boolean isUsedByProjects(SonarClient sonarClient, String instanceUrl, JSONObject qualityProfile) throws ParseException {
+        Object projectCount = qualityProfile.get("projectCount");
+        if (projectCount instanceof Number) {
+            return ((Number) projectCount).longValue() > 0;
+        }
+        return sonarClient.retrieveProfileAndProjectAssociation(instanceUrl, (String) qualityProfile.get("key")) != null;
+    }
+
+    /**
+     * Store the changes the collector has not stored yet, matched against the keys of the changes stored in
+     * the time window of the read changes, loaded once. Changes read together are all stored, e.g. the rules
+     * a user activated in bulk within one second.
+     */
+    private void addNewConfigurationChanges(Collector collector, List<JSONObject> sonarProfileConfigurationChanges) {
+        if (sonarProfileConfigurationChanges.isEmpty()) {
+            return;
+        }
+        long[] timestamps = new long[sonarProfileConfigurationChanges.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = convertToTimestamp((String) sonarProfileConfigurationChanges.get(i).get("date"));
+        }
+        LongSummaryStatistics window = Arrays.stream(timestamps).summaryStatistics();
+        Set<String> storedChanges = sonarProfileRepostory.findProfileConfigChangeKeys(collector.getId(), window.getMin(), window.getMax());
+        List<CollectorItemConfigHistory> profileConfigChanges = new ArrayList<>();
+
+        for (int i = 0; i < timestamps.length; i++) {
+            JSONObject configChangeJson = sonarProfileConfigurationChanges.get(i);
+            ConfigHistOperationType operation = determineConfigChangeOperationType((String) configChangeJson.get("action"));
+            long timestamp = timestamps[i];
+            String authorLogin = (String) configChangeJson.get("authorLogin");
+
+            // stored by an earlier run
+            if (storedChanges.contains(SonarProfileRepostoryImpl.changeKey(authorLogin, operation, timestamp))) {
+                continue;
+            }
+
+            CollectorItemConfigHistory profileConfigChange = new CollectorItemConfigHistory();
+            Map<String, Object> changeMap = new HashMap<>();
+
+            profileConfigChange.setCollectorItemId(collector.getId());
+            profileConfigChange.setUserName((String) configChangeJson.get("authorName"));
+            profileConfigChange.setUserID(authorLogin);
+            changeMap.put("event", configChangeJson);
+
+            profileConfigChange.setChangeMap(changeMap);
+            profileConfigChange.setOperation(operation);
+            profileConfigChange.setTimestamp(timestamp);
+
+            profileConfigChanges.add(profileConfigChange);
+        }
+        if (!profileConfigChanges.isEmpty()) {
+            sonarProfileRepostory.save(profileConfigChanges);
+        }
+    }
+
+    private static String itemAt(List<String> ls, int index) {
+        return ls != null && ls.size() > index ? ls.get(index) : null;
+    }
+
+    static long convertToTimestamp(String date) {
+        return SonarDates.parse(date);
+    }
+
+    private static ConfigHistOperationType determineConfigChangeOperationType(String changeAction) {
+        switch (changeAction) {
+            case "DEACTIVATED":
+                return ConfigHistOperationType.DELETED;
+            case "ACTIVATED":
+                return ConfigHistOperationType.CREATED;
+            default:
+                return ConfigHistOperationType.CHANGED;
+        }
+    }
+}
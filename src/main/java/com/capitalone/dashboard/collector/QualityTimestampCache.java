@@ -0,0 +1,55 @@
+package com.capitalone.dashboard.collector;
+
+import org.bson.types.ObjectId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Timestamp of the latest code quality stored per collector item, evicting the least recently
+ * used items beyond the maximum size. {@link #NONE} marks items known to have no code quality yet.
+ */
+public class QualityTimestampCache {
+    public static final long NONE = Long.MIN_VALUE;
+
+    private final Map<ObjectId, Long> timestamps;
+
+    public QualityTimestampCache(int maxSize) {
+        this.timestamps = new LinkedHashMap<ObjectId, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectId, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the latest timestamp, {@link #NONE}, or null when the item is not cached
+     */
+    public synchronized Long get(ObjectId collectorItemId) {
+        return timestamps.get(collectorItemId);
+    }
+
+    public synchronized boolean contains(ObjectId collectorItemId) {
+        return timestamps.containsKey(collectorItemId);
+    }
+
+    /**
+     * Remember a stored timestamp, an older one never replaces a newer
+     */
+    public synchronized void put(ObjectId collectorItemId, long timestamp) {
+        timestamps.merge(collectorItemId, timestamp, Math::max);
+    }
+
+    /**
+     * Forget the items matching the filter, their next lookup reads the stored timestamp again
+     */
+    public synchronized void removeIf(Predicate<ObjectId> filter) {
+        timestamps.keySet().removeIf(filter);
+    }
+
+    public synchronized int size() {
+        return timestamps.size();
+    }
+}
@@ -0,0 +1,130 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.SonarProject;
+import com.capitalone.dashboard.repository.SonarProjectRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Buffers the writes of a refresh, the lastUpdated of each refreshed project and its new code quality.
+ * The buffer is written with unordered bulk operations once it holds a batch or the flush interval has
+ * passed, and whatever is left is written when the writer is closed. Batches are written outside the lock
+ * so refresh threads keep buffering meanwhile. The code quality of each batch is handed on only once
+ * the batch is written.
+ */
+public class RefreshWriter implements AutoCloseable {
+    private static final Log LOG = LogFactory.getLog(RefreshWriter.class);
+
+    private final SonarProjectRepository sonarProjectRepository;
+    private final int batchSize;
+    private final long flushInterval;
+    private final Consumer<List<CodeQuality>> onWritten;
+    private final long start = System.currentTimeMillis();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger batches = new AtomicInteger();
+    private final AtomicLong writeMillis = new AtomicLong();
+
+    private Map<ObjectId, Long> lastUpdated = new HashMap<>();
+    private List<CodeQuality> codeQualities = new ArrayList<>();
+    private long lastFlush = start;
+
+    /**
+     * @param batchSize code quality documents written per bulk operation, 1 or less writes each one right away
+     * @param flushInterval milliseconds after which a partial batch is written
+     */
+    public RefreshWriter(SonarProjectRepository sonarProjectRepository, int batchSize, long flushInterval) {
+        this(sonarProjectRepository, batchSize, flushInterval, written -> { });
+    }
+
+    /**
+     * @param onWritten takes the code quality of every batch once it is written, never the one of a failed write
+     */
+    public RefreshWriter(SonarProjectRepository sonarProjectRepository, int batchSize, long flushInterval,
+                         Consumer<List<CodeQuality>> onWritten) {
+        this.sonarProjectRepository = sonarProjectRepository;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.onWritten = onWritten;
+    }
+
+    /**
+     * Buffer the new code quality of the project, already linked to it, along with its lastUpdated
+     */
+    public void add(SonarProject project, CodeQuality codeQuality) {
+        Map<ObjectId, Long> updates;
+        List<CodeQuality> inserts;
+        synchronized (this) {
+            lastUpdated.put(project.getId(), project.getLastUpdated());
+            codeQualities.add(codeQuality);
+            long now = System.currentTimeMillis();
+            if (codeQualities.size() < batchSize && now - lastFlush < flushInterval) {
+                return;
+            }
+            updates = lastUpdated;
+            inserts = codeQualities;
+            lastUpdated = new HashMap<>();
+            codeQualities = new ArrayList<>();
+            lastFlush = now;
+        }
+        write(updates, inserts);
+    }
+
+    /**
+     * Write whatever is buffered
+     */
+    public void flush() {
+        Map<ObjectId, Long> updates;
+        List<CodeQuality> inserts;
+        synchronized (this) {
+            updates = lastUpdated;
+            inserts = codeQualities;
+            lastUpdated = new HashMap<>();
+            codeQualities = new ArrayList<>();
+            lastFlush = System.currentTimeMillis();
+        }
+        write(updates, inserts);
+    }
+
+    /**
+     * Write whatever is buffered and report the write throughput
+     */
+    @Override
+    public void close() {
+        flush();
+        if (written.get() > 0) {
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            LOG.info(String.format("Wrote %d code quality in %d batches, %d ms writing, %.1f per second",
+                    written.get(), batches.get(), writeMillis.get(), written.get() * 1000.0 / elapsed));
+        }
+    }
+
+    public int getWritten() {
+        return written.get();
+    }
+
+    public int getBatches() {
+        return batches.get();
+    }
+
+    private void write(Map<ObjectId, Long> updates, List<CodeQuality> inserts) {
+        if (inserts.isEmpty()) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        sonarProjectRepository.writeRefreshed(updates, inserts);
+        writeMillis.addAndGet(System.currentTimeMillis() - begin);
+        written.addAndGet(inserts.size());
+        batches.incrementAndGet();
+        onWritten.accept(inserts);
+    }
+}
@@ -0,0 +1,64 @@
+package com.capitalone.dashboard.collector;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every call of the spring data repositories, the custom bulk operations included, tagged with
+ * the repository bean and the method. The {@link SonarMetrics} are looked up on the first call so this
+ * post processor does not pull them into the context before the other beans.
+ */
+@Component
+public class RepositoryMetrics implements BeanPostProcessor, BeanFactoryAware {
+    private BeanFactory beanFactory;
+    private volatile SonarMetrics metrics;
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!(bean instanceof Repository)) {
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory(bean);
+        proxyFactory.addAdvice(timing(beanName));
+        return proxyFactory.getProxy();
+    }
+
+    private MethodInterceptor timing(String repository) {
+        return invocation -> {
+            long start = System.nanoTime();
+            String outcome = "success";
+            try {
+                return invocation.proceed();
+            } catch (RuntimeException e) {
+                outcome = "error";
+                metrics().error("mongo", e);
+                throw e;
+            } finally {
+                metrics().recordRepositoryCall(repository, invocation.getMethod().getName(), outcome, System.nanoTime() - start);
+            }
+        };
+    }
+
+    private SonarMetrics metrics() {
+        if (metrics == null) {
+            metrics = beanFactory.getBean(SonarMetrics.class);
+        }
+        return metrics;
+    }
+}
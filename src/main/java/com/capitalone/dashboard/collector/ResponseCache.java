@@ -0,0 +1,280 @@
+package com.capitalone.dashboard.collector;
+
+import io.micrometer.core.instrument.Tags;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Response bodies of slow changing sonar endpoints, e.g. the quality profiles, the projects of a profile
+ * and the server version, kept for the time to live configured per endpoint so they are not downloaded
+ * again on every collection.
+ * <p>
+ * Bodies are kept in memory up to a total size, the least recently used ones are evicted first. With a
+ * cache directory every body is written to disk as well, so the cache survives restarts. Lookups are
+ * counted as sonar.cache.requests by endpoint and result (hit, disk or miss), the bytes served from the
+ * cache as sonar.cache.saved.bytes. Endpoints without a time to live are not cached.
+ */
+@Component
+public class ResponseCache {
+    private static final Log LOG = LogFactory.getLog(ResponseCache.class);
+
+    public static final String QUALITY_PROFILES = "qualityProfiles";
+    public static final String PROFILE_PROJECTS = "profileProjects";
+    public static final String VERSION = "version";
+
+    private static final String FILE_SUFFIX = ".cache";
+
+    private final SonarSettings settings;
+    private final SonarMetrics metrics;
+    private final LongSupplier clock;
+    private final long maxBytes;
+    private final Path directory;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Requests the response body on a miss
+     */
+    @FunctionalInterface
+    public interface Loader {
+        byte[] load();
+    }
+
+    @Autowired
+    public ResponseCache(SonarSettings settings, SonarMetrics metrics) {
+        this(settings, metrics, System::currentTimeMillis);
+    }
+
+    ResponseCache(SonarSettings settings, SonarMetrics metrics, LongSupplier clock) {
+        this.settings = settings;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.maxBytes = settings.getResponseCacheSize();
+        this.directory = directory(settings.getResponseCacheDir());
+        metrics.gauge("cache.bytes", Tags.empty(), this, ResponseCache::getBytes);
+    }
+
+    /**
+     * @param endpoint one of the endpoint names the time to live is configured by
+     * @param url the requested url
+     * @param headers request headers, the cached body is bound to their credentials
+     * @param loader requests the body when it is not cached or expired, a null body is not cached
+     * @return the cached or loaded body
+     */
+    public byte[] get(String endpoint, String url, HttpHeaders headers, Loader loader) {
+        long ttl = ttl(endpoint);
+        if (ttl <= 0 || (maxBytes <= 0 && directory == null)) {
+            return loader.load();
+        }
+        String key = key(endpoint, url, headers);
+        long now = clock.getAsLong();
+
+        Entry entry = memory(key, now);
+        String result = "hit";
+        if (entry == null) {
+            entry = disk(key, now);
+            result = "disk";
+            if (entry != null) {
+                remember(key, entry);
+            }
+        }
+        if (entry != null) {
+            metrics.cacheRequest(endpoint, result, entry.body.length);
+            return entry.body;
+        }
+
+        metrics.cacheRequest(endpoint, "miss", 0);
+        byte[] body = loader.load();
+        if (body != null) {
+            entry = new Entry(key, body, now + ttl);
+            remember(key, entry);
+            store(key, entry);
+        }
+        return body;
+    }
+
+    /**
+     * Drop the cached body, e.g. when it could not be read
+     */
+    public void evict(String endpoint, String url, HttpHeaders headers) {
+        String key = key(endpoint, url, headers);
+        synchronized (this) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                bytes -= entry.body.length;
+            }
+        }
+        if (directory != null) {
+            try {
+                Files.deleteIfExists(file(key));
+            } catch (IOException e) {
+                LOG.warn("Could not delete cached response of " + url + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the size of the bodies held in memory
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private long ttl(String endpoint) {
+        Map<String, Long> ttls = settings.getResponseCacheTtl();
+        Long ttl = ttls == null ? null : ttls.get(endpoint);
+        return ttl == null ? 0 : ttl;
+    }
+
+    private synchronized Entry memory(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= now) {
+            entries.remove(key);
+            bytes -= entry.body.length;
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void remember(String key, Entry entry) {
+        if (maxBytes <= 0 || entry.body.length > maxBytes) {
+            return;
+        }
+        Entry replaced = entries.put(key, entry);
+        bytes += entry.body.length - (replaced == null ? 0 : replaced.body.length);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().body.length;
+            eldest.remove();
+        }
+    }
+
+    private Entry disk(String key, long now) {
+        if (directory == null) {
+            return null;
+        }
+        Path file = file(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            Entry entry = read(in);
+            if (key.equals(entry.key) && entry.expiresAt > now) {
+                return entry;
+            }
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Could not read cached response " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Written to a temporary file first, a restart never finds half a body
+     */
+    private void store(String key, Entry entry) {
+        if (directory == null) {
+            return;
+        }
+        Path file = file(key);
+        try {
+            Path temp = Files.createTempFile(directory, "response", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeUTF(key);
+                out.writeLong(entry.expiresAt);
+                out.writeInt(entry.body.length);
+                out.write(entry.body);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not write cached response " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static Entry read(DataInputStream in) throws IOException {
+        String key = in.readUTF();
+        long expiresAt = in.readLong();
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new Entry(key, body, expiresAt);
+    }
+
+    private Path file(String key) {
+        return directory.resolve(DigestUtils.sha256Hex(key) + FILE_SUFFIX);
+    }
+
+    /**
+     * The credentials are part of the key as a digest, so servers and users never share a body and
+     * no secret is written to disk
+     */
+    private static String key(String endpoint, String url, HttpHeaders headers) {
+        String authorization = headers == null ? null : headers.getFirst(HttpHeaders.AUTHORIZATION);
+        return endpoint + ' ' + url + (authorization == null ? "" : ' ' + DigestUtils.sha256Hex(authorization));
+    }
+
+    /**
+     * The cache directory, created if needed, with the expired bodies of earlier runs removed
+     */
+    private Path directory(String dir) {
+        if (StringUtils.isBlank(dir)) {
+            return null;
+        }
+        Path path = Paths.get(dir);
+        try {
+            Files.createDirectories(path);
+        } catch (IOException e) {
+            LOG.warn("Cannot use response cache directory " + dir + ", caching in memory only: " + e.getMessage());
+            return null;
+        }
+        long now = clock.getAsLong();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                if (expired(file, now)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not clean response cache directory " + dir + ": " + e.getMessage());
+        }
+        return path;
+    }
+
+    private static boolean expired(Path file, long now) {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            in.readUTF();
+            return in.readLong() <= now;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final byte[] body;
+        private final long expiresAt;
+
+        private Entry(String key, byte[] body, long expiresAt) {
+            this.key = key;
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,18 +1,214 @@
 package com.capitalone.dashboard.collector;
 
 import com.capitalone.dashboard.util.Supplier;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Supplies {@link RestOperations} backed by one pooled, keep-alive http client shared by every
+ * sonar client, so connections (and their TLS handshakes) are reused across requests. Every request
+ * is timed until its response arrives, tagged with the server and the url template, and the requests in
+ * flight to each server are limited by the {@link ConcurrencyLimiters}. Servers that stopped answering are
+ * cut off by the {@link CircuitBreakers}.
+ */
 @Component
 public class RestOperationsSupplier implements Supplier<RestOperations> {
+    private static final Log LOG = LogFactory.getLog(RestOperationsSupplier.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final HttpComponentsClientHttpRequestFactory requestFactory;
+    private final ScheduledExecutorService poolMaintenance;
+    private final SonarMetrics metrics;
+    private final List<ClientHttpRequestInterceptor> interceptors;
+
+    @Autowired
+    public RestOperationsSupplier(SonarSettings settings, SonarMetrics metrics, ConcurrencyLimiters limiters, CircuitBreakers breakers) {
+        this.metrics = metrics;
+        // rejected requests take no permit, the limiter holds requests back before they are timed,
+        // the timer sees the server's latency only
+        this.interceptors = Arrays.asList(breakers.interceptor(), limiters.interceptor(), timing());
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                .build();
+        connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+        connectionManager.setMaxTotal(settings.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(settings.getMaxConnectionsPerRoute());
+        // re-check connections that sat idle in the pool before handing them out again
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(settings.getConnectTimeout())
+                .setConnectionRequestTimeout(settings.getConnectTimeout())
+                .setSocketTimeout(settings.getReadTimeout())
+                .build();
+
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy(settings.getKeepAliveTimeout()));
+        // gzip/deflate is negotiated through Accept-Encoding and decoded transparently unless disabled
+        if (!settings.isCompressionEnabled()) {
+            builder.disableContentCompression();
+        }
+        httpClient = builder.build();
+        requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        metrics.gauge("http.pool.leased", Tags.empty(), connectionManager, pool -> pool.getTotalStats().getLeased());
+        metrics.gauge("http.pool.pending", Tags.empty(), connectionManager, pool -> pool.getTotalStats().getPending());
+        metrics.gauge("http.pool.available", Tags.empty(), connectionManager, pool -> pool.getTotalStats().getAvailable());
+
+        poolMaintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sonar-http-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long idleTimeout = settings.getIdleConnectionTimeout();
+        long evictionInterval = Math.max(1000, idleTimeout / 2);
+        poolMaintenance.scheduleWithFixedDelay(() -> evictConnections(idleTimeout), evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+        if (settings.getPoolStatsInterval() > 0) {
+            poolMaintenance.scheduleWithFixedDelay(this::logPoolStats, settings.getPoolStatsInterval(), settings.getPoolStatsInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
     @Override
     public RestOperations get() {
-        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
-        requestFactory.setConnectTimeout(20000);
-        requestFactory.setReadTimeout(20000);
-        return new RestTemplate(requestFactory);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.setInterceptors(interceptors);
+        return restTemplate;
+    }
+
+    /**
+     * @return leased, pending, available and maximum connections of the whole pool
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @PreDestroy
+    public void close() {
+        poolMaintenance.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close sonar http client", e);
+        }
+    }
+
+    private void evictConnections(long idleTimeout) {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void logPoolStats() {
+        PoolStats stats = getPoolStats();
+        LOG.info("Sonar http pool: leased=" + stats.getLeased() + " pending=" + stats.getPending()
+                + " available=" + stats.getAvailable() + " max=" + stats.getMax()
+                + " routes=" + connectionManager.getRoutes().size());
+    }
+
+    private ClientHttpRequestInterceptor timing() {
+        return (request, body, execution) -> {
+            URI uri = request.getURI();
+            long start = System.nanoTime();
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                int status = response.getRawStatusCode();
+                metrics.recordRequest(server(uri), uriTemplate(uri), String.valueOf(status), System.nanoTime() - start);
+                if (status >= 400) {
+                    metrics.error("http", "status" + status);
+                }
+                return response;
+            } catch (IOException | RuntimeException e) {
+                metrics.recordRequest(server(uri), uriTemplate(uri), e.getClass().getSimpleName(), System.nanoTime() - start);
+                metrics.error("http", e);
+                throw e;
+            }
+        };
+    }
+
+    static String server(URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() > 0 ? ":" + uri.getPort() : "");
+    }
+
+    /**
+     * @return the longest of the configured instance urls the request starts with, scheme, host and port
+     * of the request for servers not configured
+     */
+    static String instance(Collection<String> servers, URI uri) {
+        String url = uri.toString();
+        String instance = null;
+        for (String server : servers == null ? Collections.<String>emptyList() : servers) {
+            String configured = StringUtils.removeEnd(server, "/");
+            boolean prefix = StringUtils.isNotEmpty(configured) && url.startsWith(configured)
+                    && (url.length() == configured.length() || "/?".indexOf(url.charAt(configured.length())) >= 0);
+            if (prefix && (instance == null || configured.length() > instance.length())) {
+                instance = configured;
+            }
+        }
+        return instance != null ? instance : server(uri);
+    }
+
+    /**
+     * The path and the names of the query parameters, their values left out so requests of one endpoint
+     * share a template, e.g. {@code /api/measures/search?projectKeys&metricKeys}
+     */
+    static String uriTemplate(URI uri) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        String query = uri.getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return path;
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (String parameter : query.split("&")) {
+            int value = parameter.indexOf('=');
+            names.add(value < 0 ? parameter : parameter.substring(0, value));
+        }
+        return path + '?' + String.join("&", names);
+    }
+
+    /**
+     * Honour the Keep-Alive header of the server and otherwise keep connections for the configured time.
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long keepAliveTimeout) {
+        return (response, context) -> {
+            long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? serverKeepAlive : keepAliveTimeout;
+        };
     }
 }
@@ -0,0 +1,59 @@
+package com.capitalone.dashboard.collector;
+
+import org.bson.types.ObjectId;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The share of one collector cycle a node takes in sharded collection: the enabled projects whose
+ * ids hash to it among the live nodes, and whether it runs the duties done once per collector.
+ * Without sharding the single node takes every project and every duty.
+ */
+public final class ShardAssignment {
+    public static final ShardAssignment ALL = new ShardAssignment(null, Collections.emptyList(), true, null);
+
+    private final String shard;
+    private final List<String> nodes;
+    private final boolean coordinator;
+    private final ConsistentHashRing ring;
+
+    ShardAssignment(String shard, List<String> nodes, boolean coordinator, ConsistentHashRing ring) {
+        this.shard = shard;
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.coordinator = coordinator;
+        this.ring = ring;
+    }
+
+    /**
+     * @return the node this assignment belongs to, null without sharding
+     */
+    public String getShard() {
+        return shard;
+    }
+
+    /**
+     * @return the live nodes the projects are split across, sorted by name
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Identity of the set of live nodes, it changes whenever a node joins or leaves and projects move
+     */
+    public long getView() {
+        return ring == null ? 0 : nodes.hashCode();
+    }
+
+    /**
+     * @return true if this node runs the cleaning, discovery and deletion of projects for the collector
+     */
+    public boolean isCoordinator() {
+        return coordinator;
+    }
+
+    public boolean owns(ObjectId projectId) {
+        return ring == null || (projectId != null && shard.equals(ring.owner(projectId.toHexString())));
+    }
+}
@@ -0,0 +1,175 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.SonarCollectorLease;
+import com.capitalone.dashboard.repository.SonarCollectorLeaseRepository;
+import io.micrometer.core.instrument.Tags;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Splits the collection across the collector nodes sharing one database when sharding is enabled.
+ * <p>
+ * Every node holds a lease in mongo, renewed by a heartbeat, and a node whose lease expired is dead.
+ * At the start of each cycle a collector task reads the live nodes and takes the enabled projects that
+ * consistent hashing of their ids assigns to its node, so the projects rebalance by themselves when a
+ * node joins or dies. The cleaning, discovery and deletion of projects are run by the one node holding
+ * the coordinator lease of the collector, no two nodes write the same projects.
+ * <p>
+ * Leases expire by the clocks of the nodes, which must agree far better than the lease time.
+ */
+@Component
+public class ShardCoordinator {
+    private static final Log LOG = LogFactory.getLog(ShardCoordinator.class);
+    private static final String NODE_LEASE = "node:";
+    private static final String COORDINATOR_LEASE = "coordinator:";
+    private static final int VIRTUAL_NODES = 128;
+
+    private final SonarSettings settings;
+    private final SonarCollectorLeaseRepository leases;
+    private final LongSupplier clock;
+    private final String nodeId;
+    private final Set<String> heldLeases = ConcurrentHashMap.newKeySet();
+    private final SonarMetrics metrics;
+    private volatile List<String> nodes = new ArrayList<>();
+    private ScheduledExecutorService heartbeats;
+
+    @Autowired
+    public ShardCoordinator(SonarSettings settings, SonarCollectorLeaseRepository leases, SonarMetrics metrics) {
+        this(settings, leases, metrics, System::currentTimeMillis);
+    }
+
+    ShardCoordinator(SonarSettings settings, SonarCollectorLeaseRepository leases, SonarMetrics metrics, LongSupplier clock) {
+        this.settings = settings;
+        this.leases = leases;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.nodeId = StringUtils.isBlank(settings.getNodeId()) ? defaultNodeId() : settings.getNodeId().trim();
+        metrics.gauge("shard.nodes", Tags.empty(), this, coordinator -> coordinator.nodes.size());
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (!settings.isSharded() || heartbeats != null) {
+            return;
+        }
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sonar-shard-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, 0, settings.getHeartbeatInterval(), TimeUnit.MILLISECONDS);
+        LOG.info("Collecting as shard node " + nodeId);
+    }
+
+    /**
+     * Leave the shards, the other nodes take over the projects and duties of this node with their next cycle
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (heartbeats == null) {
+            return;
+        }
+        heartbeats.shutdownNow();
+        heartbeats = null;
+        try {
+            for (String lease : heldLeases) {
+                leases.release(lease, nodeId);
+            }
+            leases.release(NODE_LEASE + nodeId, nodeId);
+        } catch (RuntimeException e) {
+            LOG.warn("Could not release the leases of shard node " + nodeId + ", they expire by themselves", e);
+        }
+        heldLeases.clear();
+    }
+
+    /**
+     * The share of this node in a cycle of the collector, from the nodes alive now
+     *
+     * @param collectorName name of the collector, each collector has a coordinator of its own
+     */
+    public ShardAssignment assignment(String collectorName) {
+        if (!settings.isSharded()) {
+            return ShardAssignment.ALL;
+        }
+        heartbeat();
+        long now = clock.getAsLong();
+        List<String> live = leases.findByNameStartingWithAndExpiresAtGreaterThan(NODE_LEASE, now).stream()
+                .map(SonarCollectorLease::getOwner)
+                .collect(Collectors.toList());
+        // a node whose own heartbeat failed still collects its share as it sees it
+        if (!live.contains(nodeId)) {
+            live.add(nodeId);
+        }
+        List<String> sorted = live.stream().distinct().sorted().collect(Collectors.toList());
+        if (!sorted.equals(nodes)) {
+            LOG.info("Shard nodes " + sorted + ", this node is " + nodeId);
+            nodes = sorted;
+        }
+        boolean coordinator = lease(COORDINATOR_LEASE + collectorName, now);
+        return new ShardAssignment(nodeId, sorted, coordinator, new ConsistentHashRing(sorted, VIRTUAL_NODES));
+    }
+
+    /**
+     * Renew the lease of this node and the coordinator leases it holds, and drop leases long expired
+     */
+    void heartbeat() {
+        long now = clock.getAsLong();
+        try {
+            leases.acquire(NODE_LEASE + nodeId, nodeId, now, now + settings.getLeaseTime());
+            for (String lease : heldLeases) {
+                if (!leases.acquire(lease, nodeId, now, now + settings.getLeaseTime())) {
+                    heldLeases.remove(lease);
+                    LOG.warn("Shard node " + nodeId + " lost the lease " + lease);
+                }
+            }
+            leases.deleteByExpiresAtLessThan(now - settings.getLeaseTime());
+        } catch (RuntimeException e) {
+            LOG.error("Heartbeat of shard node " + nodeId + " failed", e);
+            metrics.error("shard", e);
+        }
+    }
+
+    private boolean lease(String name, long now) {
+        if (leases.acquire(name, nodeId, now, now + settings.getLeaseTime())) {
+            if (heldLeases.add(name)) {
+                LOG.info("Shard node " + nodeId + " took the lease " + name);
+            }
+            return true;
+        }
+        heldLeases.remove(name);
+        return false;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "collector";
+        }
+        return host + '-' + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
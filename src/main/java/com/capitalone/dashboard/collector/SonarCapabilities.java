@@ -0,0 +1,91 @@
+package com.capitalone.dashboard.collector;
+
+import java.math.BigDecimal;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Version of a sonar server and the web api endpoints it offers, as known at the time it was checked.
+ * The endpoints follow from the version they were introduced in.
+ */
+public final class SonarCapabilities {
+    private static final Pattern VERSION = Pattern.compile("(\\d{1,9})(?:\\.(\\d{1,9}))?");
+
+    private final Double version;
+    private final int major;
+    private final int minor;
+    private final boolean measuresSearch;
+    private final boolean analysisActivity;
+    private final long checkedAt;
+
+    private SonarCapabilities(Double version, int major, int minor, long checkedAt) {
+        this.version = version;
+        this.major = major;
+        this.minor = minor;
+        this.checkedAt = checkedAt;
+        // /api/measures/search since 6.2, /api/ce/activity with minSubmittedAt since 5.5
+        this.measuresSearch = isAtLeast(6, 2);
+        this.analysisActivity = isAtLeast(5, 5);
+    }
+
+    public static SonarCapabilities forVersion(Double version) {
+        return forVersion(version, System.currentTimeMillis());
+    }
+
+    public static SonarCapabilities forVersion(Double version, long checkedAt) {
+        if (version == null) {
+            return new SonarCapabilities(null, 0, 0, checkedAt);
+        }
+        return parse(BigDecimal.valueOf(version).toPlainString(), checkedAt);
+    }
+
+    /**
+     * Capabilities of the major and minor version of a version string such as "7.9.1.27448" or "6.7",
+     * or null when the text does not start with a version.
+     */
+    public static SonarCapabilities parse(String text, long checkedAt) {
+        if (text == null) {
+            return null;
+        }
+        Matcher matcher = VERSION.matcher(text.trim());
+        if (!matcher.lookingAt()) {
+            return null;
+        }
+        int major = Integer.parseInt(matcher.group(1));
+        int minor = matcher.group(2) == null ? 0 : Integer.parseInt(matcher.group(2));
+        return new SonarCapabilities(Double.valueOf(major + "." + minor), major, minor, checkedAt);
+    }
+
+    /**
+     * Major and minor version compared as numbers, so 6.10 comes after 6.2.
+     */
+    public boolean isAtLeast(int major, int minor) {
+        return version != null && (this.major > major || this.major == major && this.minor >= minor);
+    }
+
+    /**
+     * Major and minor version as a number, as the client selection expects it. Minor versions
+     * of two digits do not compare as versions here, use {@link #isAtLeast(int, int)} for that.
+     */
+    public Double getVersion() {
+        return version;
+    }
+
+    public boolean hasMeasuresSearch() {
+        return measuresSearch;
+    }
+
+    public boolean hasAnalysisActivity() {
+        return analysisActivity;
+    }
+
+    public long getCheckedAt() {
+        return checkedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "SonarCapabilities{version=" + (version == null ? null : major + "." + minor)
+                + ", measuresSearch=" + measuresSearch + ", analysisActivity=" + analysisActivity + '}';
+    }
+}
@@ -1,28 +1,77 @@
 package com.capitalone.dashboard.collector;
 
 import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.CodeQualityType;
 import com.capitalone.dashboard.model.SonarProject;
 
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import org.json.simple.JSONArray;
 import org.json.simple.parser.ParseException;
 
 public interface SonarClient {
 
-    /** register server credentials before calling getProjects
-     * username and password override token when all arguments are not blank
-     * @param username for subsequent requests to sonarqube
-     * @param password for subsequent requests to sonarqube
-     * @param token for subsequent requests to sonarqube
+    /** bind a client to one sonar server before calling getProjects
+     * the returned client keeps the session credentials for all of its requests
+     * and can be used from several threads at once
+     * @param session server url, version and credentials for subsequent requests to sonarqube
+     * @return a client bound to the given session
      */
-    void setServerCredentials(String username, String password, String token);
+    SonarClient forSession(SonarServerSession session);
     List<SonarProject> getProjects(String instanceUrl);
+
+    /** hand the projects of a server to the consumer page by page as they are fetched
+     * so the caller never has to hold the whole catalogue at once
+     * @param instanceUrl sonar server to read the projects from
+     * @param pageConsumer called once per page, never from two threads at the same time
+     * @return false when a page could not be read and the projects handed on are incomplete
+     */
+    default boolean streamProjects(String instanceUrl, Consumer<List<SonarProject>> pageConsumer) {
+        pageConsumer.accept(getProjects(instanceUrl));
+        return true;
+    }
+
+    /** projects with an analysis completed since the given time, from the compute engine activity feed
+     * @param instanceUrl sonar server to ask
+     * @param since epoch millis, analyses submitted before are not reported
+     * @return the analysed projects, or null when the server cannot tell and every project has to be refreshed
+     */
+    default AnalysisActivity getAnalysisActivity(String instanceUrl, long since) {
+        return null;
+    }
     CodeQuality currentStaticCodeQuality(SonarProject project);
     CodeQuality currentSecurityCodeQuality(SonarProject project);
+
+    /** current code quality of several projects of one server, in as few requests as the server allows
+     * @param projects projects of a single sonar server
+     * @param type selects the static or the security metrics
+     * @param qualityConsumer called for every project that has code quality, possibly from several threads
+     */
+    default void currentCodeQuality(List<SonarProject> projects, CodeQualityType type, BiConsumer<SonarProject, CodeQuality> qualityConsumer) {
+        for (SonarProject project : projects) {
+            CodeQuality codeQuality = type == CodeQualityType.SecurityAnalysis
+                    ? currentSecurityCodeQuality(project) : currentStaticCodeQuality(project);
+            if (codeQuality != null) {
+                qualityConsumer.accept(project, codeQuality);
+            }
+        }
+    }
     JSONArray getQualityProfiles(String instanceUrl) throws ParseException;
     List<String> retrieveProfileAndProjectAssociation(String instanceUrl,String qualityProfile) throws ParseException;
     JSONArray getQualityProfileConfigurationChanges(String instanceUrl,String qualityProfile) throws ParseException;
 
+    /** changes of a quality profile made since the given time, read page by page
+     * servers that cannot filter or page the changelog return all of it
+     * @param instanceUrl sonar server to ask
+     * @param qualityProfile key of the profile
+     * @param since epoch millis, earlier changes are not requested, 0 reads the whole changelog
+     * @return the changes, newest first
+     */
+    default JSONArray getQualityProfileConfigurationChanges(String instanceUrl, String qualityProfile, long since) throws ParseException {
+        return getQualityProfileConfigurationChanges(instanceUrl, qualityProfile);
+    }
+
 
 }
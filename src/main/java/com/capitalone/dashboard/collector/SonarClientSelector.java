@@ -2,20 +2,28 @@ package com.capitalone.dashboard.collector;
 
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestOperations;
 
+import com.capitalone.dashboard.util.ParallelExecutor;
 import com.capitalone.dashboard.util.Supplier;
 
 @Component
@@ -23,40 +31,103 @@ public class SonarClientSelector {
 	private static final Log LOG = LogFactory.getLog(SonarClientSelector.class);
 
 	private static final String URL_VERSION_RESOURCE = "/api/server/version";
+	private static final Double DEFAULT_VERSION = 5.0;
 
     private DefaultSonar6Client sonar6Client;
     private DefaultSonar56Client sonar56Client;
     private DefaultSonarClient sonarClient;
     private RestOperations rest;
+    private SonarSettings settings;
+    private SonarMetrics metrics;
+    private ResponseCache responseCache;
+    private final Map<String, SonarCapabilities> capabilities = new ConcurrentHashMap<>();
     
     @Autowired
     public SonarClientSelector(
     		DefaultSonar6Client sonar6Client, DefaultSonar56Client sonar56Client,
             @Qualifier("DefaultSonarClient") DefaultSonarClient sonarClient,
-            Supplier<RestOperations> restOperationsSupplier) {
+            Supplier<RestOperations> restOperationsSupplier, SonarSettings settings, SonarMetrics metrics,
+            ResponseCache responseCache) {
 
         this.sonar6Client = sonar6Client;
         this.sonar56Client = sonar56Client;
         this.sonarClient = sonarClient;
         this.rest = restOperationsSupplier.get();
+        this.settings = settings;
+        this.metrics = metrics;
+        this.responseCache = responseCache;
     }
-    
+
+    /**
+     * Capabilities of the server, checked again once they are older than the capability time to live.
+     * When the server cannot tell its version the last known capabilities are kept, a server never
+     * checked successfully is treated as version 5.0 until the next check.
+     */
+    public SonarCapabilities getCapabilities(String instanceUrl) {
+        long now = System.currentTimeMillis();
+        SonarCapabilities known = capabilities.get(instanceUrl);
+        if (known != null && now - known.getCheckedAt() < settings.getCapabilityTtl()) {
+            return known;
+        }
+        SonarCapabilities checked = metrics.time(SonarMetrics.ALL, SonarMetrics.PHASE_VERSION, instanceUrl, () -> fetchVersion(instanceUrl, now));
+        if (checked != null) {
+            capabilities.put(instanceUrl, checked);
+            LOG.info(instanceUrl + " " + checked);
+            return checked;
+        }
+        if (known != null) {
+            LOG.info("Keeping sonar version " + known.getVersion() + " of " + instanceUrl);
+            return known;
+        }
+        return SonarCapabilities.forVersion(DEFAULT_VERSION, now);
+    }
+
     public Double getSonarVersion(String instanceUrl){
-    	Double version = 5.0;
+        return getCapabilities(instanceUrl).getVersion();
+    }
+
+    /**
+     * Check the capabilities of all servers at the same time
+     */
+    public void warmUp(Collection<String> servers) {
+        if (servers == null || servers.isEmpty()) {
+            return;
+        }
+        ParallelExecutor.forEach(servers, servers.size(), "sonar-capabilities", this::getCapabilities);
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void warmUpConfiguredServers() {
+        List<String> servers = new ArrayList<>(settings.getServers());
+        // off the startup thread, an unreachable server must not hold up the application
+        Thread warmUp = new Thread(() -> warmUp(servers), "sonar-capabilities-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    /**
+     * The version answer is cached by the {@link ResponseCache} as well, so a restart with a cache directory
+     * does not have to ask every server again
+     */
+    private SonarCapabilities fetchVersion(String instanceUrl, long now) {
     	try {
-    	    ResponseEntity<String> versionResponse = rest.exchange(URI.create(instanceUrl + URL_VERSION_RESOURCE), HttpMethod.GET, new HttpEntity<>(new HttpHeaders()), String.class);
-    	    if(!versionResponse.getBody().isEmpty()) {
-    	        if(StringUtils.countOccurrencesOf(versionResponse.getBody(), ".") > 1) {
-    	            version = Double.parseDouble(versionResponse.getBody().substring(0, 3));
-    	        } else {
-    	            version = Double.parseDouble(versionResponse.getBody());
-    	        }
-    	    }    
+    	    String url = instanceUrl + URL_VERSION_RESOURCE;
+    	    byte[] body = responseCache.get(ResponseCache.VERSION, url, null, () -> {
+    	        ResponseEntity<String> versionResponse = rest.exchange(URI.create(url), HttpMethod.GET, new HttpEntity<>(new HttpHeaders()), String.class);
+    	        return versionResponse.getBody() == null ? null : versionResponse.getBody().getBytes(StandardCharsets.UTF_8);
+    	    });
+    	    String text = body == null ? null : new String(body, StandardCharsets.UTF_8);
+    	    SonarCapabilities version = SonarCapabilities.parse(text, now);
+    	    if (version == null) {
+    	        LOG.info("Unrecognised sonar version '" + text + "' of " + instanceUrl);
+    	        responseCache.evict(ResponseCache.VERSION, url, null);
+    	    }
+    	    return version;
     	} catch (RestClientException e) {
     		LOG.info("Rest exception occured at fetching sonar version");
+    		metrics.error(SonarMetrics.PHASE_VERSION, e);
+    		return null;
     	}
-  
-        return version;
     }
 
     public SonarClient getSonarClient(Double version) {
@@ -2,33 +2,145 @@ package com.capitalone.dashboard.collector;
 
 import com.capitalone.dashboard.model.*;
 import com.capitalone.dashboard.repository.*;
+import com.capitalone.dashboard.util.ParallelExecutor;
+import io.micrometer.core.instrument.Tags;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.bson.types.ObjectId;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.springframework.scheduling.TaskScheduler;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.StreamSupport;
 
 public abstract class SonarCollectorTask<T extends Collector> extends CollectorTask<T> {
+    private static final Log LOG = LogFactory.getLog(SonarCollectorTask.class);
+
     protected final SonarProjectRepository sonarProjectRepository;
     protected final CodeQualityRepository codeQualityRepository;
-    protected final SonarProfileRepostory sonarProfileRepostory;
     protected final ComponentRepository dbComponentRepository;
-
-    public SonarCollectorTask(TaskScheduler taskScheduler, String collectorName, SonarProjectRepository sonarProjectRepository, CodeQualityRepository codeQualityRepository, SonarProfileRepostory sonarProfileRepostory, ComponentRepository dbComponentRepository) {
+    protected final SonarRefreshMarkRepository refreshMarkRepository;
+    protected final DiscoverySnapshots discoverySnapshots;
+    protected final SonarMetrics metrics;
+    protected final ShardCoordinator shards;
+    protected final SonarSettings sonarSettings;
+    protected final SonarClientSelector sonarClientSelector;
+    // projects and duties of this node in the current cycle
+    private volatile ShardAssignment assignment = ShardAssignment.ALL;
+    // collector tag of the metrics of this task
+    protected final String metricsCollector;
+    // latest code quality timestamps of this collector's items, kept across cycles
+    protected final QualityTimestampCache qualityTimestamps = new QualityTimestampCache(MAX_CACHED_TIMESTAMPS);
+
+    private static final int MAX_CACHED_TIMESTAMPS = 100000;
+
+    public SonarCollectorTask(TaskScheduler taskScheduler, String collectorName, SonarProjectRepository sonarProjectRepository, CodeQualityRepository codeQualityRepository, ComponentRepository dbComponentRepository, SonarRefreshMarkRepository refreshMarkRepository, DiscoverySnapshots discoverySnapshots, SonarMetrics metrics, ShardCoordinator shards, SonarSettings sonarSettings, SonarClientSelector sonarClientSelector) {
         super(taskScheduler, collectorName);
         this.sonarProjectRepository = sonarProjectRepository;
         this.codeQualityRepository = codeQualityRepository;
-        this.sonarProfileRepostory = sonarProfileRepostory;
         this.dbComponentRepository = dbComponentRepository;
+        this.refreshMarkRepository = refreshMarkRepository;
+        this.discoverySnapshots = discoverySnapshots;
+        this.metrics = metrics;
+        this.shards = shards;
+        this.sonarSettings = sonarSettings;
+        this.sonarClientSelector = sonarClientSelector;
+        this.metricsCollector = collectorName;
+        metrics.gauge("quality.timestamps.cached", Tags.of("collector", collectorName), qualityTimestamps, QualityTimestampCache::size);
+    }
+
+    @Override
+    public void collect(T collector) {
+        long start = System.currentTimeMillis();
+        // in sharded collection the other nodes only refresh their share of the enabled projects
+        boolean coordinator = joinShards(collector);
+
+        Set<ObjectId> udId = new HashSet<>();
+        udId.add(collector.getId());
+        List<SonarProject> existingProjects = coordinator ? sonarProjectRepository.findByCollectorIdIn(udId) : Collections.emptyList();
+        Set<String> latestProjectKeys = ConcurrentHashMap.newKeySet();
+        Set<String> incompleteServers = ConcurrentHashMap.newKeySet();
+        if (coordinator) {
+            clean(collector, existingProjects, getCollectorType());
+        }
+
+        Map<String, List<SonarProject>> existingByKey = indexByProjectKey(existingProjects);
+
+        List<String> servers = getSonarServers(collector);
+        if (!CollectionUtils.isEmpty(servers)) {
+            List<Integer> serverIndexes = IntStream.range(0, servers.size()).boxed().collect(Collectors.toList());
+            int serverConcurrency = sonarSettings.getServerConcurrency() > 0 ? sonarSettings.getServerConcurrency() : servers.size();
+
+            ParallelExecutor.forEach(serverIndexes, serverConcurrency, "sonar-server",
+                    i -> collectServer(collector, servers.get(i), i, existingByKey, latestProjectKeys, incompleteServers, coordinator, start));
+        }
+        if (coordinator) {
+            deleteUnwantedJobs(latestProjectKeys, incompleteServers, existingProjects, collector);
+        }
+    }
+
+    private void collectServer(T collector, String instanceUrl, int serverIndex, Map<String, List<SonarProject>> existingProjects,
+                               Set<String> latestProjectKeys, Set<String> incompleteServers, boolean coordinator, long start) {
+        logBanner(instanceUrl);
+
+        SonarCapabilities capabilities = sonarClientSelector.getCapabilities(instanceUrl);
+        Double version = capabilities.getVersion();
+        String username = getFromListSafely(sonarSettings.getUsernames(), serverIndex);
+        String password = getFromListSafely(sonarSettings.getPasswords(), serverIndex);
+        String token = getFromListSafely(sonarSettings.getTokens(), serverIndex);
+        SonarServerSession session = new SonarServerSession(instanceUrl, capabilities, username, password, token);
+        SonarClient sonarClient = sonarClientSelector.getSonarClient(version).forSession(session);
+
+        if (coordinator) {
+            int projSize = discoverProjects(sonarClient, instanceUrl, sonarSettings,
+                    existingProjects, latestProjectKeys, incompleteServers, collector);
+            log("Fetched projects   " + projSize, start);
+        }
+
+        CodeQualityType codeQualityType = getCodeQualityType();
+        refreshServer(sonarClient, collector, instanceUrl, sonarSettings,
+                (projects, qualityConsumer) -> sonarClient.currentCodeQuality(projects, codeQualityType, qualityConsumer));
+
+        log("Finished", start);
+    }
+
+    private void deleteUnwantedJobs(Set<String> latestProjectKeys, Set<String> incompleteServers, List<SonarProject> existingProjects, T collector) {
+        List<SonarProject> deleteJobList = new ArrayList<>();
+        List<SonarProject> enabledJobList = new ArrayList<>();
+        Set<String> servers = new HashSet<>(getSonarServers(collector));
+
+        // First delete collector items that are not supposed to be collected anymore because the servers have moved(?)
+        for (SonarProject job : existingProjects) {
+            if (job.isPushed()) continue; // do not delete jobs that are being pushed via API
+            if (incompleteServers.contains(job.getInstanceUrl())) continue; // not all projects of the server were read
+            if (!servers.contains(job.getInstanceUrl()) ||
+                    (!job.getCollectorId().equals(collector.getId())) ||
+                    (!latestProjectKeys.contains(projectKey(job)))) {
+                if(!job.isEnabled()) {
+                    LOG.debug("drop deleted sonar project which is disabled "+job.getProjectName());
+                    deleteJobList.add(job);
+                } else {
+                    LOG.debug("drop deleted sonar project which is enabled "+job.getProjectName());
+                    enabledJobList.add(job);
+
+                    // other collectors also delete the widget but not here
+                    // should not remove the code analysis widget
+                    // because it is shared by other collectors
+
+                    deleteJobList.add(job);
+                }
+            }
+        }
+        deleteEnabledJobsFromComponents(enabledJobList, CollectorType.CodeQuality);
+        if (!CollectionUtils.isEmpty(deleteJobList)) {
+            sonarProjectRepository.delete(deleteJobList);
+        }
     }
 
     protected String getFromListSafely(List<String> ls, int index){
@@ -48,114 +160,164 @@ public abstract class SonarCollectorTask<T extends Collector> extends CollectorT
 	 *            the {@link Collector}
 	 */
     protected void clean(T collector, List<SonarProject> existingProjects, CollectorType collectorType) {
-        // extract unique collector item IDs from components
+        metrics.record(metricsCollector, SonarMetrics.PHASE_CLEAN, SonarMetrics.ALL,
+                () -> cleanItems(collector, existingProjects, collectorType));
+    }
+
+    private void cleanItems(T collector, List<SonarProject> existingProjects, CollectorType collectorType) {
+        // collector item IDs referenced by components, read with a projection of the matching components only
         // (in this context collector_items are sonar projects)
-        Set<ObjectId> uniqueIDs = StreamSupport.stream(dbComponentRepository.findAll().spliterator(),false)
-            .filter( comp -> comp.getCollectorItems() != null && !comp.getCollectorItems().isEmpty())
-            .map(comp -> comp.getCollectorItems().get(collectorType))
-            // keep nonNull List<CollectorItem>
-            .filter(Objects::nonNull)
-            // merge all lists (flatten) into a stream
-            .flatMap(List::stream)
-            // keep nonNull CollectorItems
-            .filter(ci -> ci != null && ci.getCollectorId().equals(collector.getId()))
-            .map(CollectorItem::getId)
-            .collect(Collectors.toSet());
-
-        List<SonarProject> stateChangeJobList = new ArrayList<>();
+        Set<ObjectId> uniqueIDs = sonarProjectRepository.findReferencedItemIds(collector.getId(), collectorType);
+
+        List<ObjectId> enableIds = new ArrayList<>();
+        List<ObjectId> disableIds = new ArrayList<>();
 
         for (SonarProject job : existingProjects) {
             // collect the jobs that need to change state : enabled vs disabled.
             if ((job.isEnabled() && !uniqueIDs.contains(job.getId())) ||  // if it was enabled but not on a dashboard
                     (!job.isEnabled() && uniqueIDs.contains(job.getId()))) { // OR it was disabled and now on a dashboard
                 job.setEnabled(uniqueIDs.contains(job.getId()));
-                stateChangeJobList.add(job);
+                if (job.isEnabled()) {
+                    enableIds.add(job.getId());
+                } else {
+                    disableIds.add(job.getId());
+                }
             }
         }
-        if (!CollectionUtils.isEmpty(stateChangeJobList)) {
-            sonarProjectRepository.save(stateChangeJobList);
+        if (!CollectionUtils.isEmpty(enableIds)) {
+            sonarProjectRepository.updateEnabled(enableIds, true);
+        }
+        if (!CollectionUtils.isEmpty(disableIds)) {
+            sonarProjectRepository.updateEnabled(disableIds, false);
         }
     }
 
-    protected void deleteEnabledJobFromComponents(SonarProject job, CollectorType collectorType) {
+    /**
+     * Remove the collector items of the jobs from every component in bulk
+     */
+    protected void deleteEnabledJobsFromComponents(List<SonarProject> jobs, CollectorType collectorType) {
         // CollectorItem should be removed from components and dashboards first
         // then the CollectorItem (sonar proj in this case) can be deleted
-
-        List<Component> comps =
-                dbComponentRepository
-            .findByCollectorTypeAndItemIdIn(collectorType, Collections.singletonList(job.getId()));
-
-        for (Component c: comps) {
-            c.getCollectorItems().get(collectorType).removeIf(collectorItem -> collectorItem.getId().equals(job.getId()));
-            if(CollectionUtils.isEmpty(c.getCollectorItems().get(collectorType))){
-                c.getCollectorItems().remove(collectorType);
-            }
+        if (!CollectionUtils.isEmpty(jobs)) {
+            sonarProjectRepository.detachFromComponents(collectorType,
+                    jobs.stream().map(SonarProject::getId).collect(Collectors.toList()));
         }
-        dbComponentRepository.save(comps);
     }
 
-    protected void fetchQualityProfileConfigChanges(T collector, String instanceUrl, SonarClient sonarClient) throws org.json.simple.parser.ParseException{
-    	JSONArray qualityProfiles = sonarClient.getQualityProfiles(instanceUrl);
-    	JSONArray sonarProfileConfigurationChanges = new JSONArray();
-
-    	for (Object qualityProfile : qualityProfiles ) {
-    		JSONObject qualityProfileJson = (JSONObject) qualityProfile;
-    		String qualityProfileKey = (String)qualityProfileJson.get("key");
-
-    		List<String> sonarProjects = sonarClient.retrieveProfileAndProjectAssociation(instanceUrl,qualityProfileKey);
-    		if (sonarProjects != null){
-    			sonarProfileConfigurationChanges = sonarClient.getQualityProfileConfigurationChanges(instanceUrl,qualityProfileKey);
-    			addNewConfigurationChanges(collector,sonarProfileConfigurationChanges);
-    		}
-    	}
+    /**
+     * Take the share of this node in the cycle that starts, all of it unless collection is sharded.
+     * When the live nodes changed, the cached timestamps of the projects that moved to or from this node
+     * are dropped, another node may have stored newer code quality for them meanwhile. The coordinator
+     * deletes the refresh marks of the nodes that left.
+     *
+     * @return true if this node cleans, discovers and deletes the projects of the collector in this cycle
+     */
+    protected boolean joinShards(T collector) {
+        ShardAssignment previous = assignment;
+        ShardAssignment next = shards.assignment(metricsCollector);
+        if (next.getView() != previous.getView()) {
+            qualityTimestamps.removeIf(id -> previous.owns(id) != next.owns(id));
+        }
+        if (next.isCoordinator() && next.getShard() != null) {
+            refreshMarkRepository.deleteByCollectorIdAndShardNotIn(collector.getId(), next.getNodes());
+        }
+        assignment = next;
+        return next.isCoordinator();
     }
 
-    private void addNewConfigurationChanges(T collector, JSONArray sonarProfileConfigurationChanges){
-    	ArrayList<CollectorItemConfigHistory> profileConfigChanges = new ArrayList<>();
-
-    	for (Object configChange : sonarProfileConfigurationChanges) {
-    		JSONObject configChangeJson = (JSONObject) configChange;
-    		CollectorItemConfigHistory profileConfigChange = new CollectorItemConfigHistory();
-    		Map<String,Object> changeMap = new HashMap<>();
-
-    		profileConfigChange.setCollectorItemId(collector.getId());
-    		profileConfigChange.setUserName((String) configChangeJson.get("authorName"));
-    		profileConfigChange.setUserID((String) configChangeJson.get("authorLogin") );
-    		changeMap.put("event", configChangeJson);
-
-    		profileConfigChange.setChangeMap(changeMap);
-
-    		ConfigHistOperationType operation = determineConfigChangeOperationType((String)configChangeJson.get("action"));
-    		profileConfigChange.setOperation(operation);
+    /**
+     * Enabled projects of the server this node refreshes in the current cycle
+     */
+    protected List<SonarProject> enabledProjects(T collector, String instanceUrl) {
+        List<SonarProject> projects = sonarProjectRepository.findEnabledProjects(collector.getId(), instanceUrl);
+        ShardAssignment shard = assignment;
+        if (shard.getShard() == null) {
+            return projects;
+        }
+        return projects.stream().filter(project -> shard.owns(project.getId())).collect(Collectors.toList());
+    }
 
+    /**
+     * Store the projects a sonar server reports and remember their keys for the delete pass.
+     * When streaming, every page is stored as it arrives instead of after the whole catalogue is read.
+     * A server the other collector task discovered moments ago is taken from its snapshot instead.
+     *
+     * @param incompleteServers gets the server when some of its projects could not be read, the delete
+     *                          pass must not take its missing projects for removed ones
+     * @return number of projects the server reported
+     */
+    protected int discoverProjects(SonarClient sonarClient, String instanceUrl, SonarSettings sonarSettings,
+                                   Map<String, List<SonarProject>> existingProjects, Set<String> latestProjectKeys,
+                                   Set<String> incompleteServers, T collector) {
+        int discovered = metrics.time(metricsCollector, SonarMetrics.PHASE_DISCOVERY, instanceUrl,
+                () -> discover(sonarClient, instanceUrl, sonarSettings, existingProjects, latestProjectKeys, incompleteServers, collector));
+        metrics.count("projects.discovered", metricsCollector, instanceUrl, discovered);
+        return discovered;
+    }
 
-    		long timestamp = convertToTimestamp((String) configChangeJson.get("date"));
-    		profileConfigChange.setTimestamp(timestamp);
+    private int discover(SonarClient sonarClient, String instanceUrl, SonarSettings sonarSettings,
+                         Map<String, List<SonarProject>> existingProjects, Set<String> latestProjectKeys,
+                         Set<String> incompleteServers, T collector) {
+        AtomicInteger count = new AtomicInteger();
+        Consumer<List<SonarProject>> reconcile = projects -> {
+            projects.forEach(project -> latestProjectKeys.add(projectKey(project)));
+            count.addAndGet(projects.size());
+            addNewProjects(projects, existingProjects, collector);
+        };
+        if (discoverySnapshots.replay(instanceUrl, collector.getId(), sonarSettings.getDiscoverySnapshotTtl(), reconcile)) {
+            return count.get();
+        }
+        if (sonarSettings.isStreamingDiscovery()) {
+            DiscoverySnapshots.Recording recording = discoverySnapshots.record(instanceUrl, collector.getId());
+            boolean complete = sonarClient.streamProjects(instanceUrl, projects -> {
+                recording.add(projects);
+                reconcile.accept(projects);
+            });
+            // a discovery that failed part way is not served to the other task as the whole server
+            if (complete) {
+                recording.finish();
+            } else {
+                incompleteServers.add(instanceUrl);
+            }
+        } else {
+            // the list does not tell whether every project was read, so it is not shared
+            reconcile.accept(sonarClient.getProjects(instanceUrl));
+        }
+        return count.get();
+    }
 
-    		if (isNewConfig(collector.getId(),(String) configChangeJson.get("authorLogin"),operation,timestamp)) {
-    			profileConfigChanges.add(profileConfigChange);
-    		}
-    	}
-    	sonarProfileRepostory.save(profileConfigChanges);
+    /**
+     * Identity of a project within the collector, matching {@link SonarProject#equals(Object)}
+     */
+    protected static String projectKey(SonarProject project) {
+        return project.getInstanceUrl() + '\n' + project.getProjectName();
     }
 
-    private Boolean isNewConfig(ObjectId collectorId, String authorLogin, ConfigHistOperationType operation, long timestamp) {
-    	List<CollectorItemConfigHistory> storedConfigs = sonarProfileRepostory.findProfileConfigChanges(collectorId, authorLogin,operation,timestamp);
-    	return storedConfigs.isEmpty();
+    /**
+     * Existing projects grouped by {@link #projectKey(SonarProject)}, so each discovered project is matched in constant time
+     */
+    protected static Map<String, List<SonarProject>> indexByProjectKey(Collection<SonarProject> projects) {
+        Map<String, List<SonarProject>> index = new HashMap<>(projects.size() * 2);
+        for (SonarProject project : projects) {
+            index.computeIfAbsent(projectKey(project), key -> new ArrayList<>(1)).add(project);
+        }
+        return index;
     }
 
-    protected List<SonarProject> enabledProjects(T collector, String instanceUrl) {
-        return sonarProjectRepository.findEnabledProjects(collector.getId(), instanceUrl);
+    protected void addNewProjects(List<SonarProject> projects, Map<String, List<SonarProject>> existingProjects, T collector) {
+        metrics.record(metricsCollector, SonarMetrics.PHASE_ADD_PROJECTS, serverOf(projects),
+                () -> addProjects(projects, existingProjects, collector));
     }
 
-    protected void addNewProjects(List<SonarProject> projects, List<SonarProject> existingProjects, T collector) {
+    private void addProjects(List<SonarProject> projects, Map<String, List<SonarProject>> existingProjects, T collector) {
         long start = System.currentTimeMillis();
         int count = 0;
         List<SonarProject> newProjects = new ArrayList<>();
         List<SonarProject> updateProjects = new ArrayList<>();
         for (SonarProject project : projects) {
             String niceName = getNiceName(project,collector);
-            if (!existingProjects.contains(project)) {
+            List<SonarProject> matches = existingProjects.get(projectKey(project));
+            if (matches == null) {
                 project.setCollectorId(collector.getId());
                 project.setEnabled(false);
                 project.setDescription(project.getProjectName());
@@ -163,16 +325,15 @@ public abstract class SonarCollectorTask<T extends Collector> extends CollectorT
                 newProjects.add(project);
                 count++;
             }else{
-                if(CollectionUtils.isNotEmpty(existingProjects)){
-                    int[] indexes = IntStream.range(0,existingProjects.size()).filter(i-> existingProjects.get(i).equals(project)).toArray();
-                    for (int index :indexes) {
-                        SonarProject s = existingProjects.get(index);
-                        s.setProjectId(project.getProjectId());
-                        if(StringUtils.isEmpty(s.getNiceName())){
-                            s.setNiceName(niceName);
-                        }
-                        updateProjects.add(s);
+                for (SonarProject s : matches) {
+                    s.setProjectId(project.getProjectId());
+                    if (project.getProjectKey() != null) {
+                        s.setProjectKey(project.getProjectKey());
+                    }
+                    if(StringUtils.isEmpty(s.getNiceName())){
+                        s.setNiceName(niceName);
                     }
+                    updateProjects.add(s);
                 }
             }
         }
@@ -184,39 +345,169 @@ public abstract class SonarCollectorTask<T extends Collector> extends CollectorT
             sonarProjectRepository.save(updateProjects);
         }
         log("New projects", start, count);
+        metrics.count("projects.added", metricsCollector, serverOf(projects), count);
+    }
+
+    /**
+     * Refresh the enabled projects of one sonar server. In incremental mode only the projects with an
+     * analysis since the last check, and the ones never collected, are refreshed. Every project is refreshed
+     * when the full refresh interval has passed, the server cannot report its analyses or, in sharded
+     * collection, projects moved between the nodes since the last check.
+     *
+     * @param qualityFetcher client call fetching the current {@link CodeQuality} of a batch of projects
+     */
+    protected void refreshServer(SonarClient sonarClient, T collector, String instanceUrl, SonarSettings settings, CodeQualityFetcher qualityFetcher) {
+        metrics.record(metricsCollector, SonarMetrics.PHASE_REFRESH, instanceUrl,
+                () -> refreshProjects(sonarClient, collector, instanceUrl, settings, qualityFetcher));
+    }
+
+    private void refreshProjects(SonarClient sonarClient, T collector, String instanceUrl, SonarSettings settings, CodeQualityFetcher qualityFetcher) {
+        ShardAssignment shard = assignment;
+        List<SonarProject> enabledProjects = enabledProjects(collector, instanceUrl);
+        if (!settings.isIncrementalRefresh()) {
+            refreshData(enabledProjects, settings, qualityFetcher);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        SonarRefreshMark mark = refreshMarkRepository.findByCollectorIdAndInstanceUrlAndShard(collector.getId(), instanceUrl, shard.getShard());
+        if (mark == null) {
+            mark = new SonarRefreshMark(collector.getId(), instanceUrl, shard.getShard());
+        }
+
+        AnalysisActivity activity = null;
+        if (start - mark.getLastFullRefresh() < settings.getFullRefreshInterval() && mark.getShardView() == shard.getView()) {
+            // look back a little to cover reports that were still queued and clock differences with the server
+            long since = Math.max(0, mark.getLastAnalysisCheck() - settings.getActivityLookback());
+            activity = sonarClient.getAnalysisActivity(instanceUrl, since);
+        }
+
+        if (activity == null) {
+            refreshData(enabledProjects, settings, qualityFetcher);
+            mark.setLastFullRefresh(start);
+        } else {
+            AnalysisActivity analysed = activity;
+            List<SonarProject> changedProjects = enabledProjects.stream()
+                    .filter(project -> project.getLastUpdated() == 0 || analysed.includes(project))
+                    .collect(Collectors.toList());
+            log("Analysed projects  " + changedProjects.size() + " of " + enabledProjects.size(), start);
+            refreshData(changedProjects, settings, qualityFetcher);
+        }
+        mark.setLastAnalysisCheck(start);
+        mark.setShardView(shard.getView());
+        refreshMarkRepository.save(mark);
+    }
+
+    /**
+     * Fetch the current code quality of every project and store the ones that are new. The
+     * lastUpdated of the projects and their code quality are written in bulk by a {@link RefreshWriter}.
+     *
+     * @param sonarProjects enabled projects of a single sonar server
+     * @param settings refresh concurrency, batch size handed to the client and write batching
+     * @param qualityFetcher client call fetching the current {@link CodeQuality} of a batch of projects
+     */
+    protected void refreshData(List<SonarProject> sonarProjects, SonarSettings settings, CodeQualityFetcher qualityFetcher) {
+        long start = System.currentTimeMillis();
+        AtomicInteger count = new AtomicInteger();
+        prefetchQualityTimestamps(sonarProjects);
+
+        // batches no larger than needed to keep every thread busy
+        int concurrency = settings.getRefreshConcurrency();
+        int size = Math.max(1, Math.min(settings.getMeasuresBatchSize(), (int) Math.ceil((double) sonarProjects.size() / Math.max(1, concurrency))));
+        List<List<SonarProject>> batches = new ArrayList<>();
+        for (int from = 0; from < sonarProjects.size(); from += size) {
+            batches.add(sonarProjects.subList(from, Math.min(sonarProjects.size(), from + size)));
+        }
+
+        // cached only once written, a failed write is fetched and stored again next time
+        try (RefreshWriter writer = new RefreshWriter(sonarProjectRepository, settings.getWriteBatchSize(), settings.getWriteFlushInterval(),
+                written -> written.forEach(codeQuality -> qualityTimestamps.put(codeQuality.getCollectorItemId(), codeQuality.getTimestamp())))) {
+            ParallelExecutor.forEach(batches, concurrency, "sonar-refresh", batch -> qualityFetcher.fetch(batch, (project, codeQuality) -> {
+                if (isNewQualityData(project, codeQuality)) {
+                    project.setLastUpdated(System.currentTimeMillis());
+                    codeQuality.setCollectorItemId(project.getId());
+                    writer.add(project, codeQuality);
+                    count.incrementAndGet();
+                }
+            }));
+        }
+        log("Updated", start, count.get());
+        metrics.count("projects.refreshed", metricsCollector, serverOf(sonarProjects), count.get());
+    }
+
+    /**
+     * Server tag of projects that all come from one sonar server
+     */
+    private static String serverOf(List<SonarProject> projects) {
+        return projects.isEmpty() || projects.get(0).getInstanceUrl() == null ? SonarMetrics.ALL : projects.get(0).getInstanceUrl();
     }
 
+    /**
+     * Load the latest code quality timestamp of every project not cached yet with a single query
+     */
+    protected void prefetchQualityTimestamps(List<SonarProject> sonarProjects) {
+        Set<ObjectId> missing = sonarProjects.stream()
+                .map(SonarProject::getId)
+                .filter(id -> id != null && !qualityTimestamps.contains(id))
+                .collect(Collectors.toSet());
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<ObjectId, Long> latest = sonarProjectRepository.findLatestQualityTimestamps(missing);
+        for (ObjectId id : missing) {
+            Long timestamp = latest.get(id);
+            qualityTimestamps.put(id, timestamp == null ? QualityTimestampCache.NONE : timestamp);
+        }
+    }
+
+    /**
+     * Sonar servers the collector reads, in the order of the configured credentials
+     */
+    protected abstract List<String> getSonarServers(T collector);
+
+    /**
+     * Type of the collector items of the task on dashboard components
+     */
+    protected abstract CollectorType getCollectorType();
+
+    /**
+     * Type of the code quality the task reads from the servers
+     */
+    protected abstract CodeQualityType getCodeQualityType();
+
     protected abstract String getNiceName(SonarProject project, T sonarCollector);
 
+    /**
+     * Client call handing the current {@link CodeQuality} of each project of a batch that has one to the consumer
+     */
+    @FunctionalInterface
+    protected interface CodeQualityFetcher {
+        void fetch(List<SonarProject> projects, BiConsumer<SonarProject, CodeQuality> qualityConsumer);
+    }
+
     @SuppressWarnings("unused")
 	private boolean isNewProject(T collector, SonarProject application) {
         return sonarProjectRepository.findSonarProject(
                 collector.getId(), application.getInstanceUrl(), application.getProjectId()) == null;
     }
 
+    /**
+     * New when no code quality of the same timestamp is stored. The latest stored timestamp answers
+     * for itself and, outside sharded collection, for more recent code quality; any other timestamp,
+     * an older analysis included, is looked up. In sharded collection another node may have stored
+     * the more recent one while the project was its own.
+     */
     protected boolean isNewQualityData(SonarProject project, CodeQuality codeQuality) {
+        Long latest = project.getId() == null ? null : qualityTimestamps.get(project.getId());
+        if (latest != null) {
+            if (codeQuality.getTimestamp() == latest) {
+                return false;
+            }
+            if (codeQuality.getTimestamp() > latest && assignment.getShard() == null) {
+                return true;
+            }
+        }
         return codeQualityRepository.findByCollectorItemIdAndTimestamp(
                 project.getId(), codeQuality.getTimestamp()) == null;
     }
-
-    private long convertToTimestamp(String date) {
-
-    	DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZ");
-    	DateTime dt = formatter.parseDateTime(date);
-
-        return new DateTime(dt).getMillis();
-    }
-
-    private ConfigHistOperationType determineConfigChangeOperationType(String changeAction){
-    	switch (changeAction) {
-
-	    	case "DEACTIVATED":
-	    		return ConfigHistOperationType.DELETED;
-
-	    	case "ACTIVATED":
-	    		return ConfigHistOperationType.CREATED;
-	    	default:
-	    		return ConfigHistOperationType.CHANGED;
-    	}
-    }
 }
@@ -0,0 +1,50 @@
+package com.capitalone.dashboard.collector;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * The date format of the sonar web api, held by one thread-safe formatter instead of a
+ * {@link java.text.SimpleDateFormat} built for every date.
+ */
+final class SonarDates {
+    private static final Log LOG = LogFactory.getLog(SonarDates.class);
+
+    static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormat.forPattern(DATE_FORMAT);
+    private static final DateTimeFormatter UTC_FORMATTER = FORMATTER.withZoneUTC();
+
+    private SonarDates() {
+    }
+
+    /**
+     * @return epoch millis of the date
+     * @throws IllegalArgumentException when the date is not in the sonar format
+     */
+    static long parse(String date) {
+        return FORMATTER.parseMillis(date);
+    }
+
+    /**
+     * @return epoch millis of the date, 0 when there is none or it is not in the sonar format
+     */
+    static long timestamp(String date) {
+        if (date != null) {
+            try {
+                return parse(date);
+            } catch (IllegalArgumentException e) {
+                LOG.error(date + " is not in expected format " + DATE_FORMAT, e);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the instant in UTC in the sonar format, as request parameters expect it
+     */
+    static String format(long millis) {
+        return UTC_FORMATTER.print(millis);
+    }
+}
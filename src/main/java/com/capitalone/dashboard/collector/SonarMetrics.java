@@ -0,0 +1,159 @@
+package com.capitalone.dashboard.collector;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Timers, counters and gauges of the collection phases, the sonar requests and the repository calls,
+ * kept in one registry that the {@link MetricsEndpoint} serves for scraping.
+ * <p>
+ * Phases are tagged with the collector and the sonar server, requests with the server and the url
+ * template (the path and the names of the query parameters), so a slow server or phase stands out.
+ * Failures are counted by phase and exception type.
+ */
+@Component
+public class SonarMetrics {
+    public static final String PHASE_VERSION = "version";
+    public static final String PHASE_DISCOVERY = "discovery";
+    public static final String PHASE_CLEAN = "clean";
+    public static final String PHASE_ADD_PROJECTS = "addNewProjects";
+    public static final String PHASE_REFRESH = "refresh";
+    public static final String PHASE_CHANGELOG = "changelog";
+    public static final String ALL = "all"; // tag value of phases not bound to one collector or server
+
+    private static final String PHASE_TIMER = "sonar.phase";
+    private static final String REQUEST_TIMER = "sonar.http.requests";
+    private static final String REPOSITORY_TIMER = "sonar.repository.calls";
+    private static final String ERROR_COUNTER = "sonar.errors";
+    private static final String CACHE_COUNTER = "sonar.cache.requests";
+    private static final String CACHE_SAVED_BYTES = "sonar.cache.saved.bytes";
+
+    private final MeterRegistry registry;
+
+    @Autowired
+    public SonarMetrics() {
+        this(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+    }
+
+    public SonarMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * A phase of the collection, its result or exception handed on as is.
+     */
+    @FunctionalInterface
+    public interface Phase<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * Time a phase, failures are timed as well and counted by exception type
+     */
+    public <T, E extends Exception> T time(String collector, String phase, String server, Phase<T, E> call) throws E {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            return call.run();
+        } catch (Exception e) {
+            outcome = "error";
+            error(phase, e);
+            throw e;
+        } finally {
+            Timer.builder(PHASE_TIMER)
+                    .tags(Tags.of("collector", collector, "phase", phase, "server", server, "outcome", outcome))
+                    .register(registry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Time a phase without a result
+     */
+    public void record(String collector, String phase, String server, Runnable call) {
+        time(collector, phase, server, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Items a phase handled, e.g. discovered, added or refreshed projects
+     */
+    public void count(String name, String collector, String server, long amount) {
+        Counter.builder("sonar." + name)
+                .tags(Tags.of("collector", collector, "server", server))
+                .register(registry)
+                .increment(amount);
+    }
+
+    /**
+     * A lookup of the {@link ResponseCache}, hit, disk or miss, with the response bytes it saved
+     */
+    public void cacheRequest(String endpoint, String result, long savedBytes) {
+        Counter.builder(CACHE_COUNTER)
+                .tags(Tags.of("endpoint", endpoint, "result", result))
+                .register(registry)
+                .increment();
+        Counter.builder(CACHE_SAVED_BYTES)
+                .tags(Tags.of("endpoint", endpoint))
+                .register(registry)
+                .increment(savedBytes);
+    }
+
+    /**
+     * @param status http status code, or the exception type when no response arrived
+     */
+    public void recordRequest(String server, String uriTemplate, String status, long nanos) {
+        Timer.builder(REQUEST_TIMER)
+                .tags(Tags.of("server", server, "uri", uriTemplate, "status", status))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRepositoryCall(String repository, String method, String outcome, long nanos) {
+        Timer.builder(REPOSITORY_TIMER)
+                .tags(Tags.of("repository", repository, "method", method, "outcome", outcome))
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void error(String phase, Throwable e) {
+        error(phase, e.getClass().getSimpleName());
+    }
+
+    public void error(String phase, String type) {
+        Counter.builder(ERROR_COUNTER)
+                .tags(Tags.of("phase", phase, "type", type))
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Gauge sampling the object whenever the registry is read, held weakly like every micrometer gauge
+     */
+    public <T> T gauge(String name, Tags tags, T object, ToDoubleFunction<T> value) {
+        return registry.gauge("sonar." + name, tags, object, value);
+    }
+
+    /**
+     * @return the meters in the prometheus text format, empty when the registry is not a prometheus one
+     */
+    public String scrape() {
+        return registry instanceof PrometheusMeterRegistry ? ((PrometheusMeterRegistry) registry).scrape() : "";
+    }
+}
@@ -0,0 +1,77 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.client.RestUserInfo;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Immutable view of one configured sonar server: where it lives, which version it runs
+ * and how to authenticate against it. Clients bound to a session never share credentials
+ * with another server, so each server can be collected on its own thread.
+ */
+public final class SonarServerSession {
+    private static final Log LOG = LogFactory.getLog(SonarServerSession.class);
+
+    private final String instanceUrl;
+    private final SonarCapabilities capabilities;
+    private final String username;
+    private final String password;
+    private final String token;
+
+    public SonarServerSession(String instanceUrl, Double version, String username, String password, String token) {
+        this(instanceUrl, SonarCapabilities.forVersion(version), username, password, token);
+    }
+
+    public SonarServerSession(String instanceUrl, SonarCapabilities capabilities, String username, String password, String token) {
+        this.instanceUrl = instanceUrl;
+        this.capabilities = capabilities;
+        this.username = username;
+        this.password = password;
+        this.token = token;
+
+        if (StringUtils.isNotBlank(token) && hasUsernameAndPassword()) {
+            LOG.error("Only one mode of authentication is needed. Either token or username/password. " +
+                    "Both modes were detected. Using username/password");
+        }
+    }
+
+    public String getInstanceUrl() {
+        return instanceUrl;
+    }
+
+    public Double getVersion() {
+        return capabilities.getVersion();
+    }
+
+    public SonarCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Credentials for requests to this server, username and password override the token
+     * when both are given.
+     *
+     * @return a new {@link RestUserInfo} on every call, or null when the server is anonymous
+     */
+    public RestUserInfo getUserInfo() {
+        if (hasUsernameAndPassword()) {
+            return new RestUserInfo(username, password);
+        }
+        if (StringUtils.isNotBlank(token)) {
+            RestUserInfo userInfo = new RestUserInfo(null, null);
+            userInfo.setToken(token);
+            return userInfo;
+        }
+        return null;
+    }
+
+    private boolean hasUsernameAndPassword() {
+        return StringUtils.isNotBlank(username) && StringUtils.isNotBlank(password);
+    }
+
+    @Override
+    public String toString() {
+        return "SonarServerSession{instanceUrl='" + instanceUrl + "', version=" + getVersion() + '}';
+    }
+}
@@ -4,7 +4,9 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Bean to hold settings specific to the Sonar collector.
@@ -21,6 +23,46 @@ public class SonarSettings {
     private String staticMetrics63andAbove; // 6.3 is the sonar version
     private String securityMetrics63andAbove; // 6.3 is the sonar version
     private String metricsBefore63;
+    private int refreshConcurrency = 1; // projects refreshed at the same time per sonar server
+    private int serverConcurrency; // sonar servers collected at the same time, 0 collects all of them at once
+    private int connectTimeout = 20000; // milliseconds to open a connection or lease one from the pool
+    private int readTimeout = 20000; // milliseconds to wait for response data
+    private int maxConnections = 100; // pooled http connections across all sonar servers
+    private int maxConnectionsPerRoute = 20; // pooled http connections per sonar server
+    private long idleConnectionTimeout = 30000; // milliseconds before an idle pooled connection is closed
+    private long keepAliveTimeout = 30000; // milliseconds to keep a connection when the server does not say
+    private boolean compressionEnabled = true; // negotiate gzip/deflate responses
+    private long poolStatsInterval = 300000; // milliseconds between pool statistics log lines, 0 disables them
+    private int pageFetchConcurrency = 4; // project search pages fetched at the same time per sonar server
+    private boolean streamingDiscovery = true; // store discovered projects page by page instead of holding the whole catalogue
+    private boolean incrementalRefresh; // refresh only projects analysed since the last check, from the compute engine activity
+    private long fullRefreshInterval = 86400000; // milliseconds between refreshes of every enabled project in incremental mode
+    private long activityLookback = 3600000; // milliseconds the analysis check reaches back before the last check
+    private int measuresBatchSize = 100; // projects per measures request, sonar accepts at most 100
+    private int maxUrlLength = 4000; // longest request url sent to sonar, batches are split to stay below it
+    private boolean fusedMeasures = false; // read static and security metrics in one request for both collectors
+    private long fusedMeasuresTtl = 600000; // milliseconds measures read for the other collector are kept
+    private long capabilityTtl = 3600000; // milliseconds the version and endpoints of a server are trusted
+    private long discoverySnapshotTtl = 240000; // milliseconds the other collector reuses a discovery, 0 disables
+    private int writeBatchSize = 500; // refreshed projects whose code quality is written with one bulk operation
+    private long writeFlushInterval = 5000; // milliseconds before a partial batch of refreshed projects is written
+    private String changelogCron = "0 0 * * * *"; // schedule of the quality profile changelog collection, empty disables it
+    private int changelogConcurrency = 4; // quality profile changelogs read at the same time per sonar server
+    private int metricsPort; // port the prometheus metrics are served on, 0 does not serve them
+    private String metricsPath = "/metrics"; // path the prometheus metrics are served on
+    private boolean adaptiveConcurrency = true; // adapt the requests in flight per sonar server to its latency and errors
+    private int initialConcurrencyLimit = 8; // requests in flight per sonar server before it adapts, at most maxConnectionsPerRoute
+    private double latencyTolerance = 2.0; // times the usual latency of an endpoint at which requests are reduced
+    private int circuitBreakerFailures = 5; // consecutive failed requests after which a sonar server is skipped, 0 never skips
+    private long circuitBreakerOpenTime = 60000; // millis a sonar server is skipped before a probe request is sent
+    private Map<String, String> metricFormats = new HashMap<>(); // formatted value conversion by metric: auto, duration, percent, integer or raw
+    private Map<String, Long> responseCacheTtl = defaultResponseCacheTtl(); // milliseconds the responses of an endpoint are cached, by ResponseCache endpoint name
+    private long responseCacheSize = 16777216; // bytes of cached responses held in memory
+    private String responseCacheDir; // directory the cached responses are also written to, so they survive restarts, empty keeps them in memory only
+    private boolean sharded; // split the enabled projects across the collector nodes sharing the database
+    private String nodeId; // name of this node in sharded collection, defaults to the host name with a random suffix
+    private long heartbeatInterval = 10000; // milliseconds between the lease renewals of a node in sharded collection
+    private long leaseTime = 30000; // milliseconds after its last heartbeat a node is dead and its projects move to the others
 
     public String getCron() {
         return cron;
@@ -93,4 +135,332 @@ public class SonarSettings {
     public void setMetricsBefore63(String metricsBefore63) {
         this.metricsBefore63 = metricsBefore63;
     }
+
+    public int getRefreshConcurrency() {
+        return refreshConcurrency;
+    }
+
+    public void setRefreshConcurrency(int refreshConcurrency) {
+        this.refreshConcurrency = refreshConcurrency;
+    }
+
+    public int getServerConcurrency() {
+        return serverConcurrency;
+    }
+
+    public void setServerConcurrency(int serverConcurrency) {
+        this.serverConcurrency = serverConcurrency;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    public void setIdleConnectionTimeout(long idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public long getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public void setKeepAliveTimeout(long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public long getPoolStatsInterval() {
+        return poolStatsInterval;
+    }
+
+    public void setPoolStatsInterval(long poolStatsInterval) {
+        this.poolStatsInterval = poolStatsInterval;
+    }
+
+    public int getPageFetchConcurrency() {
+        return pageFetchConcurrency;
+    }
+
+    public void setPageFetchConcurrency(int pageFetchConcurrency) {
+        this.pageFetchConcurrency = pageFetchConcurrency;
+    }
+
+    public boolean isStreamingDiscovery() {
+        return streamingDiscovery;
+    }
+
+    public void setStreamingDiscovery(boolean streamingDiscovery) {
+        this.streamingDiscovery = streamingDiscovery;
+    }
+
+    public boolean isIncrementalRefresh() {
+        return incrementalRefresh;
+    }
+
+    public void setIncrementalRefresh(boolean incrementalRefresh) {
+        this.incrementalRefresh = incrementalRefresh;
+    }
+
+    public long getFullRefreshInterval() {
+        return fullRefreshInterval;
+    }
+
+    public void setFullRefreshInterval(long fullRefreshInterval) {
+        this.fullRefreshInterval = fullRefreshInterval;
+    }
+
+    public long getActivityLookback() {
+        return activityLookback;
+    }
+
+    public void setActivityLookback(long activityLookback) {
+        this.activityLookback = activityLookback;
+    }
+
+    public int getMeasuresBatchSize() {
+        return measuresBatchSize;
+    }
+
+    public void setMeasuresBatchSize(int measuresBatchSize) {
+        this.measuresBatchSize = measuresBatchSize;
+    }
+
+    public int getMaxUrlLength() {
+        return maxUrlLength;
+    }
+
+    public void setMaxUrlLength(int maxUrlLength) {
+        this.maxUrlLength = maxUrlLength;
+    }
+
+    public boolean isFusedMeasures() {
+        return fusedMeasures;
+    }
+
+    public void setFusedMeasures(boolean fusedMeasures) {
+        this.fusedMeasures = fusedMeasures;
+    }
+
+    public long getFusedMeasuresTtl() {
+        return fusedMeasuresTtl;
+    }
+
+    public void setFusedMeasuresTtl(long fusedMeasuresTtl) {
+        this.fusedMeasuresTtl = fusedMeasuresTtl;
+    }
+
+    public long getDiscoverySnapshotTtl() {
+        return discoverySnapshotTtl;
+    }
+
+    public void setDiscoverySnapshotTtl(long discoverySnapshotTtl) {
+        this.discoverySnapshotTtl = discoverySnapshotTtl;
+    }
+
+    public long getCapabilityTtl() {
+        return capabilityTtl;
+    }
+
+    public void setCapabilityTtl(long capabilityTtl) {
+        this.capabilityTtl = capabilityTtl;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public long getWriteFlushInterval() {
+        return writeFlushInterval;
+    }
+
+    public void setWriteFlushInterval(long writeFlushInterval) {
+        this.writeFlushInterval = writeFlushInterval;
+    }
+
+    public String getChangelogCron() {
+        return changelogCron;
+    }
+
+    public void setChangelogCron(String changelogCron) {
+        this.changelogCron = changelogCron;
+    }
+
+    public int getChangelogConcurrency() {
+        return changelogConcurrency;
+    }
+
+    public void setChangelogConcurrency(int changelogConcurrency) {
+        this.changelogConcurrency = changelogConcurrency;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    public void setMetricsPath(String metricsPath) {
+        this.metricsPath = metricsPath;
+    }
+
+    public Map<String, String> getMetricFormats() {
+        return metricFormats;
+    }
+
+    public void setMetricFormats(Map<String, String> metricFormats) {
+        this.metricFormats = metricFormats;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    public int getInitialConcurrencyLimit() {
+        return initialConcurrencyLimit;
+    }
+
+    public void setInitialConcurrencyLimit(int initialConcurrencyLimit) {
+        this.initialConcurrencyLimit = initialConcurrencyLimit;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public void setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    public void setCircuitBreakerFailures(int circuitBreakerFailures) {
+        this.circuitBreakerFailures = circuitBreakerFailures;
+    }
+
+    public long getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    public void setCircuitBreakerOpenTime(long circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    public Map<String, Long> getResponseCacheTtl() {
+        return responseCacheTtl;
+    }
+
+    public void setResponseCacheTtl(Map<String, Long> responseCacheTtl) {
+        this.responseCacheTtl = responseCacheTtl;
+    }
+
+    public long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    public void setResponseCacheSize(long responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+    }
+
+    public String getResponseCacheDir() {
+        return responseCacheDir;
+    }
+
+    public void setResponseCacheDir(String responseCacheDir) {
+        this.responseCacheDir = responseCacheDir;
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    public void setSharded(boolean sharded) {
+        this.sharded = sharded;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public long getLeaseTime() {
+        return leaseTime;
+    }
+
+    public void setLeaseTime(long leaseTime) {
+        this.leaseTime = leaseTime;
+    }
+
+    private static Map<String, Long> defaultResponseCacheTtl() {
+        Map<String, Long> ttls = new HashMap<>();
+        ttls.put(ResponseCache.QUALITY_PROFILES, 14400000L);
+        ttls.put(ResponseCache.PROFILE_PROJECTS, 14400000L);
+        ttls.put(ResponseCache.VERSION, 3600000L);
+        return ttls;
+    }
 }
@@ -0,0 +1,145 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.client.RestUserInfo;
+import com.capitalone.dashboard.util.Supplier;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestOperations;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Issues GET requests against sonar and hands the response body to a token based json reader
+ * straight from the connection, so a response is never held in memory as a whole.
+ */
+@Component
+public class StreamingRestClient {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final RestOperations restOperations;
+    private final ResponseCache responseCache;
+
+    public StreamingRestClient(Supplier<RestOperations> restOperationsSupplier) {
+        this(restOperationsSupplier, null);
+    }
+
+    @Autowired
+    public StreamingRestClient(Supplier<RestOperations> restOperationsSupplier, ResponseCache responseCache) {
+        this.restOperations = restOperationsSupplier.get();
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Reads the json response body of a request.
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * @param url absolute url to request
+     * @param headers request headers, may be null
+     * @param reader reads the json response body as it arrives
+     * @return whatever the reader returned
+     * @throws RestClientException on connection failures, error responses and unreadable json
+     */
+    public <T> T get(String url, HttpHeaders headers, ResponseReader<T> reader) throws RestClientException {
+        return restOperations.execute(url, HttpMethod.GET, requestCallback(headers), responseExtractor(reader));
+    }
+
+    /**
+     * Same as {@link #get(String, HttpHeaders, ResponseReader)} for urls whose query is already encoded
+     * and must not be encoded again.
+     */
+    public <T> T get(URI uri, HttpHeaders headers, ResponseReader<T> reader) throws RestClientException {
+        return restOperations.execute(uri, HttpMethod.GET, requestCallback(headers), responseExtractor(reader));
+    }
+
+    /**
+     * Same as {@link #get(String, HttpHeaders, ResponseReader)} for slow changing responses, which are read
+     * from the {@link ResponseCache} while the time to live of the endpoint lasts. The body is held as a
+     * whole, meant for small responses such as the quality profiles.
+     *
+     * @param endpoint the {@link ResponseCache} endpoint name of the url
+     */
+    public <T> T getCached(String endpoint, String url, HttpHeaders headers, ResponseReader<T> reader) throws RestClientException {
+        if (responseCache == null) {
+            return get(url, headers, reader);
+        }
+        byte[] body = responseCache.get(endpoint, url, headers, () -> restOperations.execute(url, HttpMethod.GET,
+                requestCallback(headers), response -> response.getBody() == null ? null : StreamUtils.copyToByteArray(response.getBody())));
+        if (body == null) {
+            return null;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            return reader.read(parser);
+        } catch (IOException e) {
+            responseCache.evict(endpoint, url, headers);
+            throw new ResourceAccessException("Unreadable response of " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static RequestCallback requestCallback(HttpHeaders headers) {
+        return request -> {
+            request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            if (headers != null) {
+                request.getHeaders().putAll(headers);
+            }
+        };
+    }
+
+    private static <T> ResponseExtractor<T> responseExtractor(ResponseReader<T> reader) {
+        return response -> {
+            InputStream body = response.getBody();
+            if (body == null) {
+                return null;
+            }
+            try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+                return reader.read(parser);
+            }
+        };
+    }
+
+    /**
+     * Basic authentication headers for sonar: username and password when both are given,
+     * otherwise the token as username with an empty password.
+     *
+     * @return the headers, or null for anonymous access
+     */
+    public static HttpHeaders authHeaders(RestUserInfo userInfo) {
+        if (userInfo == null) {
+            return null;
+        }
+        if (StringUtils.isNotBlank(userInfo.getUserId()) && StringUtils.isNotBlank(userInfo.getPassCode())) {
+            return basicAuth(userInfo.getUserId() + ":" + userInfo.getPassCode());
+        }
+        if (StringUtils.isNotBlank(userInfo.getToken())) {
+            return basicAuth(userInfo.getToken().trim() + ":");
+        }
+        return null;
+    }
+
+    private static HttpHeaders basicAuth(String credentials) {
+        byte[] encodedAuth = Base64.encodeBase64(credentials.getBytes(StandardCharsets.US_ASCII));
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Basic " + new String(encodedAuth, StandardCharsets.US_ASCII));
+        return headers;
+    }
+}
@@ -0,0 +1,46 @@
+package com.capitalone.dashboard.model;
+
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Time of the latest change read from the changelog of one quality profile of a sonar server,
+ * the next read asks only for changes since then.
+ */
+@Document(collection = "sonar_changelog_marks")
+public class SonarChangelogMark extends BaseModel {
+    private String instanceUrl;
+    private String profileKey;
+    private long since;
+
+    public SonarChangelogMark() {
+    }
+
+    public SonarChangelogMark(String instanceUrl, String profileKey) {
+        this.instanceUrl = instanceUrl;
+        this.profileKey = profileKey;
+    }
+
+    public String getInstanceUrl() {
+        return instanceUrl;
+    }
+
+    public void setInstanceUrl(String instanceUrl) {
+        this.instanceUrl = instanceUrl;
+    }
+
+    public String getProfileKey() {
+        return profileKey;
+    }
+
+    public void setProfileKey(String profileKey) {
+        this.profileKey = profileKey;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public void setSince(long since) {
+        this.since = since;
+    }
+}
@@ -0,0 +1,50 @@
+package com.capitalone.dashboard.model;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A lease one collector node holds until it expires, renewed with every heartbeat. Node leases tell
+ * which nodes are alive in sharded collection, coordinator leases which node runs the duties done
+ * once per collector, such as the project discovery.
+ */
+@Document(collection = "sonar_collector_leases")
+public class SonarCollectorLease extends BaseModel {
+    @Indexed(unique = true)
+    private String name;
+    private String owner;
+    private long expiresAt;
+
+    public SonarCollectorLease() {
+    }
+
+    public SonarCollectorLease(String name, String owner, long expiresAt) {
+        this.name = name;
+        this.owner = owner;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
@@ -6,6 +6,7 @@ public class SonarProject extends CollectorItem {
     protected static final String INSTANCE_URL = "instanceUrl";
     protected static final String PROJECT_NAME = "projectName";
     protected static final String PROJECT_ID = "projectId";
+    protected static final String PROJECT_KEY = "projectKey";
 
     public String getInstanceUrl() {
         return (String) getOptions().get(INSTANCE_URL);
@@ -23,6 +24,14 @@ public class SonarProject extends CollectorItem {
         getOptions().put(PROJECT_ID, id);
     }
 
+    public String getProjectKey() {
+        return (String) getOptions().get(PROJECT_KEY);
+    }
+
+    public void setProjectKey(String key) {
+        getOptions().put(PROJECT_KEY, key);
+    }
+
     public String getProjectName() {
         return (String) getOptions().get(PROJECT_NAME);
     }
@@ -0,0 +1,82 @@
+package com.capitalone.dashboard.model;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * How far the incremental refresh of one sonar server has got: the time up to which
+ * completed analyses have been picked up and when every enabled project was last refreshed.
+ * In sharded collection every node keeps its own mark, along with the view of the nodes its
+ * projects were assigned by.
+ */
+@Document(collection = "sonar_refresh_marks")
+public class SonarRefreshMark extends BaseModel {
+    private ObjectId collectorId;
+    private String instanceUrl;
+    private long lastAnalysisCheck;
+    private long lastFullRefresh;
+    private String shard;
+    private long shardView;
+
+    public SonarRefreshMark() {
+    }
+
+    public SonarRefreshMark(ObjectId collectorId, String instanceUrl) {
+        this.collectorId = collectorId;
+        this.instanceUrl = instanceUrl;
+    }
+
+    public SonarRefreshMark(ObjectId collectorId, String instanceUrl, String shard) {
+        this.collectorId = collectorId;
+        this.instanceUrl = instanceUrl;
+        this.shard = shard;
+    }
+
+    public ObjectId getCollectorId() {
+        return collectorId;
+    }
+
+    public void setCollectorId(ObjectId collectorId) {
+        this.collectorId = collectorId;
+    }
+
+    public String getInstanceUrl() {
+        return instanceUrl;
+    }
+
+    public void setInstanceUrl(String instanceUrl) {
+        this.instanceUrl = instanceUrl;
+    }
+
+    public long getLastAnalysisCheck() {
+        return lastAnalysisCheck;
+    }
+
+    public void setLastAnalysisCheck(long lastAnalysisCheck) {
+        this.lastAnalysisCheck = lastAnalysisCheck;
+    }
+
+    public long getLastFullRefresh() {
+        return lastFullRefresh;
+    }
+
+    public void setLastFullRefresh(long lastFullRefresh) {
+        this.lastFullRefresh = lastFullRefresh;
+    }
+
+    public String getShard() {
+        return shard;
+    }
+
+    public void setShard(String shard) {
+        this.shard = shard;
+    }
+
+    public long getShardView() {
+        return shardView;
+    }
+
+    public void setShardView(long shardView) {
+        this.shardView = shardView;
+    }
+}
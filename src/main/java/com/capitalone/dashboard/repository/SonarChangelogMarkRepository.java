@@ -0,0 +1,12 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.SonarChangelogMark;
+import org.bson.types.ObjectId;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.List;
+
+public interface SonarChangelogMarkRepository extends CrudRepository<SonarChangelogMark, ObjectId> {
+
+    List<SonarChangelogMark> findByInstanceUrl(String instanceUrl);
+}
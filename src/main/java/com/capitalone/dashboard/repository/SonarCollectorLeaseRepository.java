@@ -0,0 +1,14 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.SonarCollectorLease;
+import org.bson.types.ObjectId;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.List;
+
+public interface SonarCollectorLeaseRepository extends CrudRepository<SonarCollectorLease, ObjectId>, SonarCollectorLeaseRepositoryCustom {
+
+    List<SonarCollectorLease> findByNameStartingWithAndExpiresAtGreaterThan(String namePrefix, long now);
+
+    void deleteByExpiresAtLessThan(long time);
+}
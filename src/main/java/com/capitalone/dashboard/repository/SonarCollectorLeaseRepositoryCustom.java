@@ -0,0 +1,17 @@
+package com.capitalone.dashboard.repository;
+
+public interface SonarCollectorLeaseRepositoryCustom {
+
+    /**
+     * Take or renew the lease with one atomic update, which succeeds when the lease is free, expired
+     * or already held by the owner
+     *
+     * @return true if the owner holds the lease until expiresAt
+     */
+    boolean acquire(String name, String owner, long now, long expiresAt);
+
+    /**
+     * Give the lease up if the owner holds it, so another node can take it at once
+     */
+    void release(String name, String owner);
+}
@@ -0,0 +1,48 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.SonarCollectorLease;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Update;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+public class SonarCollectorLeaseRepositoryImpl implements SonarCollectorLeaseRepositoryCustom {
+    private static final String NAME = "name";
+    private static final String OWNER = "owner";
+    private static final String EXPIRES_AT = "expiresAt";
+
+    private final MongoOperations operations;
+
+    @Autowired
+    public SonarCollectorLeaseRepositoryImpl(MongoOperations operations) {
+        this.operations = operations;
+        // two nodes taking a free lease at once both upsert, the unique name lets only one of them in
+        operations.indexOps(SonarCollectorLease.class).ensureIndex(new Index(NAME, Sort.Direction.ASC).unique());
+    }
+
+    @Override
+    public boolean acquire(String name, String owner, long now, long expiresAt) {
+        try {
+            SonarCollectorLease lease = operations.findAndModify(
+                    query(where(NAME).is(name).orOperator(where(OWNER).is(owner), where(EXPIRES_AT).lte(now))),
+                    new Update().set(OWNER, owner).set(EXPIRES_AT, expiresAt),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true),
+                    SonarCollectorLease.class);
+            return lease != null && owner.equals(lease.getOwner());
+        } catch (DuplicateKeyException e) {
+            // the lease exists and another owner holds it
+            return false;
+        }
+    }
+
+    @Override
+    public void release(String name, String owner) {
+        operations.remove(query(where(NAME).is(name).and(OWNER).is(owner)), SonarCollectorLease.class);
+    }
+}
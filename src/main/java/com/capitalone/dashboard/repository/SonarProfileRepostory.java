@@ -7,7 +7,7 @@ import org.springframework.data.mongodb.repository.Query;
 import com.capitalone.dashboard.model.CollectorItemConfigHistory;
 import com.capitalone.dashboard.model.ConfigHistOperationType;
 
-public interface SonarProfileRepostory extends CollItemConfigHistoryRepository {
+public interface SonarProfileRepostory extends CollItemConfigHistoryRepository, SonarProfileRepostoryCustom {
 	
 	@Query(value="{ 'collectorItemId' : ?0, userID : ?1, operation: ?2, timestamp : ?3}")
 	List<CollectorItemConfigHistory> findProfileConfigChanges(ObjectId collectorId,String authorLogin,ConfigHistOperationType operation,long timestamp);
@@ -0,0 +1,15 @@
+package com.capitalone.dashboard.repository;
+
+import org.bson.types.ObjectId;
+
+import java.util.Set;
+
+public interface SonarProfileRepostoryCustom {
+
+    /**
+     * Keys of the quality profile changes stored for the collector with a timestamp from {@code from} to {@code to}
+     * inclusive, see {@link SonarProfileRepostoryImpl#changeKey(String, Object, long)}, read with a projection of
+     * the key fields only
+     */
+    Set<String> findProfileConfigChangeKeys(ObjectId collectorId, long from, long to);
+}
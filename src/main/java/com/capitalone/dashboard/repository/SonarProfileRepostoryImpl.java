@@ -0,0 +1,45 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.CollectorItemConfigHistory;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+public class SonarProfileRepostoryImpl implements SonarProfileRepostoryCustom {
+    private static final String COLLECTOR_ITEM_ID = "collectorItemId";
+    private static final String USER_ID = "userID";
+    private static final String OPERATION = "operation";
+    private static final String TIMESTAMP = "timestamp";
+
+    @Autowired
+    private MongoOperations operations;
+
+    @Override
+    public Set<String> findProfileConfigChangeKeys(ObjectId collectorId, long from, long to) {
+        Query changes = query(where(COLLECTOR_ITEM_ID).is(collectorId).and(TIMESTAMP).gte(from).lte(to));
+        changes.fields().include(USER_ID).include(OPERATION).include(TIMESTAMP);
+        Set<String> keys = new HashSet<>();
+        String collection = operations.getCollectionName(CollectorItemConfigHistory.class);
+        for (DBObject change : operations.find(changes, DBObject.class, collection)) {
+            Object timestamp = change.get(TIMESTAMP);
+            keys.add(changeKey((String) change.get(USER_ID), change.get(OPERATION),
+                    timestamp instanceof Number ? ((Number) timestamp).longValue() : 0L));
+        }
+        return keys;
+    }
+
+    /**
+     * Identity of a quality profile change within a collector, the fields {@link SonarProfileRepostory#findProfileConfigChanges} matches on
+     */
+    public static String changeKey(String authorLogin, Object operation, long timestamp) {
+        return authorLogin + '\n' + operation + '\n' + timestamp;
+    }
+}
@@ -6,7 +6,7 @@ import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
 
-public interface SonarProjectRepository extends BaseCollectorItemRepository<SonarProject> {
+public interface SonarProjectRepository extends BaseCollectorItemRepository<SonarProject>, SonarProjectRepositoryCustom {
 
     @Query(value="{ 'collectorId' : ?0, options.instanceUrl : ?1, options.projectId : ?2}")
     SonarProject findSonarProject(ObjectId collectorId, String instanceUrl, String projectId);
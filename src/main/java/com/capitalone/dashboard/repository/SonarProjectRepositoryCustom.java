@@ -0,0 +1,41 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.CollectorType;
+import org.bson.types.ObjectId;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public interface SonarProjectRepositoryCustom {
+
+    /**
+     * Timestamp of the latest code quality stored for each of the collector items,
+     * items without code quality are left out
+     */
+    Map<ObjectId, Long> findLatestQualityTimestamps(Collection<ObjectId> collectorItemIds);
+
+    /**
+     * Remove the collector items from the components referencing them with atomic updates,
+     * dropping the collector type from components left without items of that type
+     */
+    void detachFromComponents(CollectorType collectorType, Collection<ObjectId> collectorItemIds);
+
+    /**
+     * Ids of the collector items of the collector that components reference under the collector type,
+     * read from the matching components only
+     */
+    Set<ObjectId> findReferencedItemIds(ObjectId collectorId, CollectorType collectorType);
+
+    /**
+     * Enable or disable the collector items with a bulk update of the flag only
+     */
+    void updateEnabled(Collection<ObjectId> collectorItemIds, boolean enabled);
+
+    /**
+     * Set the lastUpdated of the collector items and insert their code quality, each as one unordered bulk operation
+     */
+    void writeRefreshed(Map<ObjectId, Long> lastUpdated, List<CodeQuality> codeQualities);
+}
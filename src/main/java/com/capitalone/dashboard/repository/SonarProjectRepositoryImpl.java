@@ -0,0 +1,126 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.CollectorItem;
+import com.capitalone.dashboard.model.CollectorType;
+import com.capitalone.dashboard.model.Component;
+import com.capitalone.dashboard.model.SonarProject;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+public class SonarProjectRepositoryImpl implements SonarProjectRepositoryCustom {
+    private static final String COLLECTOR_ITEM_ID = "collectorItemId";
+    private static final String TIMESTAMP = "timestamp";
+    private static final String ID = "_id";
+    private static final String COLLECTOR_ID = "collectorId";
+    private static final String ENABLED = "enabled";
+    private static final String LAST_UPDATED = "lastUpdated";
+    private static final int UPDATE_BATCH_SIZE = 1000;
+
+    @Autowired
+    private MongoOperations operations;
+
+    @Override
+    public Map<ObjectId, Long> findLatestQualityTimestamps(Collection<ObjectId> collectorItemIds) {
+        Aggregation aggregation = newAggregation(
+                match(Criteria.where(COLLECTOR_ITEM_ID).in(collectorItemIds)),
+                group(COLLECTOR_ITEM_ID).max(TIMESTAMP).as(TIMESTAMP));
+        Map<ObjectId, Long> timestamps = new HashMap<>();
+        for (DBObject latest : operations.aggregate(aggregation, CodeQuality.class, DBObject.class)) {
+            timestamps.put((ObjectId) latest.get("_id"), ((Number) latest.get(TIMESTAMP)).longValue());
+        }
+        return timestamps;
+    }
+
+    @Override
+    public void detachFromComponents(CollectorType collectorType, Collection<ObjectId> collectorItemIds) {
+        String items = "collectorItems." + collectorType;
+        List<ObjectId> ids = new ArrayList<>(collectorItemIds);
+        for (int from = 0; from < ids.size(); from += UPDATE_BATCH_SIZE) {
+            List<ObjectId> batch = ids.subList(from, Math.min(ids.size(), from + UPDATE_BATCH_SIZE));
+            Query referencing = query(where(items + "." + ID).in(batch));
+            referencing.fields().include(ID);
+            List<ObjectId> componentIds = operations.find(referencing, Component.class).stream()
+                    .map(Component::getId)
+                    .collect(Collectors.toList());
+            if (componentIds.isEmpty()) {
+                continue;
+            }
+            operations.updateMulti(query(where(ID).in(componentIds)),
+                    new Update().pull(items, new BasicDBObject(ID, new BasicDBObject("$in", batch))), Component.class);
+            operations.updateMulti(query(where(ID).in(componentIds).and(items).size(0)),
+                    new Update().unset(items), Component.class);
+        }
+    }
+
+    @Override
+    public Set<ObjectId> findReferencedItemIds(ObjectId collectorId, CollectorType collectorType) {
+        String items = "collectorItems." + collectorType;
+        Query referencing = query(where(items + "." + COLLECTOR_ID).is(collectorId));
+        referencing.fields().include(items);
+        Set<ObjectId> ids = new HashSet<>();
+        for (Component component : operations.find(referencing, Component.class)) {
+            List<CollectorItem> collectorItems = component.getCollectorItems().get(collectorType);
+            if (collectorItems == null) {
+                continue;
+            }
+            collectorItems.stream()
+                    .filter(ci -> ci != null && collectorId.equals(ci.getCollectorId()))
+                    .map(CollectorItem::getId)
+                    .filter(Objects::nonNull)
+                    .forEach(ids::add);
+        }
+        return ids;
+    }
+
+    @Override
+    public void updateEnabled(Collection<ObjectId> collectorItemIds, boolean enabled) {
+        List<ObjectId> ids = new ArrayList<>(collectorItemIds);
+        for (int from = 0; from < ids.size(); from += UPDATE_BATCH_SIZE) {
+            List<ObjectId> batch = ids.subList(from, Math.min(ids.size(), from + UPDATE_BATCH_SIZE));
+            operations.updateMulti(query(where(ID).in(batch)), Update.update(ENABLED, enabled), SonarProject.class);
+        }
+    }
+
+    /**
+     * The lastUpdated updates go through the driver's unordered bulk operation, the spring data
+     * version in use predates its bulk operations. The code quality documents are inserted as one batch.
+     */
+    @Override
+    public void writeRefreshed(Map<ObjectId, Long> lastUpdated, List<CodeQuality> codeQualities) {
+        if (!lastUpdated.isEmpty()) {
+            BulkWriteOperation updates = operations.getCollection(operations.getCollectionName(SonarProject.class))
+                    .initializeUnorderedBulkOperation();
+            lastUpdated.forEach((id, timestamp) -> updates.find(new BasicDBObject(ID, id))
+                    .updateOne(new BasicDBObject("$set", new BasicDBObject(LAST_UPDATED, timestamp))));
+            updates.execute();
+        }
+        if (!codeQualities.isEmpty()) {
+            operations.insert(codeQualities, CodeQuality.class);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.SonarRefreshMark;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+
+import java.util.Collection;
+
+public interface SonarRefreshMarkRepository extends CrudRepository<SonarRefreshMark, ObjectId> {
+
+    /**
+     * @param shard node of the mark in sharded collection, null matches the mark of unsharded collection
+     */
+    SonarRefreshMark findByCollectorIdAndInstanceUrlAndShard(ObjectId collectorId, String instanceUrl, String shard);
+
+    /**
+     * Delete the marks of the sharded collection nodes that left, node ids change with every restart
+     */
+    @Query(value = "{ 'collectorId' : ?0, 'shard' : { $nin : ?1, $ne : null } }", delete = true)
+    void deleteByCollectorIdAndShardNotIn(ObjectId collectorId, Collection<String> shards);
+}
@@ -0,0 +1,148 @@
+package com.capitalone.dashboard.util;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Token based helpers to pick fields out of a json document while it is read from the wire,
+ * without building a tree for the parts nobody looks at.
+ */
+public final class JsonStreams {
+
+    private JsonStreams() {
+    }
+
+    /**
+     * Called for every field of an object with the parser positioned on the field value.
+     * Values that are not read are skipped.
+     */
+    @FunctionalInterface
+    public interface FieldReader {
+        void read(String field, JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Called for every element of an array with the parser positioned on the element.
+     * Elements that are not read are skipped.
+     */
+    @FunctionalInterface
+    public interface ElementReader {
+        void read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Read the object at the current token, or at the next one when the parser has not started yet.
+     * A json null is read as an empty object.
+     */
+    public static void readObject(JsonParser parser, FieldReader reader) throws IOException {
+        JsonToken token = currentToken(parser);
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected an object but found " + token, parser.getCurrentLocation());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            reader.read(field, parser);
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * Read the array at the current token, or at the next one when the parser has not started yet.
+     * A json null is read as an empty array.
+     */
+    public static void readArray(JsonParser parser, ElementReader reader) throws IOException {
+        JsonToken token = currentToken(parser);
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new JsonParseException("Expected an array but found " + token, parser.getCurrentLocation());
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == null) {
+                throw new JsonParseException("Unexpected end of array", parser.getCurrentLocation());
+            }
+            reader.read(parser);
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * Read the single array field of the root object as a json-simple array, skipping everything else.
+     *
+     * @return the array, or null when the field is missing
+     */
+    public static JSONArray readArrayField(JsonParser parser, String field) throws IOException {
+        JSONArray[] array = new JSONArray[1];
+        readObject(parser, (name, p) -> {
+            if (field.equals(name) && p.getCurrentToken() == JsonToken.START_ARRAY) {
+                array[0] = (JSONArray) readValue(p);
+            }
+        });
+        return array[0];
+    }
+
+    /**
+     * The current value as text: strings as they are, numbers and booleans as written in the document,
+     * objects and arrays as their json form and null as null.
+     */
+    public static String text(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null || token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isScalarValue()) {
+            return parser.getText();
+        }
+        Object value = readValue(parser);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Read the current value into the same types json-simple produces:
+     * {@link JSONObject}, {@link JSONArray}, String, Long, Double, Boolean or null.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object readValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == null) {
+            return null;
+        }
+        switch (token) {
+            case START_OBJECT:
+                JSONObject object = new JSONObject();
+                readObject(parser, (field, p) -> object.put(field, readValue(p)));
+                return object;
+            case START_ARRAY:
+                JSONArray array = new JSONArray();
+                readArray(parser, p -> array.add(readValue(p)));
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    private static JsonToken currentToken(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        return token == null ? parser.nextToken() : token;
+    }
+}
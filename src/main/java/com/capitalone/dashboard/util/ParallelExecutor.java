@@ -0,0 +1,114 @@
+package com.capitalone.dashboard.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs a unit of work for every item of a collection with a bounded number of threads.
+ * A parallelism of one (or less) runs the work inline on the calling thread.
+ * <p>
+ * The threads of a role, named after it, are kept and reused by later calls and cycles. A role never
+ * has more than {@link #MAX_THREADS_PER_ROLE} threads, however many calls are nested or run at the same
+ * time; beyond that the calling thread works through the items itself.
+ */
+public final class ParallelExecutor {
+    static final int MAX_THREADS_PER_ROLE = 64;
+    private static final long KEEP_ALIVE_MINUTES = 10;
+    private static final Map<String, ExecutorService> EXECUTORS = new ConcurrentHashMap<>();
+
+    private ParallelExecutor() {
+    }
+
+    public static <T> void forEach(Collection<? extends T> items, int parallelism, String threadName, Consumer<? super T> action) {
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        if (parallelism <= 1 || items.size() == 1) {
+            items.forEach(action);
+            return;
+        }
+
+        // every worker takes the next item until none is left
+        List<T> pending = new ArrayList<>(items);
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            for (int i = next.getAndIncrement(); i < pending.size(); i = next.getAndIncrement()) {
+                try {
+                    action.accept(pending.get(i));
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+
+        ExecutorService executor = executor(threadName);
+        int workers = Math.min(parallelism, pending.size());
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(worker));
+        }
+        await(futures);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * Threads of the role, created on demand up to the maximum and reused while they are not idle
+     * for longer than the keep alive. Work the role has no thread for runs on the submitting thread,
+     * so nested calls never wait for a thread of their own role.
+     */
+    private static ExecutorService executor(String threadName) {
+        return EXECUTORS.computeIfAbsent(threadName, role -> new ThreadPoolExecutor(0, MAX_THREADS_PER_ROLE,
+                KEEP_ALIVE_MINUTES, TimeUnit.MINUTES, new SynchronousQueue<>(), threadFactory(role),
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+    }
+
+    /**
+     * Waits for every future and rethrows the first failure once all of them are done,
+     * so a failing item never leaves work running behind the caller's back.
+     */
+    private static void await(List<Future<?>> futures) {
+        RuntimeException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for parallel work", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static ThreadFactory threadFactory(String threadName) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, threadName + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
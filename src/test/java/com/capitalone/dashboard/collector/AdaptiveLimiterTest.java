@@ -0,0 +1,94 @@
+package com.capitalone.dashboard.collector;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveLimiterTest {
+    private static final String ENDPOINT = "/api/measures/search?projectKeys&metricKeys";
+
+    @Test
+    public void growsWhileLatencyStaysFlat() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 20, 2.0);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.onSuccess(ENDPOINT, 100);
+            limiter.onSuccess(ENDPOINT, 100);
+        }
+
+        assertThat(limiter.getLimit() > 2, is(true));
+        assertThat(limiter.getInFlight(), is(0));
+    }
+
+    @Test
+    public void doesNotGrowWhileTheLimitIsNotUsed() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 20, 2.0);
+
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.onSuccess(ENDPOINT, 100);
+        }
+
+        assertThat(limiter.getLimit(), is(4));
+    }
+
+    @Test
+    public void backsOffOnRisingLatencyAndDrops() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 20, 2.0);
+        limiter.acquire();
+        limiter.onSuccess(ENDPOINT, 100);
+
+        limiter.acquire();
+        limiter.onSuccess(ENDPOINT, 1000);
+        assertThat(limiter.getLimit(), is(9));
+
+        limiter.acquire();
+        limiter.onDropped();
+        assertThat(limiter.getLimit(), is(4));
+
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+            limiter.onDropped();
+        }
+        assertThat(limiter.getLimit(), is(1));
+    }
+
+    @Test
+    public void comparesLatencyPerEndpoint() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 20, 2.0);
+        limiter.acquire();
+        limiter.onSuccess("/api/server/version", 10);
+
+        limiter.acquire();
+        limiter.onSuccess(ENDPOINT, 1000);
+
+        assertThat(limiter.getLimit(), is(10));
+    }
+
+    @Test
+    public void holdsRequestsBackAtTheLimit() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 20, 2.0);
+        limiter.acquire();
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread waiting = new Thread(() -> {
+            try {
+                limiter.acquire();
+                sent.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+
+        assertThat(sent.await(200, TimeUnit.MILLISECONDS), is(false));
+        limiter.onSuccess(ENDPOINT, 100);
+        assertThat(sent.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(limiter.getInFlight(), is(1));
+    }
+}
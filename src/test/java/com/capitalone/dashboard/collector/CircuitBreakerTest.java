@@ -0,0 +1,66 @@
+package com.capitalone.dashboard.collector;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong(1000);
+    private final CircuitBreaker breaker = new CircuitBreaker("http://sonar:9000", 3, 60000, now::get);
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        fail(2);
+        breaker.onSuccess();
+        fail(2);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.tryAcquire(), is(true));
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void probesOnceTheOpenTimeHasPassed() {
+        fail(3);
+        now.addAndGet(59999);
+        assertThat(breaker.tryAcquire(), is(false));
+
+        now.addAndGet(1);
+        assertThat(breaker.tryAcquire(), is(true));
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        // one probe at a time
+        assertThat(breaker.tryAcquire(), is(false));
+
+        breaker.onSuccess();
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void failedProbeOpensTheCircuitAgain() {
+        fail(3);
+        now.addAndGet(60000);
+        assertThat(breaker.tryAcquire(), is(true));
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        now.addAndGet(59999);
+        assertThat(breaker.tryAcquire(), is(false));
+        now.addAndGet(1);
+        assertThat(breaker.tryAcquire(), is(true));
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertThat(breaker.tryAcquire(), is(true));
+            breaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.CodeQualityType;
+import com.capitalone.dashboard.model.SonarProject;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CodeQualityHandoffTest {
+
+    @Test
+    public void handsOutEachCodeQualityOnce() {
+        CodeQualityHandoff handoff = new CodeQualityHandoff(60000);
+        CodeQuality codeQuality = new CodeQuality();
+        handoff.put(CodeQualityType.SecurityAnalysis, project("a"), codeQuality);
+
+        assertThat(handoff.take(CodeQualityType.StaticAnalysis, project("a")), is(nullValue()));
+        assertThat(handoff.take(CodeQualityType.SecurityAnalysis, project("a")), is(sameInstance(codeQuality)));
+        assertThat(handoff.take(CodeQualityType.SecurityAnalysis, project("a")), is(nullValue()));
+    }
+
+    @Test
+    public void expiredCodeQualityIsDropped() {
+        CodeQualityHandoff handoff = new CodeQualityHandoff(0);
+        handoff.put(CodeQualityType.SecurityAnalysis, project("a"), new CodeQuality());
+        handoff.put(CodeQualityType.SecurityAnalysis, project("b"), new CodeQuality());
+
+        assertThat(handoff.size(), is(1));
+        assertThat(handoff.take(CodeQualityType.SecurityAnalysis, project("b")), is(nullValue()));
+    }
+
+    @Test
+    public void purgesExpiredCodeQualityOncePerTimeToLive() {
+        AtomicLong now = new AtomicLong(0);
+        CodeQualityHandoff handoff = new CodeQualityHandoff(1000, now::get);
+        handoff.put(CodeQualityType.SecurityAnalysis, project("a"), new CodeQuality());
+
+        now.set(999);
+        handoff.put(CodeQualityType.SecurityAnalysis, project("b"), new CodeQuality());
+        assertThat(handoff.size(), is(2));
+
+        now.set(1000);
+        handoff.put(CodeQualityType.SecurityAnalysis, project("c"), new CodeQuality());
+        assertThat(handoff.size(), is(2));
+        assertThat(handoff.take(CodeQualityType.SecurityAnalysis, project("a")), is(nullValue()));
+    }
+
+    private static SonarProject project(String key) {
+        SonarProject project = new SonarProject();
+        project.setInstanceUrl("http://sonar");
+        project.setProjectKey(key);
+        return project;
+    }
+}
@@ -0,0 +1,74 @@
+package com.capitalone.dashboard.collector;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ConsistentHashRingTest {
+    private final List<String> keys = new ArrayList<>();
+
+    public ConsistentHashRingTest() {
+        for (int i = 0; i < 30000; i++) {
+            keys.add(new ObjectId().toHexString());
+        }
+    }
+
+    @Test
+    public void spreadsKeysEvenlyOverTheNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 128);
+
+        Map<String, Integer> counts = new HashMap<>();
+        keys.forEach(key -> counts.merge(ring.owner(key), 1, Integer::sum));
+
+        assertThat(counts.size(), is(3));
+        for (int count : counts.values()) {
+            assertThat(count, greaterThan(8000));
+            assertThat(count, lessThan(12000));
+        }
+    }
+
+    @Test
+    public void aJoiningNodeTakesKeysOnlyFromTheOthers() {
+        ConsistentHashRing three = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 128);
+        ConsistentHashRing four = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"), 128);
+
+        int moved = 0;
+        for (String key : keys) {
+            String before = three.owner(key);
+            String after = four.owner(key);
+            if (!before.equals(after)) {
+                assertThat(after, is("d"));
+                moved++;
+            }
+        }
+        // about a quarter of the keys move to the new node
+        assertThat(moved, greaterThan(5500));
+        assertThat(moved, lessThan(9500));
+    }
+
+    @Test
+    public void keysOfALeavingNodeAreSpreadOverTheRest() {
+        ConsistentHashRing three = new ConsistentHashRing(Arrays.asList("a", "b", "c"), 128);
+        ConsistentHashRing two = new ConsistentHashRing(Arrays.asList("c", "a"), 128);
+
+        for (String key : keys) {
+            String before = three.owner(key);
+            if (!"b".equals(before)) {
+                assertThat(two.owner(key), is(before));
+            }
+        }
+        assertThat(new ConsistentHashRing(Collections.emptyList(), 128).owner("key"), is(nullValue()));
+    }
+}
@@ -1,31 +1,51 @@
 package com.capitalone.dashboard.collector;
 
-import com.capitalone.dashboard.client.RestClient;
 import com.capitalone.dashboard.model.CodeQuality;
 import com.capitalone.dashboard.model.CodeQualityType;
 import com.capitalone.dashboard.model.SonarProject;
 import com.capitalone.dashboard.util.Supplier;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestOperations;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -40,7 +60,9 @@ public class DefaultSonar6ClientTest {
 
     private static final String URL_RESOURCES = "/api/components/search?qualifiers=TRK&ps=500";
     private static final String URL_RESOURCE_DETAILS = "/api/measures/component?format=json&componentId=%s&metricKeys=%s&includealerts=true";
-    private static final String URL_PROJECT_ANALYSES = "/api/project_analyses/search?project=%s";
+    private static final String URL_PROJECT_ANALYSES = "/api/project_analyses/search?project=%s&ps=1";
+    private static final String URL_MEASURES_SEARCH = "/api/measures/search?projectKeys=%s&metricKeys=%s";
+    private static final String URL_PROJECTS_SEARCH = "/api/projects/search?projects=%s&ps=%d";
     private static final String SONAR_URL = "http://sonar.com";
     private static final String METRICS = "ncloc,violations,critical_violations,major_violations,blocker_violations,tests,test_success_density,test_errors,test_failures,coverage,line_coverage,sqale_index,alert_status,quality_gate_details";
     private static final String SECURITY_METRICS = "vulnerabilities,new_vulnerabilities";
@@ -49,14 +71,14 @@ public class DefaultSonar6ClientTest {
     public void init() {
         when(restOperationsSupplier.get()).thenReturn(rest);
         settings = new SonarSettings();
-        defaultSonar6Client = new DefaultSonar6Client(new RestClient(restOperationsSupplier), settings);
+        defaultSonar6Client = new DefaultSonar6Client(new StreamingRestClient(restOperationsSupplier), settings);
     }
 
     @Test
     public void getProjects() throws Exception {
         String projectJson = getJson("sonar6projects.json");
         String projectsUrl = SONAR_URL + URL_RESOURCES;
-        doReturn(new ResponseEntity<>(projectJson, HttpStatus.OK)).when(rest).exchange(eq(projectsUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
+        respond(projectsUrl, projectJson);
         List<SonarProject> projects = defaultSonar6Client.getProjects(SONAR_URL);
         assertThat(projects.size(), is(2));
         assertThat(projects.get(0).getProjectName(), is("com.capitalone.test:TestProject"));
@@ -76,14 +98,35 @@ public class DefaultSonar6ClientTest {
         String projectsUrl2 = SONAR_URL + URL_RESOURCES+"&p=2";
         String projectsUrl3 = SONAR_URL + URL_RESOURCES+"&p=3";
         String projectsUrl4 = SONAR_URL + URL_RESOURCES+"&p=4";
-        doReturn(new ResponseEntity<>(projectJson500, HttpStatus.OK)).when(rest).exchange(eq(projectsUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
-        doReturn(new ResponseEntity<>(projectJson500, HttpStatus.OK)).when(rest).exchange(eq(projectsUrl1), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
-        doReturn(new ResponseEntity<>(projectJson1000, HttpStatus.OK)).when(rest).exchange(eq(projectsUrl2), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
-        doReturn(new ResponseEntity<>(projectJson1500, HttpStatus.OK)).when(rest).exchange(eq(projectsUrl3), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
-        doReturn(new ResponseEntity<>(projectJson2000, HttpStatus.OK)).when(rest).exchange(eq(projectsUrl4), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
+        respond(projectsUrl, projectJson500);
+        respond(projectsUrl2, projectJson1000);
+        respond(projectsUrl3, projectJson1500);
+        respond(projectsUrl4, projectJson2000);
 
         List<SonarProject> projects = defaultSonar6Client.getProjects(SONAR_URL);
         assertThat(projects.size(), is(2000));
+        // pages come back in order even though they are fetched concurrently
+        assertThat(projects.get(0).getProjectId(), is(firstProjectId(projectJson500)));
+        assertThat(projects.get(500).getProjectId(), is(firstProjectId(projectJson1000)));
+        assertThat(projects.get(1000).getProjectId(), is(firstProjectId(projectJson1500)));
+        assertThat(projects.get(1500).getProjectId(), is(firstProjectId(projectJson2000)));
+        // the first response already is page one
+        verify(rest, times(1)).execute(eq(projectsUrl), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, never()).execute(eq(projectsUrl1), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void getProjectsUnauthenticatedStopsAtPageLimit() throws Exception {
+        String projectsUrl = SONAR_URL + URL_RESOURCES;
+        respond(projectsUrl, getJson("sonar6projects500.json").replace("\"total\": 2000", "\"total\": 50000"));
+        String page = getJson("sonar6projects1000.json");
+        for (int p = 2; p <= 20; p++) {
+            respond(projectsUrl + "&p=" + p, page);
+        }
+
+        List<SonarProject> projects = defaultSonar6Client.getProjects(SONAR_URL);
+        assertThat(projects.size(), is(20 * 500));
+        verify(rest, never()).execute(eq(projectsUrl + "&p=21"), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
     }
 
     @Test
@@ -93,8 +136,8 @@ public class DefaultSonar6ClientTest {
         SonarProject project = getProject();
         String measureUrl = String.format(SONAR_URL + URL_RESOURCE_DETAILS,project.getProjectId(),METRICS);
         String analysesUrl = String.format(SONAR_URL + URL_PROJECT_ANALYSES,project.getProjectName());
-        doReturn(new ResponseEntity<>(measureJson, HttpStatus.OK)).when(rest).exchange(eq(measureUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
-        doReturn(new ResponseEntity<>(analysesJson, HttpStatus.OK)).when(rest).exchange(eq(analysesUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
+        respond(measureUrl, measureJson);
+        respond(analysesUrl, analysesJson);
         CodeQuality quality = defaultSonar6Client.currentStaticCodeQuality(getProject());
         assertThat(quality.getMetrics().size(), is(15));
         assertThat(quality.getType(), is (CodeQualityType.StaticAnalysis));
@@ -109,8 +152,8 @@ public class DefaultSonar6ClientTest {
         SonarProject project = getProject();
         String measureUrl = String.format(SONAR_URL + URL_RESOURCE_DETAILS,project.getProjectId(),SECURITY_METRICS);
         String analysesUrl = String.format(SONAR_URL + URL_PROJECT_ANALYSES,project.getProjectName());
-        doReturn(new ResponseEntity<>(measureJson, HttpStatus.OK)).when(rest).exchange(eq(measureUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
-        doReturn(new ResponseEntity<>(analysesJson, HttpStatus.OK)).when(rest).exchange(eq(analysesUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
+        respond(measureUrl, measureJson);
+        respond(analysesUrl, analysesJson);
         CodeQuality quality = defaultSonar6Client.currentSecurityCodeQuality(getProject());
         assertThat(quality.getMetrics().size(), is(1));
         assertThat(quality.getType(), is (CodeQualityType.SecurityAnalysis));
@@ -125,8 +168,8 @@ public class DefaultSonar6ClientTest {
         SonarProject project = getProject();
         String measureUrl = String.format(SONAR_URL + URL_RESOURCE_DETAILS,project.getProjectId(),METRICS);
         String analysesUrl = String.format(SONAR_URL + URL_PROJECT_ANALYSES,project.getProjectName());
-        doReturn(new ResponseEntity<>(measureJson, HttpStatus.OK)).when(rest).exchange(eq(measureUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
-        doReturn(new ResponseEntity<>(analysesJson, HttpStatus.OK)).when(rest).exchange(eq(analysesUrl), eq(HttpMethod.GET), Matchers.any(HttpEntity.class), eq(String.class));
+        respond(measureUrl, measureJson);
+        respond(analysesUrl, analysesJson);
         CodeQuality quality = defaultSonar6Client.currentStaticCodeQuality(getProject());
         assertThat(quality.getMetrics().size(), is(15));
         assertThat(quality.getType(), is (CodeQualityType.StaticAnalysis));
@@ -136,6 +179,353 @@ public class DefaultSonar6ClientTest {
 
 
 
+    @Test
+    public void sessionsKeepTheirOwnCredentials() throws Exception {
+        String projectJson = getJson("sonar6projects.json");
+        String projectsUrl = SONAR_URL + URL_RESOURCES;
+        respond(projectsUrl, projectJson);
+
+        SonarClient first = defaultSonar6Client.forSession(new SonarServerSession(SONAR_URL, 6.7, null, null, "first-token"));
+        SonarClient second = defaultSonar6Client.forSession(new SonarServerSession(SONAR_URL, 6.7, "bob", "secret", null));
+        first.getProjects(SONAR_URL);
+        second.getProjects(SONAR_URL);
+        first.getProjects(SONAR_URL);
+
+        ArgumentCaptor<RequestCallback> requests = ArgumentCaptor.forClass(RequestCallback.class);
+        verify(rest, times(3)).execute(eq(projectsUrl), eq(HttpMethod.GET), requests.capture(), Matchers.<ResponseExtractor<Object>>any());
+        for (int i = 0; i < 3; i++) {
+            String expected = i == 1 ? basic("bob:secret") : basic("first-token:");
+            assertThat(authorization(requests.getAllValues().get(i)), is(expected));
+        }
+    }
+
+    @Test
+    public void malformedResponseIsReportedAsRestClientException() throws Exception {
+        SonarProject project = getProject();
+        String measureUrl = String.format(SONAR_URL + URL_RESOURCE_DETAILS,project.getProjectId(),METRICS);
+        respond(measureUrl, "{\"component\": {\"measures\": [");
+
+        assertThat(defaultSonar6Client.currentStaticCodeQuality(project), is(nullValue()));
+    }
+
+    @Test
+    public void analysisActivitySinceLastCheck() throws Exception {
+        String activityUrl = SONAR_URL + "/api/ce/activity?type=REPORT&status=SUCCESS&ps=1000&minSubmittedAt=2017-12-01T10%3A00%3A00%2B0000&p=1";
+        String activityJson = getJson("sonar6activity.json");
+        doAnswer(invocation -> extract(invocation.getArguments()[3], activityJson))
+                .when(rest).execute(eq(URI.create(activityUrl)), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+
+        AnalysisActivity activity = defaultSonar6Client.getAnalysisActivity(SONAR_URL, 1512122400000L);
+
+        assertThat(activity.size(), is(2));
+        assertThat(activity.includes(getProject()), is(true));
+        SonarProject unchanged = getProject();
+        unchanged.setProjectId("BVx3b-MAphY78UZXuYHp");
+        unchanged.setProjectName("com.capitalone.test:AnotherTestProject");
+        assertThat(activity.includes(unchanged), is(false));
+    }
+
+    @Test
+    public void analysisActivityUnavailable() throws Exception {
+        doThrow(new HttpClientErrorException(HttpStatus.FORBIDDEN))
+                .when(rest).execute(Matchers.any(URI.class), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+
+        assertThat(defaultSonar6Client.getAnalysisActivity(SONAR_URL, 0), is(nullValue()));
+    }
+
+    @Test
+    public void qualityProfileChangelogWithoutTotalIsReadUntilAShortPage() throws Exception {
+        String changesUrl = SONAR_URL + "/api/qualityprofiles/changelog?profileKey=AVx&ps=500&p=";
+        respond(URI.create(changesUrl + 1), changelogPage(QualityProfileChangelog.PAGE_SIZE));
+        respond(URI.create(changesUrl + 2), changelogPage(3));
+
+        JSONArray changes = defaultSonar6Client.getQualityProfileConfigurationChanges(SONAR_URL, "AVx", 0);
+
+        assertThat(changes.size(), is(QualityProfileChangelog.PAGE_SIZE + 3));
+        verify(rest, never()).execute(eq(URI.create(changesUrl + 3)), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void qualityProfileChangelogBeyondThePageLimitIsReadFromTheOldestChanges() throws Exception {
+        String changesUrl = SONAR_URL + "/api/qualityprofiles/changelog?profileKey=AVx&ps=500";
+        String newest = "2017-10-05T10:00:00+0000";
+        String before = changesUrl + "&to=" + URLEncoder.encode(newest, "UTF-8") + "&p=";
+        int pageSize = QualityProfileChangelog.PAGE_SIZE;
+        // 1000 of the changes share the newest date, without them the changelog starts a page earlier
+        long total = (long) QualityProfileChangelog.MAX_PAGES * pageSize + 1000;
+        long older = total - 1000;
+        doAnswer(invocation -> {
+            String uri = invocation.getArguments()[0].toString();
+            int page = Integer.parseInt(uri.substring(uri.lastIndexOf("&p=") + 3));
+            if (!uri.startsWith(before)) {
+                return extract(invocation.getArguments()[3], changelogPage(pageSize, newest, total));
+            }
+            long left = older - (long) (page - 1) * pageSize;
+            return extract(invocation.getArguments()[3], changelogPage((int) Math.max(0, Math.min(pageSize, left)), "2017-10-04T15:57:40+0000", older));
+        }).when(rest).execute(Matchers.any(URI.class), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+
+        JSONArray changes = defaultSonar6Client.getQualityProfileConfigurationChanges(SONAR_URL, "AVx", 0);
+
+        // the oldest changes are read, the ones of the newest date are left for the next read
+        assertThat(changes.size(), is((int) older));
+        assertThat(((JSONObject) changes.get(0)).get("date"), is("2017-10-04T15:57:40+0000"));
+        verify(rest, never()).execute(eq(URI.create(changesUrl + "&p=2")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        // page 3, guessed from the total of all changes, is read again in order
+        verify(rest, times(2)).execute(eq(URI.create(before + 3)), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, times(1)).execute(eq(URI.create(before + 1)), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, never()).execute(eq(URI.create(before + (QualityProfileChangelog.MAX_PAGES + 1))), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void currentCodeQualityOfSeveralProjectsInOneMeasuresRequest() throws Exception {
+        List<SonarProject> projects = Arrays.asList(
+                keyedProject("com.capitalone.test:TestProject"),
+                keyedProject("com.capitalone.test:AnotherTestProject"),
+                keyedProject("com.capitalone.test:NeverAnalysed"));
+        URI searchUri = measuresSearch(METRICS, "com.capitalone.test:TestProject", "com.capitalone.test:AnotherTestProject", "com.capitalone.test:NeverAnalysed");
+        respond(searchUri, getJson("sonar6measuresSearch.json"));
+        respond(projectsSearch("com.capitalone.test:TestProject", "com.capitalone.test:AnotherTestProject", "com.capitalone.test:NeverAnalysed"),
+                getJson("sonar6projectsSearch.json"));
+        String analysesJson = getJson("sonar6analyses.json");
+        respond(projectAnalyses("com.capitalone.test:TestProject"), analysesJson);
+        respond(projectAnalyses("com.capitalone.test:AnotherTestProject"), analysesJson);
+
+        Map<String, CodeQuality> qualities = new HashMap<>();
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis,
+                (project, quality) -> qualities.put(project.getProjectKey(), quality));
+
+        assertThat(qualities.size(), is(3));
+        CodeQuality quality = qualities.get("com.capitalone.test:TestProject");
+        assertThat(quality.getType(), is(CodeQualityType.StaticAnalysis));
+        assertThat(quality.getName(), is("com.capitalone.test:TestProject"));
+        assertThat(quality.getVersion(), is("2.0.0"));
+        // measures without a value are not kept
+        assertThat(quality.getMetrics().size(), is(3));
+        assertThat(qualities.get("com.capitalone.test:AnotherTestProject").getMetrics().size(), is(1));
+        // a project never analysed has no measures and no analysis to read
+        CodeQuality neverAnalysed = qualities.get("com.capitalone.test:NeverAnalysed");
+        assertThat(neverAnalysed.getMetrics().size(), is(0));
+        assertThat(neverAnalysed.getTimestamp(), is(0L));
+        verify(rest, never()).execute(eq(projectAnalyses("com.capitalone.test:NeverAnalysed")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, times(1)).execute(eq(searchUri), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void currentCodeQualityTakesTheDateOfProjectsNotAnalysedSinceTheirUpdate() throws Exception {
+        long analysed = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").parse("2017-04-29T13:57:26-0400").getTime();
+        List<SonarProject> projects = Arrays.asList(
+                keyedProject("com.capitalone.test:TestProject"),
+                keyedProject("com.capitalone.test:AnotherTestProject"));
+        projects.forEach(project -> project.setLastUpdated(analysed + 60000));
+        respond(measuresSearch(METRICS, "com.capitalone.test:TestProject", "com.capitalone.test:AnotherTestProject"),
+                getJson("sonar6measuresSearch.json"));
+        respond(projectsSearch("com.capitalone.test:TestProject", "com.capitalone.test:AnotherTestProject"),
+                getJson("sonar6projectsSearch.json"));
+
+        Map<String, CodeQuality> qualities = new HashMap<>();
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis,
+                (project, quality) -> qualities.put(project.getProjectKey(), quality));
+
+        assertThat(qualities.get("com.capitalone.test:TestProject").getTimestamp(), is(analysed));
+        assertThat(qualities.get("com.capitalone.test:AnotherTestProject").getTimestamp(), is(analysed));
+        // one measures search and one projects search, no analysis read
+        verify(rest, times(2)).execute(Matchers.any(URI.class), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void currentCodeQualityReadsEveryAnalysisWhenProjectsMayNotBeSearched() throws Exception {
+        settings.setMeasuresBatchSize(1);
+        defaultSonar6Client = new DefaultSonar6Client(new StreamingRestClient(restOperationsSupplier), settings);
+        List<SonarProject> projects = Arrays.asList(
+                keyedProject("com.capitalone.test:TestProject"),
+                keyedProject("com.capitalone.test:AnotherTestProject"));
+        String measuresJson = getJson("sonar6measuresSearch.json");
+        respond(measuresSearch(METRICS, "com.capitalone.test:TestProject"), measuresJson);
+        respond(measuresSearch(METRICS, "com.capitalone.test:AnotherTestProject"), measuresJson);
+        doThrow(new HttpClientErrorException(HttpStatus.FORBIDDEN))
+                .when(rest).execute(eq(projectsSearch("com.capitalone.test:TestProject")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        String analysesJson = getJson("sonar6analyses.json");
+        respond(projectAnalyses("com.capitalone.test:TestProject"), analysesJson);
+        respond(projectAnalyses("com.capitalone.test:AnotherTestProject"), analysesJson);
+
+        Map<String, CodeQuality> qualities = new HashMap<>();
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis,
+                (project, quality) -> qualities.put(project.getProjectKey(), quality));
+
+        assertThat(qualities.get("com.capitalone.test:TestProject").getVersion(), is("2.0.0"));
+        assertThat(qualities.get("com.capitalone.test:AnotherTestProject").getVersion(), is("2.0.0"));
+        // a refused projects search is not asked again
+        verify(rest, never()).execute(eq(projectsSearch("com.capitalone.test:AnotherTestProject")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void measuresSearchEncodesTheProjectKeys() throws Exception {
+        List<SonarProject> projects = Arrays.asList(keyedProject("group:a&b"), keyedProject("group:c d"));
+        URI searchUri = URI.create(SONAR_URL + "/api/measures/search?projectKeys=group%3Aa%26b,group%3Ac+d&metricKeys=" + METRICS);
+        respond(searchUri, "{\"measures\": []}");
+        respond(projectsSearch("group:a&b", "group:c d"), "{\"components\": []}");
+
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis, (project, quality) -> { });
+
+        verify(rest, times(1)).execute(eq(searchUri), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, times(1)).execute(eq(URI.create(SONAR_URL + "/api/project_analyses/search?project=group%3Aa%26b&ps=1")),
+                eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void fusedMeasuresFeedBothCollectorsFromOneRequest() throws Exception {
+        settings.setFusedMeasures(true);
+        defaultSonar6Client = new DefaultSonar6Client(new StreamingRestClient(restOperationsSupplier), settings);
+        List<SonarProject> projects = Arrays.asList(
+                keyedProject("com.capitalone.test:TestProject"),
+                keyedProject("com.capitalone.test:AnotherTestProject"));
+        respond(measuresSearch(METRICS + "," + SECURITY_METRICS, "com.capitalone.test:TestProject", "com.capitalone.test:AnotherTestProject"),
+                getJson("sonar6measuresSearch.json"));
+        respond(projectsSearch("com.capitalone.test:TestProject", "com.capitalone.test:AnotherTestProject"),
+                getJson("sonar6projectsSearch.json"));
+        String analysesJson = getJson("sonar6analyses.json");
+        respond(projectAnalyses("com.capitalone.test:TestProject"), analysesJson);
+        respond(projectAnalyses("com.capitalone.test:AnotherTestProject"), analysesJson);
+
+        Map<String, CodeQuality> staticQualities = new HashMap<>();
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis,
+                (project, quality) -> staticQualities.put(project.getProjectKey(), quality));
+        Map<String, CodeQuality> securityQualities = new HashMap<>();
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.SecurityAnalysis,
+                (project, quality) -> securityQualities.put(project.getProjectKey(), quality));
+
+        assertThat(staticQualities.get("com.capitalone.test:TestProject").getMetrics().size(), is(3));
+        CodeQuality security = securityQualities.get("com.capitalone.test:TestProject");
+        assertThat(security.getType(), is(CodeQualityType.SecurityAnalysis));
+        assertThat(security.getVersion(), is("2.0.0"));
+        assertThat(security.getTimestamp(), is(staticQualities.get("com.capitalone.test:TestProject").getTimestamp()));
+        assertThat(security.getMetrics().iterator().next().getName(), is("vulnerabilities"));
+        assertThat(securityQualities.get("com.capitalone.test:AnotherTestProject").getMetrics().size(), is(0));
+        // one measures search, one projects search and one analyses request per project, nothing for the security collector
+        verify(rest, times(4)).execute(Matchers.any(URI.class), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void measuresBatchIsHalvedWhenTheServerRejectsItsLength() throws Exception {
+        List<SonarProject> projects = Arrays.asList(keyedProject("a"), keyedProject("b"), keyedProject("c"), keyedProject("d"));
+        String empty = "{\"measures\": []}";
+        doThrow(new HttpClientErrorException(HttpStatus.REQUEST_URI_TOO_LONG))
+                .when(rest).execute(eq(measuresSearch(METRICS, "a", "b", "c", "d")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        respond(measuresSearch(METRICS, "a", "b"), empty);
+        respond(measuresSearch(METRICS, "c", "d"), empty);
+        respond(projectsSearch("a", "b"), neverAnalysed("a", "b"));
+        respond(projectsSearch("c", "d"), neverAnalysed("c", "d"));
+
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis, (project, quality) -> { });
+        // only the rejected batch was split, the next refresh tries all of them at once again
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis, (project, quality) -> { });
+
+        verify(rest, times(2)).execute(eq(measuresSearch(METRICS, "a", "b", "c", "d")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, times(2)).execute(eq(measuresSearch(METRICS, "a", "b")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, times(2)).execute(eq(measuresSearch(METRICS, "c", "d")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    @Test
+    public void measuresBatchStaysBelowTheUrlLengthLimit() throws Exception {
+        settings.setMaxUrlLength(SONAR_URL.length() + URL_MEASURES_SEARCH.length() + METRICS.length() + 4);
+        defaultSonar6Client = new DefaultSonar6Client(new StreamingRestClient(restOperationsSupplier), settings);
+        List<SonarProject> projects = Arrays.asList(keyedProject("a"), keyedProject("b"), keyedProject("c"));
+        String empty = "{\"measures\": []}";
+        respond(measuresSearch(METRICS, "a", "b"), empty);
+        respond(measuresSearch(METRICS, "c"), empty);
+        respond(projectsSearch("a", "b"), neverAnalysed("a", "b"));
+        respond(projectsSearch("c"), neverAnalysed("c"));
+
+        defaultSonar6Client.currentCodeQuality(projects, CodeQualityType.StaticAnalysis, (project, quality) -> { });
+
+        verify(rest, times(1)).execute(eq(measuresSearch(METRICS, "a", "b")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+        verify(rest, times(1)).execute(eq(measuresSearch(METRICS, "c")), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    private URI measuresSearch(String metrics, String... keys) throws Exception {
+        return URI.create(String.format(SONAR_URL + URL_MEASURES_SEARCH, encode(keys), metrics));
+    }
+
+    private URI projectsSearch(String... keys) throws Exception {
+        return URI.create(String.format(SONAR_URL + URL_PROJECTS_SEARCH, encode(keys), keys.length));
+    }
+
+    private URI projectAnalyses(String key) throws Exception {
+        return URI.create(String.format(SONAR_URL + URL_PROJECT_ANALYSES, encode(key)));
+    }
+
+    private String neverAnalysed(String... keys) {
+        StringBuilder page = new StringBuilder("{\"components\": [");
+        for (int i = 0; i < keys.length; i++) {
+            page.append(i == 0 ? "" : ",").append("{\"key\": \"").append(keys[i]).append("\", \"qualifier\": \"TRK\"}");
+        }
+        return page.append("]}").toString();
+    }
+
+    private String encode(String... keys) throws Exception {
+        StringBuilder encoded = new StringBuilder();
+        for (String key : keys) {
+            encoded.append(encoded.length() == 0 ? "" : ",").append(URLEncoder.encode(key, "UTF-8"));
+        }
+        return encoded.toString();
+    }
+
+    private SonarProject keyedProject(String key) {
+        SonarProject project = new SonarProject();
+        project.setInstanceUrl(SONAR_URL);
+        project.setProjectName(key);
+        project.setProjectKey(key);
+        return project;
+    }
+
+    private Object extract(Object responseExtractor, String json) throws IOException {
+        return ((ResponseExtractor<?>) responseExtractor).extractData(new MockClientHttpResponse(json.getBytes(StandardCharsets.UTF_8), HttpStatus.OK));
+    }
+
+    private void respond(String url, String json) {
+        doAnswer(invocation -> {
+            ResponseExtractor<?> extractor = (ResponseExtractor<?>) invocation.getArguments()[3];
+            try {
+                return extractor.extractData(new MockClientHttpResponse(json.getBytes(StandardCharsets.UTF_8), HttpStatus.OK));
+            } catch (IOException e) {
+                // RestTemplate reports unreadable responses the same way
+                throw new ResourceAccessException(e.getMessage(), e);
+            }
+        }).when(rest).execute(eq(url), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    private void respond(URI uri, String json) {
+        doAnswer(invocation -> extract(invocation.getArguments()[3], json))
+                .when(rest).execute(eq(uri), eq(HttpMethod.GET), Matchers.any(RequestCallback.class), Matchers.<ResponseExtractor<Object>>any());
+    }
+
+    private String changelogPage(int changes) {
+        return changelogPage(changes, "2017-10-04T15:57:40+0000", -1);
+    }
+
+    private String changelogPage(int changes, String date, long total) {
+        StringBuilder page = new StringBuilder(total < 0 ? "{" : "{\"total\": " + total + ", ").append("\"events\": [");
+        for (int i = 0; i < changes; i++) {
+            page.append(i == 0 ? "" : ",").append("{\"date\": \"").append(date).append("\", \"action\": \"ACTIVATED\", \"ruleKey\": \"squid:S").append(i).append("\"}");
+        }
+        return page.append("]}").toString();
+    }
+
+    private String authorization(RequestCallback callback) throws IOException {
+        MockClientHttpRequest request = new MockClientHttpRequest();
+        callback.doWithRequest(request);
+        return request.getHeaders().getFirst("Authorization");
+    }
+
+    private String basic(String credentials) {
+        return "Basic " + new String(Base64.encodeBase64(credentials.getBytes(StandardCharsets.US_ASCII)), StandardCharsets.US_ASCII);
+    }
+
+    private String firstProjectId(String json) throws Exception {
+        JSONObject page = (JSONObject) new JSONParser().parse(json);
+        return (String) ((JSONObject) ((JSONArray) page.get("components")).get(0)).get("id");
+    }
+
     private String getJson(String fileName) throws IOException {
         InputStream inputStream = DefaultSonar6ClientTest.class.getResourceAsStream(fileName);
         return IOUtils.toString(inputStream);
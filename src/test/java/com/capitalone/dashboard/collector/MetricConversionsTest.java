@@ -0,0 +1,66 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CodeQualityMetric;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MetricConversionsTest {
+    private final MetricConversions conversions = new MetricConversions(null, Locale.US);
+
+    @Test
+    public void formatsLikeStringFormatWithGrouping() {
+        for (String value : new String[]{"0", "7", "999", "1000", "26518", "007", "0001234", "2147483647", "123456789"}) {
+            assertThat(conversions.format("ncloc", value), is(String.format(Locale.US, "%,d", Integer.valueOf(value))));
+        }
+        assertThat(conversions.format("ncloc", "12345678901234"), is("12,345,678,901,234"));
+        assertThat(new MetricConversions(null, Locale.GERMANY).format("ncloc", "26518"), is("26.518"));
+    }
+
+    @Test
+    public void keepsSmallNumbersAndOtherValuesAsReported() {
+        String small = "512";
+        assertThat(conversions.format("tests", small), sameInstance(small));
+        assertThat(conversions.format("alert_status", "ERROR"), is("ERROR"));
+        assertThat(conversions.format("violations", "-5"), is("-5"));
+        assertThat(conversions.format("violations", ""), is(""));
+        assertThat(conversions.format("coverage", "26.4"), is("26.4%"));
+        assertThat(conversions.format("coverage", ".5"), is(".5"));
+        assertThat(conversions.format("quality_gate_details", "{\"level\":\"OK\"}"), is("{\"level\":\"OK\"}"));
+    }
+
+    @Test
+    public void formatsTechnicalDebtAsWorkingDays() {
+        assertThat(conversions.format("sqale_index", "0"), is("0"));
+        assertThat(conversions.format("sqale_index", "45"), is("45min"));
+        assertThat(conversions.format("sqale_index", "200"), is("3h 20min"));
+        assertThat(conversions.format("sqale_index", "6225"), is("12d"));
+        assertThat(conversions.format("sqale_index", "600"), is("1d 2h"));
+        assertThat(conversions.format("sqale_index", "-600"), is("-1d 2h"));
+        assertThat(conversions.format("sqale_index", "-45"), is("-45min"));
+        assertThat(conversions.format("sqale_index", "n/a"), is("n/a"));
+    }
+
+    @Test
+    public void conversionsAreConfiguredPerMetric() {
+        MetricConversions configured = new MetricConversions(Collections.singletonMap("new_technical_debt", " Duration "), Locale.US);
+        assertThat(configured.format("new_technical_debt", "200"), is("3h 20min"));
+        assertThat(new MetricConversions(Collections.singletonMap("sqale_index", "raw"), Locale.US).format("sqale_index", "6225"), is("6225"));
+        assertThat(new MetricConversions(Collections.singletonMap("ncloc", "percent"), Locale.US).format("ncloc", "5"), is("5%"));
+
+        CodeQualityMetric metric = configured.metric("ncloc", "26518");
+        assertThat(metric.getName(), is("ncloc"));
+        assertThat(metric.getValue(), is((Object) "26518"));
+        assertThat(metric.getFormattedValue(), is("26,518"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownConversionsAreRejected() {
+        new MetricConversions(Collections.singletonMap("ncloc", "roman"), Locale.US);
+    }
+}
@@ -0,0 +1,160 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CollectorItemConfigHistory;
+import com.capitalone.dashboard.model.ConfigHistOperationType;
+import com.capitalone.dashboard.model.SonarChangelogMark;
+import com.capitalone.dashboard.model.SonarSecurityAnalysisCollector;
+import com.capitalone.dashboard.model.SonarStaticAnalysisCollector;
+import com.capitalone.dashboard.repository.SonarChangelogMarkRepository;
+import com.capitalone.dashboard.repository.SonarProfileRepostory;
+import com.capitalone.dashboard.repository.SonarProfileRepostoryImpl;
+import com.capitalone.dashboard.repository.SonarSecurityAnalysisCollectorRepository;
+import com.capitalone.dashboard.repository.SonarStaticAnalysisCollectorRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QualityProfileChangelogTaskTest {
+
+    @InjectMocks private QualityProfileChangelogTask task;
+    @Mock private SonarStaticAnalysisCollectorRepository staticCollectorRepository;
+    @Mock private SonarSecurityAnalysisCollectorRepository securityCollectorRepository;
+    @Mock private SonarProfileRepostory sonarProfileRepostory;
+    @Mock private SonarChangelogMarkRepository changelogMarkRepository;
+    @Mock private SonarClientSelector sonarClientSelector;
+    @Mock private SonarSettings sonarSettings;
+    @Mock private DefaultSonar6Client defaultSonar6Client;
+    @Spy private SonarMetrics metrics = new SonarMetrics(new SimpleMeterRegistry());
+    @Spy private ShardCoordinator shards = new ShardCoordinator(new SonarSettings(), null, metrics);
+
+    private static final String SERVER1 = "server1";
+    private static final String QUALITYPROFILE = "cs-default-donotmodify-89073";
+    private static final Double VERSION63 = 6.3;
+
+    private final SonarStaticAnalysisCollector staticCollector = SonarStaticAnalysisCollector.prototype(Collections.singletonList(SERVER1), null);
+    private final SonarSecurityAnalysisCollector securityCollector = SonarSecurityAnalysisCollector.prototype(Collections.singletonList(SERVER1), null);
+    private final JSONArray qualityProfiles = new JSONArray();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        staticCollector.setId(new ObjectId());
+        securityCollector.setId(new ObjectId());
+        when(staticCollectorRepository.findByName("Sonar")).thenReturn(staticCollector);
+        when(securityCollectorRepository.findByName("SonarSecurity")).thenReturn(securityCollector);
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        Mockito.doReturn(defaultSonar6Client).when(defaultSonar6Client).forSession(any(SonarServerSession.class));
+
+        JSONObject qualityProfile = new JSONObject();
+        qualityProfile.put("key", QUALITYPROFILE);
+        qualityProfile.put("projectCount", 3L);
+        qualityProfiles.add(qualityProfile);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void readsChangesSinceTheMarkAndStoresThemForBothCollectors() throws Exception {
+        SonarChangelogMark mark = new SonarChangelogMark(SERVER1, QUALITYPROFILE);
+        mark.setSince(1507125460000L);
+        JSONArray changes = new JSONArray();
+        changes.add(change("bar", "2017-10-05T13:57:40+0000", "DEACTIVATED"));
+        changes.add(change("stored", "2017-10-04T13:57:40+0000", "ACTIVATED"));
+        Mockito.doReturn(qualityProfiles).when(defaultSonar6Client).getQualityProfiles(SERVER1);
+        Mockito.doReturn(changes).when(defaultSonar6Client).getQualityProfileConfigurationChanges(SERVER1, QUALITYPROFILE, 1507125460000L);
+        when(changelogMarkRepository.findByInstanceUrl(SERVER1)).thenReturn(Collections.singletonList(mark));
+        when(sonarProfileRepostory.findProfileConfigChangeKeys(staticCollector.getId(), 1507125460000L, 1507211860000L)).thenReturn(new HashSet<>(Collections.singletonList(
+                SonarProfileRepostoryImpl.changeKey("stored", ConfigHistOperationType.CREATED, 1507125460000L))));
+
+        task.collect();
+
+        verify(defaultSonar6Client, times(1)).getQualityProfileConfigurationChanges(anyString(), anyString(), anyLong());
+        verify(defaultSonar6Client, never()).retrieveProfileAndProjectAssociation(anyString(), anyString());
+        verify(sonarProfileRepostory, never()).findProfileConfigChanges(any(ObjectId.class), any(String.class), any(ConfigHistOperationType.class), any(Long.class));
+        ArgumentCaptor<List> saved = ArgumentCaptor.forClass(List.class);
+        verify(sonarProfileRepostory, times(2)).save(saved.capture());
+        // the security collector has stored nothing yet, the static one only misses the newer change
+        assertThat(saved.getAllValues().get(0).size(), is(2));
+        assertThat(saved.getAllValues().get(1).size(), is(1));
+        assertThat(((CollectorItemConfigHistory) saved.getAllValues().get(1).get(0)).getUserID(), is("bar"));
+        assertThat(mark.getSince(), is(1507211860000L));
+        verify(changelogMarkRepository).save(Collections.singletonList(mark));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void storesEveryChangeOfABulkActivation() throws Exception {
+        JSONArray changes = new JSONArray();
+        changes.add(change("bulk", "2017-10-05T13:57:40+0000", "ACTIVATED"));
+        changes.add(change("bulk", "2017-10-05T13:57:40+0000", "ACTIVATED"));
+        Mockito.doReturn(qualityProfiles).when(defaultSonar6Client).getQualityProfiles(SERVER1);
+        Mockito.doReturn(changes).when(defaultSonar6Client).getQualityProfileConfigurationChanges(SERVER1, QUALITYPROFILE, 0L);
+
+        task.collect();
+
+        verify(sonarProfileRepostory).findProfileConfigChangeKeys(staticCollector.getId(), 1507211860000L, 1507211860000L);
+        ArgumentCaptor<List> saved = ArgumentCaptor.forClass(List.class);
+        verify(sonarProfileRepostory, times(2)).save(saved.capture());
+        assertThat(saved.getAllValues().get(0).size(), is(2));
+        assertThat(saved.getAllValues().get(1).size(), is(2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void skipsProfilesNoProjectUses() throws Exception {
+        ((JSONObject) qualityProfiles.get(0)).put("projectCount", 0L);
+        Mockito.doReturn(qualityProfiles).when(defaultSonar6Client).getQualityProfiles(SERVER1);
+
+        task.collect();
+
+        verify(defaultSonar6Client, never()).getQualityProfileConfigurationChanges(anyString(), anyString(), anyLong());
+        verify(sonarProfileRepostory, never()).save(any(List.class));
+        verify(changelogMarkRepository, never()).save(any(List.class));
+    }
+
+    @Test
+    public void skipsServersWithoutChangelog() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(4.3));
+
+        task.collect();
+
+        verify(sonarClientSelector, never()).getSonarClient(any(Double.class));
+        verify(changelogMarkRepository, never()).findByInstanceUrl(eq(SERVER1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject change(String authorLogin, String date, String action) {
+        JSONObject change = new JSONObject();
+        change.put("authorName", authorLogin);
+        change.put("authorLogin", authorLogin);
+        change.put("date", date);
+        change.put("action", action);
+        return change;
+    }
+}
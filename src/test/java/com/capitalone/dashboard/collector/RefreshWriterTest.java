@@ -0,0 +1,99 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.SonarProject;
+import com.capitalone.dashboard.repository.SonarProjectRepository;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RefreshWriterTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writesFullBatchesAndTheRestOnClose() {
+        SonarProjectRepository repository = Mockito.mock(SonarProjectRepository.class);
+        SonarProject first = project(1L);
+        SonarProject second = project(2L);
+        SonarProject third = project(3L);
+        CodeQuality firstQuality = new CodeQuality();
+        CodeQuality secondQuality = new CodeQuality();
+        CodeQuality thirdQuality = new CodeQuality();
+
+        try (RefreshWriter writer = new RefreshWriter(repository, 2, 60000)) {
+            writer.add(first, firstQuality);
+            verify(repository, never()).writeRefreshed(any(Map.class), any(List.class));
+
+            writer.add(second, secondQuality);
+            Map<ObjectId, Long> lastUpdated = new HashMap<>();
+            lastUpdated.put(first.getId(), 1L);
+            lastUpdated.put(second.getId(), 2L);
+            verify(repository).writeRefreshed(eq(lastUpdated), eq(Arrays.asList(firstQuality, secondQuality)));
+
+            writer.add(third, thirdQuality);
+        }
+
+        verify(repository).writeRefreshed(eq(Collections.singletonMap(third.getId(), 3L)), eq(Collections.singletonList(thirdQuality)));
+        verify(repository, times(2)).writeRefreshed(any(Map.class), any(List.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writesPartialBatchOnceTheFlushIntervalPassed() {
+        SonarProjectRepository repository = Mockito.mock(SonarProjectRepository.class);
+        RefreshWriter writer = new RefreshWriter(repository, 100, 0);
+
+        writer.add(project(1L), new CodeQuality());
+        writer.add(project(2L), new CodeQuality());
+        writer.close();
+
+        verify(repository, times(2)).writeRefreshed(any(Map.class), any(List.class));
+        assertThat(writer.getWritten(), is(2));
+        assertThat(writer.getBatches(), is(2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void handsOnOnlyWrittenCodeQuality() {
+        SonarProjectRepository repository = Mockito.mock(SonarProjectRepository.class);
+        List<CodeQuality> written = new ArrayList<>();
+        RefreshWriter writer = new RefreshWriter(repository, 1, 60000, written::addAll);
+        CodeQuality stored = new CodeQuality();
+        CodeQuality failed = new CodeQuality();
+
+        writer.add(project(1L), stored);
+        Mockito.doThrow(new DataAccessResourceFailureException("down")).when(repository).writeRefreshed(any(Map.class), any(List.class));
+        try {
+            writer.add(project(2L), failed);
+            fail("the failed write is reported");
+        } catch (DataAccessResourceFailureException expected) {
+            // the refresh fails with it
+        }
+
+        assertThat(written, is(Collections.singletonList(stored)));
+    }
+
+    private static SonarProject project(long lastUpdated) {
+        SonarProject project = new SonarProject();
+        project.setId(new ObjectId());
+        project.setLastUpdated(lastUpdated);
+        return project;
+    }
+}
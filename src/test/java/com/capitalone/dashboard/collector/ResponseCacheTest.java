@@ -0,0 +1,129 @@
+package com.capitalone.dashboard.collector;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpHeaders;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ResponseCacheTest {
+    private static final String URL = "http://sonar:9000/api/qualityprofiles/search";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SonarMetrics metrics = new SonarMetrics(registry);
+    private final SonarSettings settings = new SonarSettings();
+    private final AtomicLong now = new AtomicLong(1000);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void servesTheBodyUntilItsTimeToLiveEnds() {
+        ResponseCache cache = new ResponseCache(settings, metrics, now::get);
+
+        assertThat(get(cache, ResponseCache.QUALITY_PROFILES, URL, null), is("{\"profiles\":[]}"));
+        now.addAndGet(14399999);
+        assertThat(get(cache, ResponseCache.QUALITY_PROFILES, URL, null), is("{\"profiles\":[]}"));
+        assertThat(loads.get(), is(1));
+
+        now.addAndGet(1);
+        get(cache, ResponseCache.QUALITY_PROFILES, URL, null);
+        assertThat(loads.get(), is(2));
+
+        assertThat(registry.get("sonar.cache.requests").tags("endpoint", ResponseCache.QUALITY_PROFILES, "result", "hit").counter().count(), is(1.0));
+        assertThat(registry.get("sonar.cache.requests").tags("endpoint", ResponseCache.QUALITY_PROFILES, "result", "miss").counter().count(), is(2.0));
+        assertThat(registry.get("sonar.cache.saved.bytes").tags("endpoint", ResponseCache.QUALITY_PROFILES).counter().count(), is(15.0));
+    }
+
+    @Test
+    public void endpointsWithoutTimeToLiveAreNotCached() {
+        settings.getResponseCacheTtl().put(ResponseCache.VERSION, 0L);
+        ResponseCache cache = new ResponseCache(settings, metrics, now::get);
+
+        get(cache, ResponseCache.VERSION, URL, null);
+        get(cache, ResponseCache.VERSION, URL, null);
+        get(cache, "measures", URL, null);
+
+        assertThat(loads.get(), is(3));
+        assertThat(cache.getBytes(), is(0L));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedBodies() {
+        settings.setResponseCacheSize(40);
+        ResponseCache cache = new ResponseCache(settings, metrics, now::get);
+
+        get(cache, ResponseCache.PROFILE_PROJECTS, URL + "?key=a", null);
+        get(cache, ResponseCache.PROFILE_PROJECTS, URL + "?key=b", null);
+        get(cache, ResponseCache.PROFILE_PROJECTS, URL + "?key=a", null);
+        get(cache, ResponseCache.PROFILE_PROJECTS, URL + "?key=c", null);
+        assertThat(loads.get(), is(3));
+        assertThat(cache.getBytes(), is(28L));
+
+        get(cache, ResponseCache.PROFILE_PROJECTS, URL + "?key=a", null);
+        get(cache, ResponseCache.PROFILE_PROJECTS, URL + "?key=b", null);
+        assertThat(loads.get(), is(4));
+    }
+
+    @Test
+    public void bodiesAreBoundToTheirCredentials() {
+        ResponseCache cache = new ResponseCache(settings, metrics, now::get);
+        HttpHeaders alice = new HttpHeaders();
+        alice.set(HttpHeaders.AUTHORIZATION, "Basic YWxpY2U6");
+        HttpHeaders bob = new HttpHeaders();
+        bob.set(HttpHeaders.AUTHORIZATION, "Basic Ym9iOg==");
+
+        get(cache, ResponseCache.QUALITY_PROFILES, URL, alice);
+        get(cache, ResponseCache.QUALITY_PROFILES, URL, bob);
+        get(cache, ResponseCache.QUALITY_PROFILES, URL, alice);
+
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void diskTierSurvivesARestart() throws Exception {
+        File dir = folder.newFolder("responses");
+        settings.setResponseCacheDir(dir.getPath());
+        get(new ResponseCache(settings, metrics, now::get), ResponseCache.QUALITY_PROFILES, URL, null);
+        get(new ResponseCache(settings, metrics, now::get), ResponseCache.PROFILE_PROJECTS, URL, null);
+        assertThat(dir.list().length, is(2));
+
+        ResponseCache restarted = new ResponseCache(settings, metrics, now::get);
+        assertThat(get(restarted, ResponseCache.QUALITY_PROFILES, URL, null), is("{\"profiles\":[]}"));
+        assertThat(loads.get(), is(2));
+        assertThat(registry.get("sonar.cache.requests").tags("result", "disk").counter().count(), is(1.0));
+
+        // expired bodies are removed when the cache starts
+        now.addAndGet(14400000);
+        new ResponseCache(settings, metrics, now::get);
+        assertThat(dir.list().length, is(0));
+    }
+
+    @Test
+    public void unreadableBodiesAreDropped() {
+        ResponseCache cache = new ResponseCache(settings, metrics, now::get);
+        get(cache, ResponseCache.QUALITY_PROFILES, URL, null);
+
+        cache.evict(ResponseCache.QUALITY_PROFILES, URL, null);
+        get(cache, ResponseCache.QUALITY_PROFILES, URL, null);
+
+        assertThat(loads.get(), is(2));
+    }
+
+    private String get(ResponseCache cache, String endpoint, String url, HttpHeaders headers) {
+        byte[] body = cache.get(endpoint, url, headers, () -> {
+            loads.incrementAndGet();
+            return (url.contains("?key=") ? "{\"results\":[]}" : "{\"profiles\":[]}").getBytes(StandardCharsets.UTF_8);
+        });
+        return new String(body, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,196 @@
+package com.capitalone.dashboard.collector;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RestOperationsSupplierTest {
+    private static final String BODY = "{\"version\":\"7.9.1\"}";
+
+    private HttpServer server;
+    private RestOperationsSupplier supplier;
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private ConcurrencyLimiters limiters;
+    private SonarSettings settings;
+    private CircuitBreakers breakers;
+    private final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+    private final AtomicInteger unavailableRequests = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/server/version", exchange -> {
+            acceptEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")));
+            byte[] body = gzip(BODY);
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/api/components/search", exchange -> {
+            unavailableRequests.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.createContext("/failing/api/components/search", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.createContext("/healthy/api/server/version", exchange -> {
+            byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        settings = new SonarSettings();
+        SonarMetrics metrics = new SonarMetrics(registry);
+        limiters = new ConcurrencyLimiters(settings, metrics);
+        breakers = new CircuitBreakers(settings, metrics);
+        supplier = new RestOperationsSupplier(settings, metrics, limiters, breakers);
+    }
+
+    @After
+    public void stopServer() {
+        supplier.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void negotiatesGzipAndReusesPooledConnections() {
+        String url = "http://localhost:" + server.getAddress().getPort() + "/api/server/version";
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(supplier.get().getForObject(url, String.class), is(BODY));
+        }
+
+        assertThat(acceptEncodings.size(), is(3));
+        assertThat(acceptEncodings.get(0), containsString("gzip"));
+        // one keep-alive connection served all three requests and went back to the pool
+        assertThat(supplier.getPoolStats().getLeased(), is(0));
+        assertThat(supplier.getPoolStats().getAvailable(), is(1));
+    }
+
+    @Test
+    public void timesRequestsByServerAndUrlTemplate() {
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        supplier.get().getForObject(baseUrl + "/api/server/version?a=1&b=2", String.class);
+        supplier.get().getForObject(baseUrl + "/api/server/version?a=3&b=4", String.class);
+
+        assertThat(registry.get("sonar.http.requests")
+                .tags("server", baseUrl, "uri", "/api/server/version?a&b", "status", "200")
+                .timer().count(), is(2L));
+        // both responses were closed and gave their permit back
+        assertThat(registry.get("sonar.concurrency.inflight").tags("server", baseUrl).gauge().value(), is(0.0));
+        assertThat(limiters.getLimit(baseUrl), greaterThan(0));
+    }
+
+    @Test
+    public void stopsSendingToAServerAfterConsecutiveFailures() {
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                supplier.get().getForObject(baseUrl + "/api/components/search", String.class);
+                fail("503 expected");
+            } catch (HttpServerErrorException e) {
+                assertThat(e.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE));
+            }
+        }
+        try {
+            supplier.get().getForObject(baseUrl + "/api/server/version", String.class);
+            fail("open circuit expected");
+        } catch (CircuitBreakers.ServerUnavailableException e) {
+            assertThat(e.getMessage(), containsString("/api/server/version"));
+        }
+
+        assertThat(unavailableRequests.get(), is(5));
+        assertThat(acceptEncodings.size(), is(0));
+        assertThat(registry.get("sonar.circuit.state").tags("server", baseUrl).gauge().value(), is(2.0));
+        assertThat(registry.get("sonar.circuit.rejected").tags("server", baseUrl).counter().count(), is(1.0));
+    }
+
+    @Test
+    public void instancesSharingAHostHaveCircuitsOfTheirOwn() {
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        settings.setServers(Arrays.asList(baseUrl + "/failing/", baseUrl + "/healthy"));
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                supplier.get().getForObject(baseUrl + "/failing/api/components/search", String.class);
+                fail("503 expected");
+            } catch (HttpServerErrorException e) {
+                assertThat(e.getStatusCode(), is(HttpStatus.SERVICE_UNAVAILABLE));
+            }
+        }
+
+        assertThat(supplier.get().getForObject(baseUrl + "/healthy/api/server/version", String.class), is(BODY));
+        assertThat(breakers.isOpen(baseUrl + "/failing/"), is(true));
+        assertThat(breakers.isOpen(baseUrl + "/healthy"), is(false));
+        assertThat(breakers.isOpen(baseUrl), is(false));
+        assertThat(registry.get("sonar.circuit.state").tags("server", baseUrl + "/failing").gauge().value(), is(2.0));
+    }
+
+    @Test
+    public void instancesSharingAHostHaveLimitsOfTheirOwn() {
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        settings.setServers(Arrays.asList(baseUrl + "/healthy/", baseUrl));
+
+        supplier.get().getForObject(baseUrl + "/healthy/api/server/version", String.class);
+
+        assertThat(limiters.getLimit(baseUrl + "/healthy/"), greaterThan(0));
+        assertThat(limiters.getLimit(baseUrl), is(0));
+        assertThat(registry.get("sonar.concurrency.inflight").tags("server", baseUrl + "/healthy").gauge().value(), is(0.0));
+    }
+
+    @Test
+    public void requestsAreMatchedToTheLongestConfiguredInstance() {
+        List<String> servers = Arrays.asList("https://sonar.example.com", "https://sonar.example.com/team/");
+
+        assertThat(RestOperationsSupplier.instance(servers, URI.create("https://sonar.example.com/team/api/server/version")), is("https://sonar.example.com/team"));
+        assertThat(RestOperationsSupplier.instance(servers, URI.create("https://sonar.example.com/teams/api/server/version")), is("https://sonar.example.com"));
+        assertThat(RestOperationsSupplier.instance(servers, URI.create("https://other.example.com:9000/api/server/version")), is("https://other.example.com:9000"));
+    }
+
+    @Test
+    public void urlTemplateKeepsPathAndParameterNames() {
+        assertThat(RestOperationsSupplier.uriTemplate(URI.create("http://sonar:9000/api/measures/search?projectKeys=a%2Cb&metricKeys=ncloc&p=2")),
+                is("/api/measures/search?projectKeys&metricKeys&p"));
+        assertThat(RestOperationsSupplier.uriTemplate(URI.create("http://sonar:9000")), is("/"));
+        assertThat(RestOperationsSupplier.server(URI.create("https://sonar.example.com/api/server/version")), is("https://sonar.example.com"));
+    }
+
+    private static byte[] gzip(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
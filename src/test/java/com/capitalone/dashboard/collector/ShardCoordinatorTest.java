@@ -0,0 +1,111 @@
+package com.capitalone.dashboard.collector;
+
+import com.capitalone.dashboard.model.SonarCollectorLease;
+import com.capitalone.dashboard.repository.SonarCollectorLeaseRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class ShardCoordinatorTest {
+    private final SonarCollectorLeaseRepository leases = mock(SonarCollectorLeaseRepository.class);
+    private final SonarMetrics metrics = new SonarMetrics(new SimpleMeterRegistry());
+    private final AtomicLong now = new AtomicLong(100000);
+
+    @Test
+    public void withoutShardingEveryProjectAndDutyIsTaken() {
+        ShardCoordinator coordinator = new ShardCoordinator(new SonarSettings(), leases, metrics, now::get);
+
+        ShardAssignment assignment = coordinator.assignment("Sonar");
+
+        assertThat(assignment, is(ShardAssignment.ALL));
+        assertThat(assignment.owns(new ObjectId()), is(true));
+        assertThat(assignment.isCoordinator(), is(true));
+        verifyZeroInteractions(leases);
+    }
+
+    @Test
+    public void liveNodesSplitTheProjects() {
+        liveNodes("node-a", "node-b");
+        when(leases.acquire(eq("coordinator:Sonar"), eq("node-a"), anyLong(), anyLong())).thenReturn(true);
+
+        ShardAssignment a = node("node-a").assignment("Sonar");
+        ShardAssignment b = node("node-b").assignment("Sonar");
+
+        assertThat(a.isCoordinator(), is(true));
+        assertThat(b.isCoordinator(), is(false));
+        assertThat(a.getNodes(), is(Arrays.asList("node-a", "node-b")));
+        assertThat(a.getView(), is(b.getView()));
+        int ownedByA = 0;
+        for (int i = 0; i < 1000; i++) {
+            ObjectId project = new ObjectId();
+            assertThat(a.owns(project) != b.owns(project), is(true));
+            ownedByA += a.owns(project) ? 1 : 0;
+        }
+        assertThat(ownedByA, greaterThan(350));
+        assertThat(1000 - ownedByA, greaterThan(350));
+    }
+
+    @Test
+    public void aNodeJoiningChangesTheView() {
+        liveNodes("node-a");
+        ShardCoordinator coordinator = node("node-a");
+        ShardAssignment alone = coordinator.assignment("Sonar");
+        List<ObjectId> projects = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            projects.add(new ObjectId());
+            assertThat(alone.owns(projects.get(i)), is(true));
+        }
+
+        liveNodes("node-a", "node-b");
+        ShardAssignment shared = coordinator.assignment("Sonar");
+
+        assertThat(shared.getView() == alone.getView(), is(false));
+        assertThat(projects.stream().filter(shared::owns).count() < 100, is(true));
+    }
+
+    @Test
+    public void heartbeatRenewsTheLeasesOfTheNode() {
+        when(leases.acquire(anyString(), eq("node-a"), anyLong(), anyLong())).thenReturn(true);
+        liveNodes("node-a");
+        ShardCoordinator coordinator = node("node-a");
+        coordinator.assignment("Sonar");
+
+        now.addAndGet(10000);
+        coordinator.heartbeat();
+
+        verify(leases).acquire("node:node-a", "node-a", 110000, 140000);
+        verify(leases).acquire("coordinator:Sonar", "node-a", 110000, 140000);
+        verify(leases).deleteByExpiresAtLessThan(80000);
+    }
+
+    private ShardCoordinator node(String nodeId) {
+        SonarSettings settings = new SonarSettings();
+        settings.setSharded(true);
+        settings.setNodeId(nodeId);
+        return new ShardCoordinator(settings, leases, metrics, now::get);
+    }
+
+    private void liveNodes(String... nodeIds) {
+        List<SonarCollectorLease> live = new ArrayList<>();
+        for (String nodeId : nodeIds) {
+            live.add(new SonarCollectorLease("node:" + nodeId, nodeId, now.get() + 30000));
+        }
+        when(leases.findByNameStartingWithAndExpiresAtGreaterThan("node:", now.get())).thenReturn(live);
+    }
+}
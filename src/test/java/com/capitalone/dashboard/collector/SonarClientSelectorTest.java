@@ -1,20 +1,36 @@
 package com.capitalone.dashboard.collector;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestOperations;
 
 import com.capitalone.dashboard.util.Supplier;
 
+import java.net.URI;
+
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 @RunWith(MockitoJUnitRunner.class)
 public class SonarClientSelectorTest {
+    private static final String SONAR_URL = "http://sonar";
 
     @InjectMocks
     private SonarClientSelector selector;
@@ -26,6 +42,10 @@ public class SonarClientSelectorTest {
     private DefaultSonar56Client defaultSonar56Client;
     @Mock
     private Supplier<RestOperations> restOperationsSupplier;
+    @Mock
+    private SonarSettings settings;
+    @Mock
+    private RestOperations rest;
 
     @Test
     public void getSonarClient4() throws Exception {
@@ -57,4 +77,64 @@ public class SonarClientSelectorTest {
         assertThat(sonarClient, instanceOf(DefaultSonar6Client.class));
     }
 
+    @Test
+    public void parseVersion() {
+        assertThat(SonarCapabilities.parse("7.9.1.27448", 0).getVersion(), is(7.9));
+        assertThat(SonarCapabilities.parse("6.7", 0).getVersion(), is(6.7));
+        assertThat(SonarCapabilities.parse(" 8\n", 0).getVersion(), is(8.0));
+        assertThat(SonarCapabilities.parse("10.2.1 (build 78527)", 0).getVersion(), is(10.2));
+        assertThat(SonarCapabilities.parse("<html>", 0), is(nullValue()));
+    }
+
+    @Test
+    public void minorVersionsCompareAsNumbers() {
+        SonarCapabilities capabilities = SonarCapabilities.parse("6.10", 0);
+        assertThat(capabilities.isAtLeast(6, 2), is(true));
+        assertThat(capabilities.isAtLeast(6, 11), is(false));
+        assertThat(capabilities.hasMeasuresSearch(), is(true));
+        assertThat(SonarCapabilities.parse("5.10", 0).hasAnalysisActivity(), is(true));
+        assertThat(SonarCapabilities.parse("10.0", 0).isAtLeast(9, 9), is(true));
+    }
+
+    @Test
+    public void capabilitiesAreCachedUntilTheyExpire() {
+        SonarClientSelector selector = selector(3600000);
+        when(rest.exchange(any(URI.class), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(new ResponseEntity<>("7.9.1.27448", HttpStatus.OK));
+
+        SonarCapabilities capabilities = selector.getCapabilities(SONAR_URL);
+        assertThat(selector.getSonarVersion(SONAR_URL), is(7.9));
+
+        assertThat(capabilities.hasMeasuresSearch(), is(true));
+        assertThat(capabilities.hasAnalysisActivity(), is(true));
+        verify(rest, times(1)).exchange(any(URI.class), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class));
+    }
+
+    @Test
+    public void lastKnownCapabilitiesSurviveAFailedCheck() {
+        SonarClientSelector selector = selector(0);
+        when(rest.exchange(any(URI.class), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(new ResponseEntity<>("7.9", HttpStatus.OK))
+                .thenThrow(new ResourceAccessException("down"));
+
+        assertThat(selector.getSonarVersion(SONAR_URL), is(7.9));
+        assertThat(selector.getSonarVersion(SONAR_URL), is(7.9));
+        assertThat(selector.getSonarVersion("http://other"), is(5.0));
+    }
+
+    @Test
+    public void oldServersHaveNoSearchEndpoints() {
+        SonarCapabilities capabilities = SonarCapabilities.forVersion(5.4);
+        assertThat(capabilities.hasMeasuresSearch(), is(false));
+        assertThat(capabilities.hasAnalysisActivity(), is(false));
+    }
+
+    private SonarClientSelector selector(long capabilityTtl) {
+        when(restOperationsSupplier.get()).thenReturn(rest);
+        when(settings.getCapabilityTtl()).thenReturn(capabilityTtl);
+        SonarMetrics metrics = new SonarMetrics(new SimpleMeterRegistry());
+        // the mocked settings configure no time to live, every check asks the server
+        return new SonarClientSelector(defaultSonar6Client, defaultSonar56Client, defaultSonarClient, restOperationsSupplier, settings, metrics,
+                new ResponseCache(settings, metrics));
+    }
 }
@@ -1,29 +1,47 @@
 package com.capitalone.dashboard.collector;
 
-import com.capitalone.dashboard.model.Component;
-import com.capitalone.dashboard.model.ConfigHistOperationType;
+import com.capitalone.dashboard.model.CodeQuality;
+import com.capitalone.dashboard.model.CodeQualityType;
+import com.capitalone.dashboard.model.CollectorType;
+import com.capitalone.dashboard.model.SonarProject;
+import com.capitalone.dashboard.model.SonarRefreshMark;
 import com.capitalone.dashboard.model.SonarStaticAnalysisCollector;
 import com.capitalone.dashboard.repository.CodeQualityRepository;
 import com.capitalone.dashboard.repository.ComponentRepository;
 import com.capitalone.dashboard.repository.SonarStaticAnalysisCollectorRepository;
-import com.capitalone.dashboard.repository.SonarProfileRepostory;
 import com.capitalone.dashboard.repository.SonarProjectRepository;
+import com.capitalone.dashboard.repository.SonarRefreshMarkRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.bson.types.ObjectId;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DataAccessResourceFailureException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -35,10 +53,14 @@ public class SonarStaticAnalysisCollectorTaskTest {
     @Mock private SonarStaticAnalysisCollectorRepository sonarStaticAnalysisCollectorRepository;
     @Mock private SonarProjectRepository sonarProjectRepository;
     @Mock private CodeQualityRepository codeQualityRepository;
-    @Mock private SonarProfileRepostory sonarProfileRepostory;
 
     @Mock private SonarSettings sonarSettings;
     @Mock private ComponentRepository dbComponentRepository;
+    @Mock private SonarRefreshMarkRepository refreshMarkRepository;
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    @Spy private SonarMetrics metrics = new SonarMetrics(registry);
+    @Spy private DiscoverySnapshots discoverySnapshots = new DiscoverySnapshots(metrics);
+    @Spy private ShardCoordinator shards = new ShardCoordinator(new SonarSettings(), null, metrics);
     @Mock private SonarClientSelector sonarClientSelector;
     @Mock private DefaultSonarClient defaultSonarClient;
     @Mock private DefaultSonar6Client defaultSonar6Client;
@@ -52,47 +74,25 @@ public class SonarStaticAnalysisCollectorTaskTest {
     private static final Double VERSION63 = 6.3;
     private static final String NICENAME1 = "niceName1";
     private static final String NICENAME2 = "niceName2";
-    private static final String QUALITYPROFILE = "cs-default-donotmodify-89073";
-    private JSONArray qualityProfiles = new JSONArray();
-    private JSONArray profileConfigurationChanges = new JSONArray();
-    private JSONObject qualityProfile = new JSONObject();
-    private JSONObject profileConfigurationChange = new JSONObject();
-    ConfigHistOperationType operation = ConfigHistOperationType.CHANGED;
 
     @Before
-    public void setup() throws ParseException{
-    	qualityProfile.put("key", QUALITYPROFILE);
-    	qualityProfile.put("name", "Default-DoNotModify");
-    	qualityProfiles.add(qualityProfile);
-
-    	profileConfigurationChange.put("authorName", "foo");
-    	profileConfigurationChange.put("authorLogin", "bar");
-    	profileConfigurationChange.put("date", "2017-10-05T13:57:40+0000");
-    	profileConfigurationChange.put("action", "DEACTIVATED");
-    	profileConfigurationChanges.add(profileConfigurationChange);
-
-    	Mockito.doReturn(qualityProfiles).when(defaultSonarClient).getQualityProfiles(SERVER1);
+    public void setup() {
+    	Mockito.doReturn(defaultSonarClient).when(defaultSonarClient).forSession(any(SonarServerSession.class));
+    	Mockito.doReturn(defaultSonar6Client).when(defaultSonar6Client).forSession(any(SonarServerSession.class));
 
-    	Mockito.doReturn(profileConfigurationChanges).when(defaultSonarClient).getQualityProfileConfigurationChanges(SERVER1, QUALITYPROFILE);
-
-    	Mockito.doReturn(qualityProfiles).when(defaultSonar6Client).getQualityProfiles(SERVER1);
-    	Mockito.doReturn(qualityProfiles).when(defaultSonar6Client).getQualityProfiles(SERVER2);
-
-    	Mockito.doReturn(profileConfigurationChanges).when(defaultSonar6Client).getQualityProfileConfigurationChanges(SERVER1, QUALITYPROFILE);
-    	Mockito.doReturn(profileConfigurationChanges).when(defaultSonar6Client).getQualityProfileConfigurationChanges(SERVER2, QUALITYPROFILE);
+    	delegateBatchesToSingleProjectCalls(defaultSonarClient);
+    	delegateBatchesToSingleProjectCalls(defaultSonar6Client);
     }
 
     @Test
     public void collectEmpty() throws Exception {
-        when(dbComponentRepository.findAll()).thenReturn(components());
         task.collect(new SonarStaticAnalysisCollector());
         verifyZeroInteractions(sonarClientSelector, codeQualityRepository);
     }
 
     @Test
     public void collectOneServer43() throws Exception {
-    	when(dbComponentRepository.findAll()).thenReturn(components());
-        when(sonarClientSelector.getSonarVersion(SERVER1)).thenReturn(VERSION43);
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION43));
         when(sonarSettings.getServers()).thenReturn(Arrays.asList(SERVER1));
         when(sonarSettings.getUsernames()).thenReturn(Arrays.asList("bob"));
         when(sonarSettings.getPasswords()).thenReturn(Arrays.asList("matrix"));
@@ -106,8 +106,7 @@ public class SonarStaticAnalysisCollectorTaskTest {
 
     @Test
     public void collectOneServer54() throws Exception {
-        when(dbComponentRepository.findAll()).thenReturn(components());
-        when(sonarClientSelector.getSonarVersion(SERVER1)).thenReturn(VERSION54);
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION54));
 
         when(sonarSettings.getServers()).thenReturn(Arrays.asList(SERVER1));
         when(sonarSettings.getUsernames()).thenReturn(Arrays.asList("robert"));
@@ -118,15 +117,11 @@ public class SonarStaticAnalysisCollectorTaskTest {
         task.collect(collectorWithOneServer());
 
         verify(sonarClientSelector).getSonarClient(VERSION54);
-        verify(defaultSonar6Client).getQualityProfiles(SERVER1);
-        verify(defaultSonar6Client).retrieveProfileAndProjectAssociation(SERVER1, QUALITYPROFILE);
-        verify(defaultSonar6Client).getQualityProfileConfigurationChanges(SERVER1, QUALITYPROFILE);
     }
 
     @Test
     public void collectOneServer63() throws Exception {
-        when(dbComponentRepository.findAll()).thenReturn(components());
-        when(sonarClientSelector.getSonarVersion(SERVER1)).thenReturn(VERSION63);
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
 
         when(sonarSettings.getServers())
             .thenReturn(Arrays.asList(SERVER1))
@@ -139,16 +134,14 @@ public class SonarStaticAnalysisCollectorTaskTest {
         task.collect(collectorWithOneServer());
 
         verify(sonarClientSelector).getSonarClient(VERSION63);
-        verify(defaultSonar6Client).getQualityProfiles(SERVER1);
-        verify(defaultSonar6Client).retrieveProfileAndProjectAssociation(SERVER1, QUALITYPROFILE);
-        verify(defaultSonar6Client).getQualityProfileConfigurationChanges(SERVER1, QUALITYPROFILE);
+        // quality profile changelogs are collected by QualityProfileChangelogTask on its own schedule
+        verify(defaultSonar6Client, never()).getQualityProfiles(SERVER1);
     }
 
     @Test
     public void collectTwoServer43And54() throws Exception {
-        when(dbComponentRepository.findAll()).thenReturn(components());
-        when(sonarClientSelector.getSonarVersion(SERVER1)).thenReturn(VERSION43);
-        when(sonarClientSelector.getSonarVersion(SERVER2)).thenReturn(VERSION54);
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION43));
+        when(sonarClientSelector.getCapabilities(SERVER2)).thenReturn(SonarCapabilities.forVersion(VERSION54));
         when(sonarSettings.getServers()).thenReturn(Arrays.asList(SERVER1, SERVER2));
         when(sonarSettings.getUsernames()).thenReturn(Arrays.asList("bob", "bob"));
         when(sonarSettings.getPasswords()).thenReturn(Arrays.asList("k", "l"));
@@ -159,21 +152,395 @@ public class SonarStaticAnalysisCollectorTaskTest {
 
         verify(sonarClientSelector).getSonarClient(VERSION43);
         verify(sonarClientSelector).getSonarClient(VERSION54);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerRefreshesProjectsConcurrently() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarSettings.getRefreshConcurrency()).thenReturn(4);
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        List<SonarProject> enabledProjects = enabledProjects(SERVER1, 10);
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(enabledProjects);
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> new CodeQuality());
+
+        task.collect(collectorWithOneServer());
+
+        verify(defaultSonar6Client, times(10)).currentStaticCodeQuality(any(SonarProject.class));
+        // written through the bulk writer, one write per project as the mocked batch size is 0
+        verify(sonarProjectRepository, times(10)).writeRefreshed(any(Map.class), any(List.class));
+        verify(sonarProjectRepository, never()).save(any(SonarProject.class));
+        verify(codeQualityRepository, never()).save(any(CodeQuality.class));
+        assertThat(registry.get("sonar.phase").tags("collector", "Sonar", "phase", SonarMetrics.PHASE_REFRESH, "server", SERVER1)
+                .timer().count(), is(1L));
+        assertThat(registry.get("sonar.projects.refreshed").tags("server", SERVER1).counter().count(), is(10.0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerStoresAgainWhatAFailedWriteLost() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(enabledProjects(SERVER1, 1));
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> {
+            CodeQuality codeQuality = new CodeQuality();
+            codeQuality.setTimestamp(100L);
+            return codeQuality;
+        });
+        Mockito.doThrow(new DataAccessResourceFailureException("down")).doNothing()
+                .when(sonarProjectRepository).writeRefreshed(any(Map.class), any(List.class));
+
+        try {
+            task.collect(collectorWithOneServer());
+            fail("the failed write is reported");
+        } catch (DataAccessResourceFailureException expected) {
+            // the cycle fails with it
+        }
+        task.collect(collectorWithOneServer());
+        task.collect(collectorWithOneServer());
+
+        // the timestamp of the lost write was never cached, the next cycle stores it and the one after skips it
+        verify(sonarProjectRepository, times(2)).writeRefreshed(any(Map.class), any(List.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerPrefetchesLatestQualityTimestampsOnce() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        List<SonarProject> enabledProjects = enabledProjects(SERVER1, 2);
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(enabledProjects);
+        when(sonarProjectRepository.findLatestQualityTimestamps(any(Collection.class)))
+                .thenReturn(Collections.singletonMap(enabledProjects.get(0).getId(), 100L));
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> {
+            CodeQuality codeQuality = new CodeQuality();
+            codeQuality.setTimestamp(100L);
+            return codeQuality;
+        });
+
+        task.collect(collectorWithOneServer());
+        task.collect(collectorWithOneServer());
+
+        verify(sonarProjectRepository, times(1)).findLatestQualityTimestamps(any(Collection.class));
+        verify(codeQualityRepository, never()).findByCollectorItemIdAndTimestamp(any(ObjectId.class), any(Long.class));
+        // only the project without code quality gets one, once
+        verify(sonarProjectRepository, times(1)).writeRefreshed(any(Map.class), any(List.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerStoresAnOlderAnalysisNotStoredYet() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        List<SonarProject> enabledProjects = enabledProjects(SERVER1, 1);
+        ObjectId id = enabledProjects.get(0).getId();
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(enabledProjects);
+        when(sonarProjectRepository.findLatestQualityTimestamps(any(Collection.class)))
+                .thenReturn(Collections.singletonMap(id, 100L));
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> {
+            CodeQuality codeQuality = new CodeQuality();
+            codeQuality.setTimestamp(50L);
+            return codeQuality;
+        });
+
+        task.collect(collectorWithOneServer());
+
+        verify(codeQualityRepository).findByCollectorItemIdAndTimestamp(id, 50L);
+        verify(sonarProjectRepository, times(1)).writeRefreshed(any(Map.class), any(List.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerReconcilesStreamedPages() throws Exception {
+        SonarStaticAnalysisCollector collector = collectorWithOneServer();
+        collector.setId(new ObjectId());
+        List<SonarProject> discovered = enabledProjects(SERVER1, 3);
+        SonarProject kept = project(SERVER1, "project0", collector.getId());
+        SonarProject gone = project(SERVER1, "removedProject", collector.getId());
+        when(sonarProjectRepository.findByCollectorIdIn(any(Set.class))).thenReturn(new ArrayList<>(Arrays.asList(kept, gone)));
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarSettings.isStreamingDiscovery()).thenReturn(true);
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        Mockito.doAnswer(invocation -> {
+            Consumer<List<SonarProject>> pages = (Consumer<List<SonarProject>>) invocation.getArguments()[1];
+            pages.accept(new ArrayList<>(discovered.subList(0, 2)));
+            pages.accept(new ArrayList<>(discovered.subList(2, 3)));
+            return true;
+        }).when(defaultSonar6Client).streamProjects(eq(SERVER1), any(Consumer.class));
+
+        task.collect(collector);
+
+        verify(defaultSonar6Client, never()).getProjects(SERVER1);
+        // one insert per page for the new projects, the known one is only updated
+        verify(sonarProjectRepository).save(Collections.singletonList(discovered.get(1)));
+        verify(sonarProjectRepository).save(Collections.singletonList(discovered.get(2)));
+        verify(sonarProjectRepository).save(Collections.singletonList(kept));
+        verify(sonarProjectRepository).delete(Collections.singletonList(gone));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerKeepsTheProjectsOfAnIncompleteDiscovery() throws Exception {
+        SonarStaticAnalysisCollector collector = collectorWithOneServer();
+        collector.setId(new ObjectId());
+        List<SonarProject> unread = Arrays.asList(project(SERVER1, "unread1", collector.getId()),
+                project(SERVER1, "unread2", collector.getId()));
+        unread.forEach(project -> project.setEnabled(true));
+        when(sonarProjectRepository.findByCollectorIdIn(any(Set.class))).thenReturn(new ArrayList<>(unread));
+        when(sonarProjectRepository.findReferencedItemIds(collector.getId(), CollectorType.CodeQuality))
+                .thenReturn(new HashSet<>(Arrays.asList(unread.get(0).getId(), unread.get(1).getId())));
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarSettings.isStreamingDiscovery()).thenReturn(true);
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        Mockito.doAnswer(invocation -> {
+            ((Consumer<List<SonarProject>>) invocation.getArguments()[1]).accept(enabledProjects(SERVER1, 2));
+            // a later page could not be read
+            return false;
+        }).when(defaultSonar6Client).streamProjects(eq(SERVER1), any(Consumer.class));
+
+        task.collect(collector);
+
+        verify(sonarProjectRepository, never()).delete(any(List.class));
+        verify(sonarProjectRepository, never()).detachFromComponents(any(CollectorType.class), any(List.class));
+    }
+
+    @Test
+    public void collectTogglesEnabledStateWithBulkUpdates() throws Exception {
+        SonarStaticAnalysisCollector collector = new SonarStaticAnalysisCollector();
+        collector.setId(new ObjectId());
+        SonarProject onDashboard = project(SERVER1, "onDashboard", collector.getId());
+        SonarProject offDashboard = project(SERVER1, "offDashboard", collector.getId());
+        offDashboard.setEnabled(true);
+        when(sonarProjectRepository.findByCollectorIdIn(any(Set.class))).thenReturn(new ArrayList<>(Arrays.asList(onDashboard, offDashboard)));
+        when(sonarProjectRepository.findReferencedItemIds(collector.getId(), CollectorType.CodeQuality))
+                .thenReturn(new HashSet<>(Collections.singletonList(onDashboard.getId())));
+
+        task.collect(collector);
+
+        verify(dbComponentRepository, never()).findAll();
+        verify(sonarProjectRepository).updateEnabled(Collections.singletonList(onDashboard.getId()), true);
+        verify(sonarProjectRepository).updateEnabled(Collections.singletonList(offDashboard.getId()), false);
+        verify(sonarProjectRepository, never()).save(any(List.class));
+    }
 
-        verify(defaultSonar6Client).getQualityProfiles(SERVER2);
-        verify(defaultSonar6Client).retrieveProfileAndProjectAssociation(SERVER2, QUALITYPROFILE);
-        verify(defaultSonar6Client).getQualityProfileConfigurationChanges(SERVER2, QUALITYPROFILE);
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerDetachesRemovedEnabledProjectsInBulk() throws Exception {
+        SonarStaticAnalysisCollector collector = collectorWithOneServer();
+        collector.setId(new ObjectId());
+        List<SonarProject> gone = Arrays.asList(project(SERVER1, "removed1", collector.getId()),
+                project(SERVER1, "removed2", collector.getId()));
+        gone.forEach(project -> project.setEnabled(true));
+        when(sonarProjectRepository.findByCollectorIdIn(any(Set.class))).thenReturn(new ArrayList<>(gone));
+        // both are still on a dashboard, so clean keeps them enabled
+        when(sonarProjectRepository.findReferencedItemIds(collector.getId(), CollectorType.CodeQuality))
+                .thenReturn(new HashSet<>(Arrays.asList(gone.get(0).getId(), gone.get(1).getId())));
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+
+        task.collect(collector);
+
+        verify(sonarProjectRepository, times(1)).detachFromComponents(eq(CollectorType.CodeQuality),
+                eq(Arrays.asList(gone.get(0).getId(), gone.get(1).getId())));
+        verify(sonarProjectRepository).delete(gone);
+    }
+
+    @Test
+    public void collectOneServerReusesTheOtherCollectorsDiscovery() throws Exception {
+        SonarStaticAnalysisCollector collector = collectorWithOneServer();
+        collector.setId(new ObjectId());
+        when(sonarProjectRepository.findByCollectorIdIn(any(Set.class))).thenReturn(new ArrayList<>());
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        when(sonarSettings.getDiscoverySnapshotTtl()).thenReturn(60000L);
+        DiscoverySnapshots.Recording recording = discoverySnapshots.record(SERVER1, new ObjectId());
+        recording.add(enabledProjects(SERVER1, 2));
+        recording.finish();
+
+        task.collect(collector);
+
+        verify(defaultSonar6Client, never()).getProjects(SERVER1);
+        verify(defaultSonar6Client, never()).streamProjects(eq(SERVER1), any(Consumer.class));
+        verify(sonarProjectRepository, times(1)).save(any(List.class));
+        assertThat(registry.get("sonar.discovery.snapshot.hits").tags("server", SERVER1).counter().count(), is(1.0));
+
+        // a snapshot the collector recorded itself is never served back
+        recording = discoverySnapshots.record(SERVER1, collector.getId());
+        recording.add(enabledProjects(SERVER1, 2));
+        recording.finish();
+        task.collect(collector);
+
+        verify(defaultSonar6Client, times(1)).getProjects(SERVER1);
+        assertThat(registry.get("sonar.discovery.snapshot.misses").tags("server", SERVER1).counter().count(), is(1.0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void collectOneServerDoesNotShareAnIncompleteDiscovery() throws Exception {
+        SonarStaticAnalysisCollector collector = collectorWithOneServer();
+        collector.setId(new ObjectId());
+        when(sonarProjectRepository.findByCollectorIdIn(any(Set.class))).thenReturn(new ArrayList<>());
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        when(sonarSettings.isStreamingDiscovery()).thenReturn(true);
+        Mockito.doAnswer(invocation -> {
+            ((Consumer<List<SonarProject>>) invocation.getArguments()[1]).accept(enabledProjects(SERVER1, 2));
+            // a later page could not be read
+            return false;
+        }).when(defaultSonar6Client).streamProjects(eq(SERVER1), any(Consumer.class));
+
+        task.collect(collector);
+
+        assertThat(discoverySnapshots.replay(SERVER1, new ObjectId(), 60000L, page -> { }), is(false));
+    }
+
+    @Test
+    public void collectOneServerIncrementallyRefreshesAnalysedProjects() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        when(sonarSettings.isIncrementalRefresh()).thenReturn(true);
+        when(sonarSettings.getFullRefreshInterval()).thenReturn(86400000L);
+        when(sonarSettings.getActivityLookback()).thenReturn(3600000L);
+        List<SonarProject> enabledProjects = enabledProjects(SERVER1, 3);
+        enabledProjects.forEach(project -> project.setLastUpdated(1L));
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(enabledProjects);
+        SonarRefreshMark mark = new SonarRefreshMark(null, SERVER1);
+        long lastCheck = System.currentTimeMillis() - 300000;
+        mark.setLastAnalysisCheck(lastCheck);
+        mark.setLastFullRefresh(lastCheck);
+        when(refreshMarkRepository.findByCollectorIdAndInstanceUrlAndShard(null, SERVER1, null)).thenReturn(mark);
+        AnalysisActivity activity = new AnalysisActivity();
+        activity.add("id1", "project1");
+        when(defaultSonar6Client.getAnalysisActivity(SERVER1, lastCheck - 3600000L)).thenReturn(activity);
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> new CodeQuality());
+
+        task.collect(collectorWithOneServer());
+
+        verify(defaultSonar6Client).currentStaticCodeQuality(enabledProjects.get(1));
+        verify(defaultSonar6Client, times(1)).currentStaticCodeQuality(any(SonarProject.class));
+        verify(refreshMarkRepository).save(mark);
+        assertThat(mark.getLastAnalysisCheck() > lastCheck, is(true));
+        assertThat(mark.getLastFullRefresh(), is(lastCheck));
+    }
+
+    @Test
+    public void collectOneServerFallsBackToFullRefreshWithoutActivity() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        when(sonarSettings.isIncrementalRefresh()).thenReturn(true);
+        when(sonarSettings.getFullRefreshInterval()).thenReturn(86400000L);
+        List<SonarProject> enabledProjects = enabledProjects(SERVER1, 3);
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(enabledProjects);
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> new CodeQuality());
+
+        task.collect(collectorWithOneServer());
+
+        // no stored mark yet, so the first run is a full refresh
+        verify(defaultSonar6Client, never()).getAnalysisActivity(any(String.class), any(Long.class));
+        verify(defaultSonar6Client, times(3)).currentStaticCodeQuality(any(SonarProject.class));
+        verify(refreshMarkRepository).save(any(SonarRefreshMark.class));
+    }
+
+    @Test
+    public void shardNodesRefreshOnlyTheirProjects() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        List<String> nodes = Arrays.asList("node-a", "node-b");
+        ShardAssignment assignment = new ShardAssignment("node-b", nodes, false, new ConsistentHashRing(nodes, 128));
+        Mockito.doReturn(assignment).when(shards).assignment("Sonar");
+        List<SonarProject> enabledProjects = enabledProjects(SERVER1, 20);
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(enabledProjects);
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> new CodeQuality());
+
+        task.collect(collectorWithOneServer());
+
+        // the coordinator cleans, discovers and deletes, this node only refreshes its share
+        verify(sonarProjectRepository, never()).findByCollectorIdIn(any(Collection.class));
+        verify(defaultSonar6Client, never()).getProjects(SERVER1);
+        verify(sonarProjectRepository, never()).delete(any(Iterable.class));
+        for (SonarProject project : enabledProjects) {
+            verify(defaultSonar6Client, times(assignment.owns(project.getId()) ? 1 : 0)).currentStaticCodeQuality(project);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void projectBouncingBetweenNodesIsNotStoredTwice() throws Exception {
+        when(sonarClientSelector.getCapabilities(SERVER1)).thenReturn(SonarCapabilities.forVersion(VERSION63));
+        when(sonarClientSelector.getSonarClient(VERSION63)).thenReturn(defaultSonar6Client);
+        List<String> alone = Collections.singletonList("node-a");
+        List<String> shared = Arrays.asList("node-a", "node-b");
+        ConsistentHashRing sharedRing = new ConsistentHashRing(shared, 128);
+        List<SonarProject> projects = enabledProjects(SERVER1, 1);
+        while (!"node-b".equals(sharedRing.owner(projects.get(0).getId().toHexString()))) {
+            projects = enabledProjects(SERVER1, 1);
+        }
+        ObjectId bouncing = projects.get(0).getId();
+        when(sonarProjectRepository.findEnabledProjects(null, SERVER1)).thenReturn(projects);
+        AtomicLong analysis = new AtomicLong(100L);
+        when(defaultSonar6Client.currentStaticCodeQuality(any(SonarProject.class))).thenAnswer(invocation -> {
+            CodeQuality codeQuality = new CodeQuality();
+            codeQuality.setTimestamp(analysis.get());
+            return codeQuality;
+        });
+        when(sonarProjectRepository.findLatestQualityTimestamps(any(Collection.class)))
+                .thenReturn(Collections.singletonMap(bouncing, 100L))
+                .thenReturn(Collections.singletonMap(bouncing, 200L));
+        when(codeQualityRepository.findByCollectorItemIdAndTimestamp(bouncing, 200L)).thenReturn(new CodeQuality());
+
+        Mockito.doReturn(new ShardAssignment("node-a", alone, true, new ConsistentHashRing(alone, 128))).when(shards).assignment("Sonar");
+        task.collect(collectorWithOneServer());
+        verify(refreshMarkRepository).deleteByCollectorIdAndShardNotIn(null, alone);
+
+        // node-b takes the project over and stores its next analysis
+        Mockito.doReturn(new ShardAssignment("node-a", shared, true, sharedRing)).when(shards).assignment("Sonar");
+        task.collect(collectorWithOneServer());
+        analysis.set(200L);
+
+        // and hands it back
+        Mockito.doReturn(new ShardAssignment("node-a", alone, true, new ConsistentHashRing(alone, 128))).when(shards).assignment("Sonar");
+        task.collect(collectorWithOneServer());
+
+        // the timestamp cached before the move was dropped and read again
+        verify(sonarProjectRepository, times(2)).findLatestQualityTimestamps(any(Collection.class));
+        verify(sonarProjectRepository, never()).writeRefreshed(any(Map.class), any(List.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void delegateBatchesToSingleProjectCalls(SonarClient client) {
+        Mockito.doAnswer(invocation -> {
+            BiConsumer<SonarProject, CodeQuality> qualityConsumer = (BiConsumer<SonarProject, CodeQuality>) invocation.getArguments()[2];
+            for (SonarProject project : (List<SonarProject>) invocation.getArguments()[0]) {
+                CodeQuality codeQuality = client.currentStaticCodeQuality(project);
+                if (codeQuality != null) {
+                    qualityConsumer.accept(project, codeQuality);
+                }
+            }
+            return null;
+        }).when(client).currentCodeQuality(any(List.class), eq(CodeQualityType.StaticAnalysis), any(BiConsumer.class));
+    }
 
+    private SonarProject project(String instanceUrl, String name, ObjectId collectorId) {
+        SonarProject project = new SonarProject();
+        project.setId(new ObjectId());
+        project.setCollectorId(collectorId);
+        project.setInstanceUrl(instanceUrl);
+        project.setProjectName(name);
+        return project;
     }
 
-    private ArrayList<com.capitalone.dashboard.model.Component> components() {
-        ArrayList<com.capitalone.dashboard.model.Component> cArray = new ArrayList<>();
-        com.capitalone.dashboard.model.Component c = new Component();
-        c.setId(new ObjectId());
-        c.setName("COMPONENT1");
-        c.setOwner("JOHN");
-        cArray.add(c);
-        return cArray;
+    private List<SonarProject> enabledProjects(String instanceUrl, int size) {
+        List<SonarProject> projects = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            SonarProject project = new SonarProject();
+            project.setId(new ObjectId());
+            project.setInstanceUrl(instanceUrl);
+            project.setProjectName("project" + i);
+            project.setProjectId("id" + i);
+            project.setEnabled(true);
+            projects.add(project);
+        }
+        return projects;
     }
 
     private SonarStaticAnalysisCollector collectorWithOneServer() {
@@ -0,0 +1,108 @@
+package com.capitalone.dashboard.repository;
+
+import com.capitalone.dashboard.model.SonarCollectorLease;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs against a local mongo, e.g. {@code mvn test -Dsonar.test.mongoUri=mongodb://localhost:27017},
+ * and is skipped without one.
+ */
+public class SonarCollectorLeaseRepositoryTest {
+    private static final String MONGO_URI = System.getProperty("sonar.test.mongoUri");
+    private static final String DATABASE = "sonar_collector_lease_test";
+
+    private MongoClient client;
+    private MongoTemplate template;
+    private SonarCollectorLeaseRepository leases;
+
+    @Before
+    public void connect() {
+        Assume.assumeTrue("no local mongo configured", MONGO_URI != null && !MONGO_URI.isEmpty());
+        client = new MongoClient(new MongoClientURI(MONGO_URI));
+        template = new MongoTemplate(client, DATABASE);
+        template.dropCollection(SonarCollectorLease.class);
+        leases = new MongoRepositoryFactory(template).getRepository(SonarCollectorLeaseRepository.class,
+                new SonarCollectorLeaseRepositoryImpl(template));
+    }
+
+    @After
+    public void disconnect() {
+        if (client != null) {
+            client.dropDatabase(DATABASE);
+            client.close();
+        }
+    }
+
+    @Test
+    public void aLeaseHasOneOwnerUntilItExpires() {
+        assertThat(leases.acquire("coordinator:Sonar", "node-a", 1000, 31000), is(true));
+        assertThat(leases.acquire("coordinator:Sonar", "node-b", 2000, 32000), is(false));
+        assertThat(leases.acquire("coordinator:Sonar", "node-a", 11000, 41000), is(true));
+
+        assertThat(leases.acquire("coordinator:Sonar", "node-b", 40999, 70999), is(false));
+        assertThat(leases.acquire("coordinator:Sonar", "node-b", 41000, 71000), is(true));
+        assertThat(leases.acquire("coordinator:Sonar", "node-a", 42000, 72000), is(false));
+        assertThat(leases.count(), is(1L));
+    }
+
+    @Test
+    public void releasedLeasesAreFreeAtOnce() {
+        leases.acquire("coordinator:Sonar", "node-a", 1000, 31000);
+
+        leases.release("coordinator:Sonar", "node-b");
+        assertThat(leases.acquire("coordinator:Sonar", "node-b", 2000, 32000), is(false));
+
+        leases.release("coordinator:Sonar", "node-a");
+        assertThat(leases.acquire("coordinator:Sonar", "node-b", 2000, 32000), is(true));
+    }
+
+    @Test
+    public void liveNodesAreTheOnesWithUnexpiredLeases() {
+        leases.acquire("node:node-a", "node-a", 1000, 31000);
+        leases.acquire("node:node-b", "node-b", 1000, 11000);
+        leases.acquire("coordinator:Sonar", "node-a", 1000, 31000);
+
+        List<SonarCollectorLease> live = leases.findByNameStartingWithAndExpiresAtGreaterThan("node:", 20000);
+        assertThat(live.size(), is(1));
+        assertThat(live.get(0).getOwner(), is("node-a"));
+
+        leases.deleteByExpiresAtLessThan(20000);
+        assertThat(leases.count(), is(2L));
+    }
+
+    @Test
+    public void onlyOneOfManyNodesTakesAFreeLease() throws Exception {
+        ExecutorService nodes = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Boolean>> attempts = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String node = "node-" + i;
+                attempts.add(() -> leases.acquire("coordinator:SonarSecurity", node, 1000, 31000));
+            }
+            int taken = 0;
+            for (Future<Boolean> attempt : nodes.invokeAll(attempts)) {
+                taken += attempt.get() ? 1 : 0;
+            }
+            assertThat(taken, is(1));
+        } finally {
+            nodes.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.capitalone.dashboard.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class JsonStreamsTest {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Test
+    public void readsOnlyTheFieldsAskedForAndSkipsNestedValues() throws IOException {
+        List<String> names = new ArrayList<>();
+        JsonStreams.readObject(parser("{\"paging\":{\"total\":2},\"components\":[{\"name\":\"a\",\"tags\":[1,{\"x\":2}]},{\"name\":\"b\"}],\"tail\":true}"),
+                (field, p) -> {
+                    if ("components".equals(field)) {
+                        JsonStreams.readArray(p, component -> JsonStreams.readObject(component, (name, value) -> {
+                            if ("name".equals(name)) {
+                                names.add(JsonStreams.text(value));
+                            }
+                        }));
+                    }
+                });
+
+        assertThat(names, contains("a", "b"));
+    }
+
+    @Test
+    public void readArrayFieldBuildsJsonSimpleTypes() throws IOException {
+        JSONArray events = JsonStreams.readArrayField(parser("{\"total\":1,\"events\":[{\"key\":\"k\",\"count\":3,\"ratio\":0.5,\"on\":true,\"none\":null}]}"), "events");
+
+        JSONObject event = (JSONObject) events.get(0);
+        assertThat(event.get("key"), is((Object) "k"));
+        assertThat(event.get("count"), is((Object) 3L));
+        assertThat(event.get("ratio"), is((Object) 0.5));
+        assertThat(event.get("on"), is((Object) Boolean.TRUE));
+        assertThat(event.containsKey("none"), is(true));
+    }
+
+    @Test
+    public void missingArrayFieldIsNull() throws IOException {
+        assertThat(JsonStreams.readArrayField(parser("{\"events\":null}"), "events"), is(nullValue()));
+        assertThat(JsonStreams.readArrayField(parser("{}"), "events"), is(nullValue()));
+    }
+
+    @Test
+    public void numbersAreReadAsWritten() throws IOException {
+        List<String> values = new ArrayList<>();
+        JsonStreams.readArray(parser("[\"12.5\",12.50,7,null]"), p -> values.add(JsonStreams.text(p)));
+
+        assertThat(values, contains("12.5", "12.50", "7", null));
+    }
+
+    @Test(expected = JsonParseException.class)
+    public void rejectsUnexpectedStructure() throws IOException {
+        JsonStreams.readObject(parser("[1,2]"), (field, p) -> { });
+    }
+
+    private static JsonParser parser(String json) throws IOException {
+        return JSON_FACTORY.createParser(json);
+    }
+}
@@ -0,0 +1,90 @@
+package com.capitalone.dashboard.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelExecutorTest {
+
+    @Test
+    public void runsInlineWithParallelismOfOne() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        ParallelExecutor.forEach(items(5), 1, "test", item -> threads.add(Thread.currentThread().getName()));
+        assertEquals(1, threads.size());
+        assertTrue(threads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void runsEveryItemConcurrently() throws Exception {
+        CountDownLatch allStarted = new CountDownLatch(4);
+        AtomicInteger processed = new AtomicInteger();
+        ParallelExecutor.forEach(items(4), 4, "test", item -> {
+            allStarted.countDown();
+            try {
+                // only completes when all four items are in flight at the same time
+                assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.incrementAndGet();
+        });
+        assertEquals(4, processed.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rethrowsFailureAfterAllItemsComplete() {
+        AtomicInteger processed = new AtomicInteger();
+        try {
+            ParallelExecutor.forEach(items(6), 3, "test", item -> {
+                processed.incrementAndGet();
+                if (item == 2) {
+                    throw new IllegalArgumentException("boom");
+                }
+            });
+        } finally {
+            assertEquals(6, processed.get());
+        }
+    }
+
+    @Test
+    public void reusesTheThreadsOfARole() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        for (int call = 0; call < 20; call++) {
+            ParallelExecutor.forEach(items(2), 2, "reused", item -> threads.add(Thread.currentThread().getName()));
+        }
+        // new threads for every call would be 40
+        assertTrue(threads.size() < 20);
+    }
+
+    @Test
+    public void neverRunsMoreThreadsOfARoleThanTheMaximum() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        ParallelExecutor.forEach(items(200), 200, "capped", item -> {
+            threads.add(Thread.currentThread().getName());
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        threads.remove(Thread.currentThread().getName());
+        assertTrue(threads.size() <= ParallelExecutor.MAX_THREADS_PER_ROLE);
+    }
+
+    private List<Integer> items(int size) {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+}